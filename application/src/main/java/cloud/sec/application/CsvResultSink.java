@@ -0,0 +1,61 @@
+package cloud.sec.application;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * Writes results as CSV, with a header of column labels. Values with commas, quotes or line breaks are quoted,
+ * and nulls are written as empty values.
+ */
+public class CsvResultSink extends ResultSink {
+    private int columnCount;
+
+    public CsvResultSink(Writer writer) {
+        super(writer);
+    }
+
+    @Override
+    public void start(ResultSetMetaData meta) throws SQLException, IOException {
+        columnCount = meta.getColumnCount();
+        for (int i = 1; i <= columnCount; i++) {
+            if (i > 1) {
+                writer.write(',');
+            }
+            write(meta.getColumnLabel(i));
+        }
+        writer.write('\n');
+    }
+
+    @Override
+    public void row(ResultSet results) throws SQLException, IOException {
+        for (int i = 1; i <= columnCount; i++) {
+            if (i > 1) {
+                writer.write(',');
+            }
+            Object value = results.getObject(i);
+            if (value != null) {
+                write(value.toString());
+            }
+        }
+        writer.write('\n');
+    }
+
+    private void write(String value) throws IOException {
+        boolean quoted = false;
+        for (int i = 0; i < value.length() && !quoted; i++) {
+            char c = value.charAt(i);
+            quoted = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quoted) {
+            writer.write(value);
+            return;
+        }
+
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+}
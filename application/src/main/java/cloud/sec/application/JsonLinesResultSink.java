@@ -0,0 +1,71 @@
+package cloud.sec.application;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * Writes results as JSON lines, i.e. every row as an object of column labels and values on its own line.
+ * Numbers and booleans are written as such, other values as strings.
+ */
+public class JsonLinesResultSink extends ResultSink {
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    private final JsonGenerator generator;
+    private String[] labels;
+
+    public JsonLinesResultSink(Writer writer) {
+        super(writer);
+        try {
+            generator = FACTORY.createGenerator(writer);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        generator.disable(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM);
+        generator.setRootValueSeparator(null); // rows are separated by line breaks instead
+    }
+
+    @Override
+    public void start(ResultSetMetaData meta) throws SQLException {
+        labels = new String[meta.getColumnCount()];
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = meta.getColumnLabel(i + 1);
+        }
+    }
+
+    @Override
+    public void row(ResultSet results) throws SQLException, IOException {
+        generator.writeStartObject();
+        for (int i = 0; i < labels.length; i++) {
+            generator.writeFieldName(labels[i]);
+            write(results.getObject(i + 1));
+        }
+        generator.writeEndObject();
+        generator.flush(); // into the writer, which is flushed only once the result ends
+        writer.write('\n');
+    }
+
+    private void write(Object value) throws IOException {
+        if (value == null) {
+            generator.writeNull();
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short
+                || value instanceof Byte) {
+            generator.writeNumber(((Number) value).longValue());
+        } else if (value instanceof BigDecimal) {
+            generator.writeNumber((BigDecimal) value);
+        } else if (value instanceof Number) {
+            generator.writeNumber(((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            generator.writeBoolean((Boolean) value);
+        } else {
+            generator.writeString(value.toString());
+        }
+    }
+}
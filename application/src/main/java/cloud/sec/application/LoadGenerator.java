@@ -0,0 +1,250 @@
+package cloud.sec.application;
+
+import cloud.sec.core.MultiCloudTestDatabase;
+import org.HdrHistogram.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays a workload of SQL statements from concurrent clients, each with its own Calcite connection, and reports
+ * throughput and latency percentiles of every statement.
+ * <p>
+ * Every client runs all statements of the workload one after another, starting from a different statement, until
+ * the test ends. Statements run during the warm-up are not measured. Results of queries are read to the end.
+ */
+public class LoadGenerator {
+    private static final Logger logger = LoggerFactory.getLogger(LoadGenerator.class);
+
+    public static final String CLIENTS_PROPERTY = "cloudsec.load.clients";
+    public static final String DURATION_PROPERTY = "cloudsec.load.duration";
+    public static final String WARMUP_PROPERTY = "cloudsec.load.warmup";
+    public static final String EMPLOYEES_PROPERTY = "cloudsec.load.employees";
+
+    // latencies are recorded in microseconds, from 1 us up to an hour, with 3 significant digits
+    private static final long MAX_LATENCY_MICROS = TimeUnit.HOURS.toMicros(1);
+
+    private final List<String> statements;
+    private final Set<String> failedStatements = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final Properties connectionProperties;
+    private final int clients;
+    private final long warmupNanos;
+    private final long durationNanos;
+
+    public LoadGenerator(List<String> statements, Properties connectionProperties, int clients,
+                         long warmupSeconds, long durationSeconds) {
+        this.statements = statements;
+        this.connectionProperties = connectionProperties;
+        this.clients = clients;
+        this.warmupNanos = TimeUnit.SECONDS.toNanos(warmupSeconds);
+        this.durationNanos = TimeUnit.SECONDS.toNanos(durationSeconds);
+    }
+
+    /**
+     * Runs the workload from the given file, or the bundled {@code workload.sql} without it, against the
+     * embedded databases.
+     */
+    public static void run(String workloadFile) throws Exception {
+        List<String> statements = readWorkload(workloadFile == null
+                ? LoadGenerator.class.getResourceAsStream("/workload.sql")
+                : new FileInputStream(workloadFile));
+
+        int employees = Integer.getInteger(EMPLOYEES_PROPERTY, 10000);
+        logger.info("Creating embedded databases with " + employees + " employees");
+        MultiCloudTestDatabase.create(employees);
+        // the load test measures throughput of concurrent clients, which write the same rows
+        MultiCloudTestDatabase.disableLocks();
+        Class.forName("org.apache.calcite.jdbc.Driver");
+
+        LoadGenerator generator = new LoadGenerator(statements, MultiCloudTestDatabase.connectionProperties(),
+                Integer.getInteger(CLIENTS_PROPERTY, Runtime.getRuntime().availableProcessors()),
+                Long.getLong(WARMUP_PROPERTY, 5), Long.getLong(DURATION_PROPERTY, 30));
+        generator.run().print(System.out);
+    }
+
+    /**
+     * Reads statements, which end with a semicolon at the end of a line, skipping lines which start with --.
+     */
+    static List<String> readWorkload(InputStream input) throws IOException {
+        List<String> statements = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8))) {
+            StringBuilder statement = new StringBuilder();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("--")) {
+                    continue;
+                }
+                statement.append(statement.length() > 0 ? " " : "").append(line);
+                if (line.endsWith(";")) {
+                    statement.setLength(statement.length() - 1);
+                    statements.add(statement.toString());
+                    statement.setLength(0);
+                }
+            }
+            if (statement.length() > 0) {
+                statements.add(statement.toString());
+            }
+        }
+        if (statements.isEmpty()) {
+            throw new IllegalArgumentException("Workload has no statements");
+        }
+        return statements;
+    }
+
+    /**
+     * Runs the workload from all clients and returns their merged results.
+     */
+    public Result run() throws Exception {
+        logger.info("Running " + statements.size() + " statements from " + clients + " clients for "
+                + TimeUnit.NANOSECONDS.toSeconds(durationNanos) + " s, after "
+                + TimeUnit.NANOSECONDS.toSeconds(warmupNanos) + " s of warm-up");
+
+        ExecutorService executor = Executors.newFixedThreadPool(clients);
+        try {
+            long start = System.nanoTime();
+            List<Future<Result>> futures = new ArrayList<>();
+            for (int i = 0; i < clients; i++) {
+                futures.add(executor.submit(client(i, start + warmupNanos, start + warmupNanos + durationNanos)));
+            }
+
+            Result result = new Result(statements, durationNanos);
+            for (Future<Result> future : futures) {
+                result.add(future.get());
+            }
+            return result;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Callable<Result> client(final int client, final long measuredFrom, final long end) {
+        return new Callable<Result>() {
+            @Override
+            public Result call() throws SQLException {
+                Result result = new Result(statements, durationNanos);
+                try (Connection connection = DriverManager.getConnection("jdbc:calcite:", connectionProperties)) {
+                    for (int i = client; ; i++) {
+                        int index = i % statements.size();
+                        long start = System.nanoTime();
+                        if (start >= end) {
+                            return result;
+                        }
+
+                        boolean failed = !execute(connection, statements.get(index));
+                        if (start >= measuredFrom) {
+                            result.record(index, System.nanoTime() - start, failed);
+                        }
+                    }
+                }
+            }
+        };
+    }
+
+    private boolean execute(Connection connection, String sql) {
+        try (Statement statement = connection.createStatement()) {
+            if (statement.execute(sql)) {
+                try (ResultSet results = statement.getResultSet()) {
+                    while (results.next()) {
+                        // rows are read, but not kept
+                    }
+                }
+            }
+            return true;
+        } catch (SQLException | RuntimeException e) {
+            if (failedStatements.add(sql)) {
+                logger.warn("Statement failed, further failures are only counted: " + sql, e);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Latencies and failures of every statement.
+     */
+    public static class Result {
+        private final List<String> statements;
+        private final long durationNanos;
+        private final Histogram[] latencies;
+        private final long[] failures;
+
+        Result(List<String> statements, long durationNanos) {
+            this.statements = statements;
+            this.durationNanos = durationNanos;
+            this.latencies = new Histogram[statements.size()];
+            this.failures = new long[statements.size()];
+            for (int i = 0; i < latencies.length; i++) {
+                latencies[i] = new Histogram(MAX_LATENCY_MICROS, 3);
+            }
+        }
+
+        void record(int statement, long nanos, boolean failed) {
+            if (failed) {
+                failures[statement]++;
+            } else {
+                latencies[statement].recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(nanos),
+                        MAX_LATENCY_MICROS));
+            }
+        }
+
+        void add(Result other) {
+            for (int i = 0; i < latencies.length; i++) {
+                latencies[i].add(other.latencies[i]);
+                failures[i] += other.failures[i];
+            }
+        }
+
+        /**
+         * Prints throughput, failures and latency percentiles in milliseconds of every statement and of all of them.
+         */
+        public void print(PrintStream out) {
+            Histogram total = new Histogram(MAX_LATENCY_MICROS, 3);
+            long totalFailures = 0;
+
+            out.println(String.format("%-10s %8s %10s %8s %8s %8s %8s %8s %8s  %s", "statement", "count", "ops/s",
+                    "errors", "p50", "p90", "p99", "p99.9", "max", "sql"));
+            for (int i = 0; i < latencies.length; i++) {
+                print(out, "#" + (i + 1), latencies[i], failures[i], statements.get(i));
+                total.add(latencies[i]);
+                totalFailures += failures[i];
+            }
+            print(out, "total", total, totalFailures, "");
+        }
+
+        private void print(PrintStream out, String name, Histogram histogram, long failures, String sql) {
+            double seconds = durationNanos / (double) TimeUnit.SECONDS.toNanos(1);
+            out.println(String.format("%-10s %8d %10.1f %8d %8.2f %8.2f %8.2f %8.2f %8.2f  %s", name,
+                    histogram.getTotalCount(), histogram.getTotalCount() / seconds, failures,
+                    millis(histogram.getValueAtPercentile(50)), millis(histogram.getValueAtPercentile(90)),
+                    millis(histogram.getValueAtPercentile(99)), millis(histogram.getValueAtPercentile(99.9)),
+                    millis(histogram.getMaxValue()), sql));
+        }
+
+        private static double millis(long micros) {
+            return micros / 1000.0;
+        }
+    }
+}
@@ -1,14 +1,33 @@
 package cloud.sec.application;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
 import java.io.FileReader;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.sql.*;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Properties;
 
+/**
+ * Runs queries given as arguments, or an example query without them, and streams their rows into the standard output
+ * or the file named by {@value #OUTPUT_PROPERTY}, as CSV or JSON lines ({@value #FORMAT_PROPERTY}), reading
+ * {@value #FETCH_SIZE_PROPERTY} rows at a time (1000 by default). Connection settings are read from the file named by
+ * {@value #SETTINGS_PROPERTY}.
+ * <p>
+ * With {@code --load [workload file]} as arguments, runs a load test against embedded databases instead, see
+ * {@link LoadGenerator}.
+ */
 public class Main {
-    private static final Logger logger = LoggerFactory.getLogger(Main.class);
+    public static final String OUTPUT_PROPERTY = "cloudsec.output";
+    public static final String FORMAT_PROPERTY = "cloudsec.output.format";
+    public static final String FETCH_SIZE_PROPERTY = "cloudsec.fetch.size";
+    public static final String SETTINGS_PROPERTY = "cloudsec.settings";
 
     public static void main(String[] argv) {
         // EXPLAIN: I disabled multicloud rules since I don't need them
@@ -24,7 +43,16 @@ public class Main {
         String tableModifyUpdatePartial = "UPDATE `mc_db`.`employees` SET `age` = 25 WHERE `id` = 13";
         String tableModifyDelete = "DELETE FROM `mc_db`.`employees` WHERE `id` = 13";
 
-        String dbSettingsFile = "application/src/main/resources/calcite.properties";
+        String dbSettingsFile = System.getProperty(SETTINGS_PROPERTY, "application/src/main/resources/calcite.properties");
+
+        if (argv.length > 0 && argv[0].equals("--load")) {
+            runLoad(argv.length > 1 ? argv[1] : null);
+            return;
+        }
+        if (argv.length > 0) {
+            execute(Arrays.asList(argv), dbSettingsFile);
+            return;
+        }
 
         //execute(scanProjectAll, dbSettingsFile); // works
         //execute(scanJoinFilterProjectAll, dbSettingsFile); // works
@@ -39,55 +67,52 @@ public class Main {
         //execute(tableModifyDelete, dbSettingsFile); // works - shows entire table
     }
 
+    private static void runLoad(String workloadFile) {
+        try {
+            LoadGenerator.run(workloadFile);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
     private static void execute(String query, String dbSettingsFile) {
-        logger.info("Executing query: " + query);
+        execute(Collections.singletonList(query), dbSettingsFile);
+    }
 
+    private static void execute(List<String> queries, String dbSettingsFile) {
         try {
             FileReader dbSettingsReader = new FileReader(dbSettingsFile);
             Properties dbSettings = new Properties();
             dbSettings.load(dbSettingsReader);
 
             Class.forName(dbSettings.getProperty("driver"));
-            Connection connection = DriverManager.getConnection(dbSettings.getProperty("url"), dbSettings);
-
-            Statement statement = connection.createStatement();
-            boolean isQuery = statement.execute(query);
-
-            if (isQuery) {
-                handleQuery(statement);
-            } else {
-                handleDML(statement);
+            try (Connection connection = DriverManager.getConnection(dbSettings.getProperty("url"), dbSettings);
+                 Writer output = output()) {
+                ResultSink sink = ResultSink.of(System.getProperty(FORMAT_PROPERTY, "csv"), output);
+                QueryRunner runner = new QueryRunner(connection, sink, Integer.getInteger(FETCH_SIZE_PROPERTY, 1000));
+                for (String query : queries) {
+                    runner.run(query);
+                }
             }
-
-            statement.close();
-            connection.close();
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
-    private static void handleQuery(Statement statement) throws Exception {
-        ResultSet results = statement.getResultSet();
-
-        ResultSetMetaData meta = results.getMetaData();
-        int noOfColumns = meta.getColumnCount();
-
-        StringBuilder log = new StringBuilder();
-        while (results.next()) {
-            log.append("\n");
-            for (int i = 1; i <= noOfColumns; i++) {
-                String columnName = meta.getColumnName(i);
-                Object columnValue = results.getObject(columnName);
-                log.append(columnName).append(" = ").append(String.format("%-15s", String.valueOf(columnValue))).append("|\t\t");
-            }
+    /**
+     * Returns the writer of results, into the file named by {@value #OUTPUT_PROPERTY} or the standard output.
+     */
+    private static Writer output() throws IOException {
+        String file = System.getProperty(OUTPUT_PROPERTY);
+        if (file == null || file.equals("-")) {
+            // System.out itself is not closed along with the writer
+            return new BufferedWriter(new OutputStreamWriter(new FilterOutputStream(System.out) {
+                @Override
+                public void close() throws IOException {
+                    flush();
+                }
+            }, StandardCharsets.UTF_8));
         }
-        logger.info(log.toString());
-
-        results.close();
-    }
-
-    private static void handleDML(Statement statement) throws Exception {
-        int result = statement.getUpdateCount();
-        logger.info("RESULT: " + result + " rows affected");
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
     }
 }
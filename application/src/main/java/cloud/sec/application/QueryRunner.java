@@ -0,0 +1,73 @@
+package cloud.sec.application;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs queries on a connection and streams their rows into a {@link ResultSink} while they are read,
+ * reporting how many rows per second were delivered.
+ */
+public class QueryRunner {
+    private static final Logger logger = LoggerFactory.getLogger(QueryRunner.class);
+
+    // how often progress of a long result is reported
+    private static final long PROGRESS_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final Connection connection;
+    private final ResultSink sink;
+    private final int fetchSize;
+
+    public QueryRunner(Connection connection, ResultSink sink, int fetchSize) {
+        this.connection = connection;
+        this.sink = sink;
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * Runs a query, or a modification, whose affected row count is logged instead.
+     */
+    public void run(String query) throws SQLException, IOException {
+        logger.info("Executing query: " + query);
+
+        try (Statement statement = connection.createStatement()) {
+            statement.setFetchSize(fetchSize);
+            long start = System.nanoTime();
+            if (!statement.execute(query)) {
+                logger.info("RESULT: " + statement.getUpdateCount() + " rows affected");
+                return;
+            }
+
+            long rows = 0;
+            try (ResultSet results = statement.getResultSet()) {
+                results.setFetchSize(fetchSize);
+                sink.start(results.getMetaData());
+
+                long reported = start;
+                while (results.next()) {
+                    sink.row(results);
+                    rows++;
+                    if ((rows & 1023) == 0 && System.nanoTime() - reported > PROGRESS_NANOS) {
+                        reported = System.nanoTime();
+                        logger.info(rows + " rows so far, " + rate(rows, reported - start) + " rows/s");
+                    }
+                }
+                sink.end();
+            }
+
+            long nanos = System.nanoTime() - start;
+            logger.info("RESULT: " + rows + " rows in " + TimeUnit.NANOSECONDS.toMillis(nanos) + " ms, "
+                    + rate(rows, nanos) + " rows/s");
+        }
+    }
+
+    private static long rate(long rows, long nanos) {
+        return nanos == 0 ? 0 : rows * TimeUnit.SECONDS.toNanos(1) / nanos;
+    }
+}
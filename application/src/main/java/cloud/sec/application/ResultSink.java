@@ -0,0 +1,53 @@
+package cloud.sec.application;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Locale;
+
+/**
+ * Writes rows of results one by one as they are read, so results of any size take constant memory.
+ * Columns are read by their index.
+ */
+public abstract class ResultSink {
+    public enum Format {
+        CSV, JSON
+    }
+
+    protected final Writer writer;
+
+    protected ResultSink(Writer writer) {
+        this.writer = writer;
+    }
+
+    /**
+     * Creates a sink writing rows in the given format, i.e. {@code csv} or {@code json} (JSON lines).
+     */
+    public static ResultSink of(String format, Writer writer) {
+        switch (Format.valueOf(format.toUpperCase(Locale.ROOT))) {
+            case JSON:
+                return new JsonLinesResultSink(writer);
+            default:
+                return new CsvResultSink(writer);
+        }
+    }
+
+    /**
+     * Starts a result with the given columns.
+     */
+    public abstract void start(ResultSetMetaData meta) throws SQLException, IOException;
+
+    /**
+     * Writes the current row of the result.
+     */
+    public abstract void row(ResultSet results) throws SQLException, IOException;
+
+    /**
+     * Ends the result and flushes written rows.
+     */
+    public void end() throws IOException {
+        writer.flush();
+    }
+}
@@ -0,0 +1,22 @@
+-- Workload replayed by the load-test mode of Main, one statement after another by every client.
+-- Statements end with a semicolon at the end of a line; lines starting with -- are comments.
+
+SELECT * FROM cities;
+
+SELECT * FROM cities, employees WHERE employees.city_id = cities.id;
+
+SELECT `age` FROM employees;
+
+SELECT * FROM employees WHERE `id` IN (100, 2, 3, 4);
+
+SELECT `age` FROM employees WHERE `age` < 30;
+
+SELECT `first`, `age` FROM employees WHERE `age` < 30;
+
+SELECT `city_id`, count(*), avg(`age`) FROM employees GROUP BY `city_id`;
+
+INSERT INTO `employees` (`id`, `age`, `first`, `last`, `city_id`) VALUES (13, 20, 'Ivan', 'Grgurina', 1);
+
+UPDATE `mc_db`.`employees` SET `age` = 25 WHERE `id` = 13;
+
+DELETE FROM `mc_db`.`employees` WHERE `id` = 13;
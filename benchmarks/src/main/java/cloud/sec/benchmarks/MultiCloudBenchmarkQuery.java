@@ -0,0 +1,40 @@
+package cloud.sec.benchmarks;
+
+import cloud.sec.core.MultiCloudTestDatabase;
+
+/**
+ * Queries run by the benchmarks over {@link MultiCloudTestDatabase}.
+ */
+public enum MultiCloudBenchmarkQuery {
+    /**
+     * Reads a single fragment.
+     */
+    SINGLE_FRAGMENT("SELECT `first`, `last` FROM employees"),
+    /**
+     * Reassembles all fragments.
+     */
+    ALL_FRAGMENTS("SELECT * FROM employees"),
+    /**
+     * Reassembles fragments filtered by their providers.
+     */
+    FILTERED("SELECT `first`, `age` FROM employees WHERE `age` < 30 AND `first` <> 'Ana'"),
+    /**
+     * Joins reassembled fragments with a table which is not fragmented.
+     */
+    JOINED("SELECT cities.name, employees.`first`, employees.`age` FROM cities, employees"
+            + " WHERE employees.city_id = cities.id"),
+    /**
+     * Aggregates a single field of a fragment.
+     */
+    AGGREGATED("SELECT `city_id`, count(*), avg(`age`) FROM employees GROUP BY `city_id`");
+
+    private final String sql;
+
+    MultiCloudBenchmarkQuery(String sql) {
+        this.sql = sql;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+}
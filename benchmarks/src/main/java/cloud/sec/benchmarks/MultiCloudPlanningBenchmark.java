@@ -0,0 +1,102 @@
+package cloud.sec.benchmarks;
+
+import cloud.sec.core.MultiCloudTestDatabase;
+import cloud.sec.core.adapter.jdbc.MultiCloudDataManager;
+import cloud.sec.core.adapter.jdbc.MultiCloudProgram;
+import cloud.sec.core.adapter.jdbc.MultiCloudRelMdCost;
+import cloud.sec.core.adapter.jdbc.MultiCloudRuleManager;
+import cloud.sec.core.adapter.jdbc.MultiCloudPlanCache;
+import cloud.sec.core.tools.MultiCloudFieldSet;
+import com.google.common.collect.ImmutableList;
+import org.apache.calcite.config.Lex;
+import org.apache.calcite.jdbc.CalciteConnection;
+import org.apache.calcite.plan.Contexts;
+import org.apache.calcite.plan.RelOptCostImpl;
+import org.apache.calcite.plan.hep.HepPlanner;
+import org.apache.calcite.plan.hep.HepProgram;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.sql.parser.SqlParser;
+import org.apache.calcite.tools.FrameworkConfig;
+import org.apache.calcite.tools.Frameworks;
+import org.apache.calcite.tools.Planner;
+import org.apache.calcite.tools.Program;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the overhead of the multi-cloud rewrite, from finding used fields to preparing the whole query.
+ * <p>
+ * The plan cache is disabled, so every query is optimized again.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-D" + MultiCloudPlanCache.SIZE_PROPERTY + "=0")
+@State(Scope.Benchmark)
+public class MultiCloudPlanningBenchmark {
+    private static final HepProgram SCAN_REWRITE = HepProgram.builder()
+            .addRuleInstance(MultiCloudRuleManager.MultiCloudScanRewriterRule.INSTANCE)
+            .build();
+
+    @Param
+    public MultiCloudBenchmarkQuery query;
+
+    private final Program program = MultiCloudRelMdCost.registered(new MultiCloudProgram());
+
+    private Connection connection;
+    private RelNode rel;
+    private MultiCloudFieldSet fields;
+
+    @Setup
+    public void setUp() throws Exception {
+        MultiCloudTestDatabase.create(100);
+        Class.forName("org.apache.calcite.jdbc.Driver");
+        connection = DriverManager.getConnection("jdbc:calcite:", MultiCloudTestDatabase.connectionProperties());
+
+        // the query as it is handed over to the program
+        CalciteConnection calciteConnection = connection.unwrap(CalciteConnection.class);
+        FrameworkConfig config = Frameworks.newConfigBuilder()
+                .defaultSchema(calciteConnection.getRootSchema().getSubSchema("mc_db"))
+                .parserConfig(SqlParser.configBuilder().setLex(Lex.JAVA).build())
+                .build();
+        Planner planner = Frameworks.getPlanner(config);
+        rel = planner.rel(planner.validate(planner.parse(query.getSql()))).project();
+        fields = MultiCloudDataManager.findFields(rel);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        connection.close();
+    }
+
+    @Benchmark
+    public MultiCloudFieldSet findFields() {
+        return MultiCloudDataManager.findFields(rel);
+    }
+
+    @Benchmark
+    public RelNode scanRewrite() {
+        HepPlanner planner = new HepPlanner(SCAN_REWRITE, Contexts.of(fields), false, null, RelOptCostImpl.FACTORY);
+        planner.setRoot(rel);
+        return planner.findBestExp();
+    }
+
+    @Benchmark
+    public RelNode program() {
+        return program.run(rel.getCluster().getPlanner(), rel, rel.getTraitSet(), ImmutableList.of(), ImmutableList.of());
+    }
+
+    /**
+     * Parses, validates and optimizes the query, and generates its code, without running it.
+     */
+    @Benchmark
+    public void prepare() throws Exception {
+        PreparedStatement statement = connection.prepareStatement(query.getSql());
+        statement.close();
+    }
+}
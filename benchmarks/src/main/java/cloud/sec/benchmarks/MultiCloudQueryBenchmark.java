@@ -0,0 +1,75 @@
+package cloud.sec.benchmarks;
+
+import cloud.sec.core.MultiCloudTestDatabase;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures queries run end to end over the providers, both as queries and as rows per second.
+ * <p>
+ * Plans are cached as they are in the application, so repeated queries mostly measure execution.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MultiCloudQueryBenchmark {
+
+    @Param
+    public MultiCloudBenchmarkQuery query;
+
+    @Param({"1000", "100000"})
+    public int employees;
+
+    private Connection connection;
+
+    @Setup
+    public void setUp() throws Exception {
+        MultiCloudTestDatabase.create(employees);
+        Class.forName("org.apache.calcite.jdbc.Driver");
+        connection = DriverManager.getConnection("jdbc:calcite:", MultiCloudTestDatabase.connectionProperties());
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        connection.close();
+    }
+
+    @Benchmark
+    public long execute(Rows rows) throws Exception {
+        long checksum = 0;
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(query.getSql())) {
+            int columns = resultSet.getMetaData().getColumnCount();
+            while (resultSet.next()) {
+                for (int i = 1; i <= columns; i++) {
+                    Object value = resultSet.getObject(i);
+                    checksum += value == null ? 0 : value.hashCode();
+                }
+                rows.rows++;
+            }
+        }
+        return checksum;
+    }
+
+    /**
+     * Rows returned by the queries, reported per second.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Rows {
+        public long rows;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            rows = 0;
+        }
+    }
+}
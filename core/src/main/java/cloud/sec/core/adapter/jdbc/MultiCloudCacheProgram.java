@@ -0,0 +1,40 @@
+package cloud.sec.core.adapter.jdbc;
+
+import cloud.sec.core.rel.EnumerableMultiCloudCache;
+import cloud.sec.core.rel.MultiCloudTableModify;
+import cloud.sec.core.runtime.MultiCloudFragmentCache;
+import org.apache.calcite.plan.RelOptLattice;
+import org.apache.calcite.plan.RelOptMaterialization;
+import org.apache.calcite.plan.RelOptPlanner;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rel.RelHomogeneousShuttle;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.tools.Program;
+
+import java.util.List;
+
+/**
+ * Program which runs after the query is optimized, and puts every fragment executed by its provider, as well as
+ * every modification, under an {@link EnumerableMultiCloudCache}. Does nothing unless
+ * {@link MultiCloudFragmentCache} is enabled.
+ */
+public class MultiCloudCacheProgram implements Program {
+
+    @Override
+    public RelNode run(RelOptPlanner planner, RelNode rel, RelTraitSet requiredOutputTraits,
+                       List<RelOptMaterialization> materializations, List<RelOptLattice> lattices) {
+        if (!MultiCloudFragmentCache.isEnabled()) {
+            return rel;
+        }
+
+        return rel.accept(new RelHomogeneousShuttle() {
+            @Override
+            public RelNode visit(RelNode other) {
+                if (MultiCloudJdbcFragments.isRemote(other) || other instanceof MultiCloudTableModify) {
+                    return EnumerableMultiCloudCache.create(other);
+                }
+                return super.visit(other);
+            }
+        });
+    }
+}
@@ -0,0 +1,226 @@
+package cloud.sec.core.adapter.jdbc;
+
+import cloud.sec.core.runtime.MultiCloudStatements;
+import org.apache.calcite.util.ImmutableNullableList;
+import org.apache.commons.dbcp2.BasicDataSource;
+import org.apache.commons.dbcp2.PoolableConnection;
+import org.apache.commons.pool2.impl.GenericObjectPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connection pools of providers, shared by all connections in the JVM.
+ * <p>
+ * A pool is created the first time a schema of a provider is declared, and reused by every schema with the same
+ * URL, user, password and driver, so opening another connection does not connect to the providers again.
+ * Pools are configured by the optional operand of the schema in .json configuration:
+ * <pre>
+ * "pool": {
+ *   "maxTotal": 16,
+ *   "minIdle": 2,
+ *   "initialSize": 2,
+ *   "maxWaitMillis": 30000,
+ *   "validationQuery": "SELECT 1",
+ *   "validationTimeoutSeconds": 5,
+ *   "idleTimeoutMillis": 600000,
+ *   "evictionRunMillis": 30000
+ * }
+ * </pre>
+ * All settings are optional and default to the values above, except that connections are validated by
+ * {@link Connection#isValid} unless {@code validationQuery} is set. The pool opens {@code initialSize}
+ * connections as soon as it is created, validates connections when they are borrowed and while they are idle,
+ * and closes connections idle for longer than {@code idleTimeoutMillis}, keeping at least {@code minIdle} of them.
+ * Settings of the schema which creates the pool win; schemas sharing it later do not change it.
+ */
+public class MultiCloudDataSources {
+    private static final Logger logger = LoggerFactory.getLogger(MultiCloudDataSources.class);
+
+    public static final MultiCloudDataSources INSTANCE = new MultiCloudDataSources();
+
+    /**
+     * Schema operand holding settings of the pool.
+     */
+    public static final String OPERAND = "pool";
+
+    private static final ScheduledExecutorService EVICTOR = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "multicloud-pool-evictor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Map<List<String>, BasicDataSource> dataSources = new ConcurrentHashMap<>();
+
+    private MultiCloudDataSources() {
+    }
+
+    /**
+     * Returns the pool of the provider of a schema, creating it if needed, or {@code null} if the schema names its
+     * own {@code dataSource} class instead of a URL.
+     */
+    public DataSource get(String schemaName, Map<String, Object> operand) {
+        if (operand.get("dataSource") != null) {
+            return null;
+        }
+
+        String url = (String) operand.get("jdbcUrl");
+        if (url == null) {
+            throw new IllegalArgumentException("Missing 'jdbcUrl' of schema " + schemaName);
+        }
+        List<String> key = ImmutableNullableList.of(url, (String) operand.get("jdbcUser"),
+                (String) operand.get("jdbcPassword"), (String) operand.get("jdbcDriver"));
+
+        return dataSources.computeIfAbsent(key, k -> create(schemaName, k, Settings.of(schemaName, operand)));
+    }
+
+    /**
+     * Measures the latency of a provider in milliseconds, as the shortest of a few round trips which validate
+     * a pooled connection.
+     */
+    public static double latency(DataSource dataSource) {
+        try (Connection connection = dataSource.getConnection()) {
+            long shortest = Long.MAX_VALUE;
+            for (int i = 0; i < 3; i++) {
+                long start = System.nanoTime();
+                connection.isValid(5);
+                shortest = Math.min(shortest, System.nanoTime() - start);
+            }
+            return shortest / 1e6;
+        } catch (SQLException e) {
+            throw new RuntimeException("Error while measuring latency", e);
+        }
+    }
+
+    private static BasicDataSource create(String schemaName, List<String> key, Settings settings) {
+        PooledDataSource dataSource = new PooledDataSource();
+        dataSource.setUrl(key.get(0));
+        dataSource.setUsername(key.get(1));
+        dataSource.setPassword(key.get(2));
+        dataSource.setDriverClassName(key.get(3));
+
+        dataSource.setMaxTotal(settings.maxTotal);
+        dataSource.setMaxIdle(settings.maxTotal);
+        dataSource.setMinIdle(settings.minIdle);
+        dataSource.setInitialSize(settings.initialSize);
+        dataSource.setMaxWaitMillis(settings.maxWaitMillis);
+
+        dataSource.setValidationQuery(settings.validationQuery);
+        dataSource.setValidationQueryTimeout(settings.validationTimeoutSeconds);
+        dataSource.setTestOnBorrow(true);
+        dataSource.setTestWhileIdle(true);
+
+        dataSource.setMinEvictableIdleTimeMillis(settings.idleTimeoutMillis);
+
+        // the first connection creates the pool with its initial connections
+        try (Connection ignored = dataSource.getConnection()) {
+            logger.info("Created connection pool of " + schemaName + " at " + key.get(0) + " with "
+                    + settings.initialSize + " of at most " + settings.maxTotal + " connections");
+        } catch (SQLException e) {
+            closeQuietly(dataSource);
+            throw new RuntimeException("Error while creating connection pool of " + schemaName, e);
+        }
+
+        EVICTOR.scheduleWithFixedDelay(dataSource::evict, settings.evictionRunMillis, settings.evictionRunMillis,
+                TimeUnit.MILLISECONDS);
+        return dataSource;
+    }
+
+    private static void closeQuietly(BasicDataSource dataSource) {
+        try {
+            dataSource.close();
+        } catch (SQLException e) {
+            logger.warn("Closing a connection pool failed", e);
+        }
+    }
+
+    /**
+     * A pool whose idle connections are evicted by the shared daemon thread, unlike the evictor of commons-pool,
+     * which would keep the JVM running after the application ends. Statements of fragments being fetched are
+     * reported to {@link MultiCloudStatements}, so closing the fetch cancels them.
+     */
+    private static class PooledDataSource extends BasicDataSource {
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            return MultiCloudStatements.watch(super.getConnection());
+        }
+
+        @Override
+        protected void startPoolMaintenance() {
+        }
+
+        void evict() {
+            GenericObjectPool<PoolableConnection> pool = getConnectionPool();
+            if (pool == null || isClosed()) {
+                return;
+            }
+            try {
+                pool.evict();
+                pool.preparePool(); // opens connections up to minIdle again
+            } catch (Exception e) {
+                logger.warn("Evicting idle connections of " + getUrl() + " failed", e);
+            }
+        }
+    }
+
+    /**
+     * Settings of a pool, read from the operand of a schema.
+     */
+    static class Settings {
+        int maxTotal = 16;
+        int minIdle = 2;
+        int initialSize = 2;
+        long maxWaitMillis = 30_000;
+        String validationQuery = null;
+        int validationTimeoutSeconds = 5;
+        long idleTimeoutMillis = 600_000;
+        long evictionRunMillis = 30_000;
+
+        @SuppressWarnings("unchecked")
+        static Settings of(String schemaName, Map<String, Object> operand) {
+            Settings settings = new Settings();
+            Object declaration = operand.get(OPERAND);
+            if (declaration == null) {
+                return settings;
+            }
+            if (!(declaration instanceof Map)) {
+                throw new IllegalArgumentException("Invalid " + OPERAND + " of schema " + schemaName + ": "
+                        + declaration);
+            }
+
+            Map<String, Object> pool = (Map<String, Object>) declaration;
+            settings.maxTotal = number(pool, "maxTotal", settings.maxTotal).intValue();
+            settings.minIdle = number(pool, "minIdle", settings.minIdle).intValue();
+            settings.initialSize = number(pool, "initialSize", settings.initialSize).intValue();
+            settings.maxWaitMillis = number(pool, "maxWaitMillis", settings.maxWaitMillis).longValue();
+            settings.validationQuery = (String) pool.get("validationQuery");
+            settings.validationTimeoutSeconds =
+                    number(pool, "validationTimeoutSeconds", settings.validationTimeoutSeconds).intValue();
+            settings.idleTimeoutMillis = number(pool, "idleTimeoutMillis", settings.idleTimeoutMillis).longValue();
+            settings.evictionRunMillis = number(pool, "evictionRunMillis", settings.evictionRunMillis).longValue();
+
+            if (settings.maxTotal <= 0 || settings.minIdle > settings.maxTotal
+                    || settings.initialSize > settings.maxTotal || settings.evictionRunMillis <= 0) {
+                throw new IllegalArgumentException("Invalid " + OPERAND + " of schema " + schemaName + ": " + pool);
+            }
+            return settings;
+        }
+
+        private static Number number(Map<String, Object> pool, String name, Number defaultValue) {
+            Object value = pool.getOrDefault(name, defaultValue);
+            if (!(value instanceof Number)) {
+                throw new IllegalArgumentException("Invalid '" + name + "' in " + pool);
+            }
+            return (Number) value;
+        }
+    }
+}
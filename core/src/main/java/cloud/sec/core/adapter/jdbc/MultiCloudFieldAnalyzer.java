@@ -0,0 +1,191 @@
+package cloud.sec.core.adapter.jdbc;
+
+import cloud.sec.core.tools.MultiCloudFieldSet;
+import cloud.sec.core.tools.MultiCloudFieldSets;
+import org.apache.calcite.plan.RelOptTable;
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.plan.hep.HepRelVertex;
+import org.apache.calcite.rel.RelFieldCollation;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.*;
+import org.apache.calcite.rex.RexCorrelVariable;
+import org.apache.calcite.rex.RexInputRef;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.rex.RexSubQuery;
+import org.apache.calcite.rex.RexVisitorImpl;
+import org.apache.calcite.util.ImmutableBitSet;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds table fields used by a query.
+ * <p>
+ * Used fields are handed down from the root to the scans as ordinals: every node gets the ordinals of its fields
+ * read by its parent, and works out the ordinals of the fields it reads from its inputs (projections, filter and join
+ * conditions, aggregate arguments, sort keys, ...). A table field is used if it is read from the scan of the table.
+ * Nodes which are not known are assumed to read their whole input, since the rewriter must never drop a fragment
+ * which is still needed.
+ * <p>
+ * The analyzer holds no state, so a single instance serves all queries.
+ */
+public final class MultiCloudFieldAnalyzer {
+    public static final MultiCloudFieldAnalyzer INSTANCE = new MultiCloudFieldAnalyzer();
+
+    private MultiCloudFieldAnalyzer() {
+    }
+
+    /**
+     * Returns fields of all scanned tables used by the query. Everything the root returns is used.
+     */
+    public MultiCloudFieldSet analyze(RelNode root) {
+        return analyze(root, ImmutableBitSet.range(root.getRowType().getFieldCount()));
+    }
+
+    /**
+     * Returns fields of all scanned tables used by the query, if only given fields of the root are read.
+     */
+    public MultiCloudFieldSet analyze(RelNode root, ImmutableBitSet fields) {
+        Analysis analysis = new Analysis();
+        analysis.analyze(root, fields);
+        return MultiCloudFieldSets.ofOrdinals(analysis.tables);
+    }
+
+    /**
+     * State of a single analysis.
+     */
+    private static class Analysis extends RexVisitorImpl<Void> {
+        // used fields of each table, by qualified name, since a table may be scanned more than once
+        private final Map<List<String>, RelOptTable> tableNames = new LinkedHashMap<>();
+        private final Map<RelOptTable, ImmutableBitSet> tables = new LinkedHashMap<>();
+
+        // input fields read by expressions of the current node
+        private ImmutableBitSet.Builder inputFields;
+        private boolean isCorrelated;
+
+        Analysis() {
+            super(true);
+        }
+
+        void analyze(RelNode node, ImmutableBitSet fields) {
+            if (node instanceof HepRelVertex) {
+                analyze(((HepRelVertex) node).getCurrentRel(), fields);
+                return;
+            }
+            if (node instanceof TableScan) {
+                use(node.getTable(), fields);
+                return;
+            }
+
+            inputFields = ImmutableBitSet.builder();
+            isCorrelated = !node.getVariablesSet().isEmpty();
+            boolean isWholeInput = false;
+
+            if (node instanceof TableModify) {
+                TableModify tableModify = (TableModify) node;
+                RelOptTable table = tableModify.getTable();
+                if (tableModify.getOperation() == TableModify.Operation.INSERT) {
+                    use(table, ImmutableBitSet.range(table.getRowType().getFieldCount()));
+                } else if (tableModify.getOperation() == TableModify.Operation.UPDATE) {
+                    ImmutableBitSet.Builder updated = ImmutableBitSet.builder();
+                    List<String> fieldNames = table.getRowType().getFieldNames();
+                    for (String field : tableModify.getUpdateColumnList()) {
+                        updated.set(fieldNames.indexOf(field));
+                    }
+                    use(table, updated.build());
+                }
+                // rows handed over to TableModify are written as they are, so they have to be complete
+                isWholeInput = true;
+            } else if (node instanceof Project) {
+                List<RexNode> projects = ((Project) node).getProjects();
+                for (int field : fields) {
+                    projects.get(field).accept(this);
+                }
+            } else if (node instanceof Filter) {
+                inputFields.addAll(fields);
+                ((Filter) node).getCondition().accept(this);
+            } else if (node instanceof Join) {
+                inputFields.addAll(fields);
+                ((Join) node).getCondition().accept(this);
+            } else if (node instanceof Correlate) {
+                inputFields.addAll(fields);
+                inputFields.addAll(((Correlate) node).getRequiredColumns());
+            } else if (node instanceof Aggregate) {
+                Aggregate aggregate = (Aggregate) node;
+                inputFields.addAll(aggregate.getGroupSet());
+                for (AggregateCall aggregateCall : aggregate.getAggCallList()) {
+                    inputFields.addAll(aggregateCall.getArgList());
+                    if (aggregateCall.filterArg >= 0) {
+                        inputFields.set(aggregateCall.filterArg);
+                    }
+                }
+            } else if (node instanceof Sort) {
+                inputFields.addAll(fields);
+                for (RelFieldCollation collation : ((Sort) node).getCollation().getFieldCollations()) {
+                    inputFields.set(collation.getFieldIndex());
+                }
+            } else if (node instanceof Exchange) {
+                inputFields.addAll(fields);
+                inputFields.addAll(((Exchange) node).getDistribution().getKeys());
+            } else if (node instanceof SetOp) {
+                // inputs of a set operation are not concatenated, and without ALL whole rows are compared
+                for (RelNode input : node.getInputs()) {
+                    analyze(input, ((SetOp) node).all
+                            ? fields
+                            : ImmutableBitSet.range(input.getRowType().getFieldCount()));
+                }
+                return;
+            } else if (!(node instanceof Values)) {
+                // unknown node, assume it reads everything
+                isWholeInput = true;
+            }
+
+            // correlated expressions read fields of the input through variables
+            ImmutableBitSet readFields = isWholeInput || isCorrelated ? null : inputFields.build();
+
+            int offset = 0;
+            for (RelNode input : node.getInputs()) {
+                int fieldCount = input.getRowType().getFieldCount();
+                analyze(input, readFields == null
+                        ? ImmutableBitSet.range(fieldCount)
+                        : readFields.get(offset, offset + fieldCount).shift(-offset));
+                offset += fieldCount;
+            }
+        }
+
+        private void use(RelOptTable table, ImmutableBitSet fields) {
+            RelOptTable knownTable = tableNames.putIfAbsent(table.getQualifiedName(), table);
+            if (knownTable == null) {
+                tables.put(table, fields);
+            } else {
+                tables.put(knownTable, tables.get(knownTable).union(fields));
+            }
+        }
+
+        @Override
+        public Void visitInputRef(RexInputRef inputRef) {
+            inputFields.set(inputRef.getIndex());
+            return null;
+        }
+
+        @Override
+        public Void visitCorrelVariable(RexCorrelVariable correlVariable) {
+            isCorrelated = true;
+            return null;
+        }
+
+        @Override
+        public Void visitSubQuery(RexSubQuery subQuery) {
+            // operands belong to the current node, the sub-query is analyzed as a separate query
+            super.visitSubQuery(subQuery);
+
+            ImmutableBitSet.Builder nodeFields = inputFields;
+            boolean isNodeCorrelated = isCorrelated;
+            analyze(subQuery.rel, ImmutableBitSet.range(subQuery.rel.getRowType().getFieldCount()));
+            inputFields = nodeFields;
+            isCorrelated = isNodeCorrelated || !RelOptUtil.getVariablesUsed(subQuery.rel).isEmpty();
+            return null;
+        }
+    }
+}
@@ -0,0 +1,443 @@
+package cloud.sec.core.adapter.jdbc;
+
+import cloud.sec.core.rel.EnumerableMultiCloudCache;
+import cloud.sec.core.rel.EnumerableMultiCloudMeter;
+import com.google.common.collect.ImmutableList;
+import org.apache.calcite.adapter.java.JavaTypeFactory;
+import org.apache.calcite.adapter.jdbc.JdbcConvention;
+import org.apache.calcite.adapter.jdbc.JdbcImplementor;
+import org.apache.calcite.adapter.jdbc.JdbcRel;
+import org.apache.calcite.adapter.jdbc.JdbcRules;
+import org.apache.calcite.adapter.jdbc.JdbcSchema;
+import org.apache.calcite.adapter.jdbc.JdbcTableScan;
+import org.apache.calcite.adapter.jdbc.JdbcToEnumerableConverter;
+import org.apache.calcite.adapter.jdbc.JdbcToEnumerableConverterRule;
+import org.apache.calcite.linq4j.tree.Expression;
+import org.apache.calcite.linq4j.tree.Expressions;
+import org.apache.calcite.plan.ConventionTraitDef;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelOptTable;
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.plan.hep.HepRelVertex;
+import org.apache.calcite.rel.RelCollation;
+import org.apache.calcite.rel.RelCollationTraitDef;
+import org.apache.calcite.rel.RelCollations;
+import org.apache.calcite.rel.InvalidRelException;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.Filter;
+import org.apache.calcite.rel.core.Join;
+import org.apache.calcite.rel.core.Project;
+import org.apache.calcite.rel.core.RelFactories;
+import org.apache.calcite.rel.core.Sort;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.rex.RexBuilder;
+import org.apache.calcite.rex.RexCall;
+import org.apache.calcite.rex.RexDynamicParam;
+import org.apache.calcite.rex.RexInputRef;
+import org.apache.calcite.rex.RexLiteral;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.rex.RexShuttle;
+import org.apache.calcite.rex.RexUtil;
+import org.apache.calcite.schema.Schemas;
+import org.apache.calcite.sql.SqlCall;
+import org.apache.calcite.sql.SqlDialect;
+import org.apache.calcite.sql.SqlIdentifier;
+import org.apache.calcite.sql.SqlKind;
+import org.apache.calcite.sql.SqlNode;
+import org.apache.calcite.sql.fun.SqlStdOperatorTable;
+import org.apache.calcite.sql.parser.SqlParserPos;
+import org.apache.calcite.tools.RelBuilder;
+import org.apache.calcite.util.BuiltInMethod;
+import org.apache.calcite.util.ImmutableBitSet;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Fragments which are executed by their providers as a whole, i.e. trees of {@link JdbcRel}s under
+ * a {@link JdbcToEnumerableConverter}.
+ * <p>
+ * Fragments are built in the JDBC convention directly, so the planner cannot move their projections, filters
+ * or sorts out of the provider. In this version of Calcite they would otherwise often tie on cost with their
+ * in-memory counterparts.
+ */
+public final class MultiCloudJdbcFragments {
+
+    private MultiCloudJdbcFragments() {
+    }
+
+    /**
+     * Pops the fragment from the builder and hands it over to its provider as a whole, optionally sorted by
+     * the first field. Fragments which are not projections, filters and joins of {@link JdbcTableScan}s of
+     * a single provider are left to the planner.
+     */
+    public static RelNode remote(RelBuilder builder, boolean isSorted) {
+        RelNode rel = toJdbc(builder.peek());
+        if (rel == null) {
+            if (isSorted) {
+                builder.sort(0);
+            }
+            return builder.build();
+        }
+        builder.build();
+
+        if (isSorted) {
+            // the sort holds the same instance of the collation as its traits
+            RelCollation collation = RelCollationTraitDef.INSTANCE.canonize(RelCollations.of(0));
+            rel = new JdbcRules.JdbcSort(rel.getCluster(), rel.getTraitSet().replace(collation), rel, collation,
+                    null, null);
+        }
+        return toEnumerable(rel);
+    }
+
+    /**
+     * Builds a tree of projections, filters and joins of {@link JdbcTableScan}s in the JDBC convention of their
+     * provider, or returns {@code null} if the tree holds anything else or reads more than one provider.
+     */
+    private static RelNode toJdbc(RelNode rel) {
+        rel = strip(rel);
+        if (rel instanceof JdbcTableScan) {
+            return rel;
+        }
+
+        RelOptCluster cluster = rel.getCluster();
+        if (rel instanceof Project || rel instanceof Filter) {
+            RelNode input = toJdbc(rel.getInput(0));
+            if (input == null) {
+                return null;
+            }
+            RelTraitSet traitSet = input.getTraitSet().replace(RelCollations.EMPTY);
+            return rel instanceof Project
+                    ? new JdbcRules.JdbcProject(cluster, traitSet, input, ((Project) rel).getProjects(), rel.getRowType())
+                    : new JdbcRules.JdbcFilter(cluster, traitSet, input, ((Filter) rel).getCondition());
+        }
+        if (rel instanceof Join) {
+            Join join = (Join) rel;
+            RelNode left = toJdbc(join.getLeft());
+            RelNode right = toJdbc(join.getRight());
+            if (left == null || right == null || left.getConvention() != right.getConvention()) {
+                return null;
+            }
+            try {
+                return new JdbcRules.JdbcJoin(cluster, left.getTraitSet().replace(RelCollations.EMPTY), left, right,
+                        join.getCondition(), join.getVariablesSet(), join.getJoinType());
+            } catch (InvalidRelException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns whether the fragment is executed by its provider as a whole.
+     */
+    public static boolean isRemote(RelNode fragment) {
+        fragment = strip(fragment);
+        return fragment instanceof JdbcToEnumerableConverter && strip(fragment.getInput(0)) instanceof JdbcRel;
+    }
+
+    /**
+     * Returns whether the fragment is filtered by its provider.
+     */
+    public static boolean isFiltered(RelNode fragment) {
+        if (!isRemote(fragment)) {
+            return false;
+        }
+        RelNode rel = strip(strip(fragment).getInput(0));
+        if (rel instanceof Sort) {
+            rel = strip(((Sort) rel).getInput());
+        }
+        return rel instanceof Filter;
+    }
+
+    /**
+     * Returns the greatest number of rows the fragment can return, if its provider filters it by a unique field
+     * equal to one of constants, such as {@code id = ?} or {@code id IN (1, 2, 3)}, or -1 otherwise.
+     */
+    public static int pointRows(RelNode fragment, RelMetadataQuery mq) {
+        if (!isFiltered(fragment)) {
+            return -1;
+        }
+        RelNode rel = strip(strip(fragment).getInput(0));
+        if (rel instanceof Sort) {
+            rel = strip(((Sort) rel).getInput());
+        }
+        Filter filter = (Filter) rel;
+
+        int rows = -1;
+        for (RexNode condition : RelOptUtil.conjunctions(filter.getCondition())) {
+            int field = -1;
+            Set<String> values = new HashSet<>();
+            for (RexNode disjunction : RelOptUtil.disjunctions(condition)) {
+                int point = pointField(disjunction);
+                if (point < 0 || field >= 0 && point != field) {
+                    field = -1;
+                    break;
+                }
+                field = point;
+                List<RexNode> operands = ((RexCall) disjunction).getOperands();
+                values.add(operands.get(inputIndex(operands.get(0)) == point ? 1 : 0).toString());
+            }
+            if (field >= 0 && (rows < 0 || values.size() < rows)
+                    && Boolean.TRUE.equals(mq.areColumnsUnique(filter.getInput(), ImmutableBitSet.of(field)))) {
+                rows = values.size();
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Returns the field compared by equality with a literal or a dynamic parameter, or -1 if the condition is not
+     * such a comparison.
+     */
+    private static int pointField(RexNode condition) {
+        if (condition.getKind() != SqlKind.EQUALS) {
+            return -1;
+        }
+        RexNode left = uncast(((RexCall) condition).getOperands().get(0));
+        RexNode right = uncast(((RexCall) condition).getOperands().get(1));
+        if (isConstant(right)) {
+            return inputIndex(left);
+        }
+        return isConstant(left) ? inputIndex(right) : -1;
+    }
+
+    private static boolean isConstant(RexNode node) {
+        return node instanceof RexLiteral || node instanceof RexDynamicParam;
+    }
+
+    private static int inputIndex(RexNode node) {
+        node = uncast(node);
+        return node instanceof RexInputRef ? ((RexInputRef) node).getIndex() : -1;
+    }
+
+    /**
+     * Returns the expression without casts which do not lose information.
+     */
+    static RexNode uncast(RexNode node) {
+        while (node.getKind() == SqlKind.CAST && RexUtil.isLosslessCast(node)) {
+            node = ((RexCall) node).getOperands().get(0);
+        }
+        return node;
+    }
+
+    /**
+     * Filters rows of the fragment before they are sorted.
+     * A remote fragment is filtered by its provider; any other fragment is filtered by a logical {@link Filter}.
+     */
+    public static RelNode filter(RelNode fragment, RexNode condition, RelBuilder builder) {
+        fragment = strip(fragment);
+        if (!isRemote(fragment)) {
+            if (fragment instanceof Sort) {
+                RelNode input = builder.push(((Sort) fragment).getInput()).filter(condition).build();
+                return fragment.copy(fragment.getTraitSet(), ImmutableList.of(input));
+            }
+            return builder.push(fragment).filter(condition).build();
+        }
+
+        RelNode rel = strip(fragment.getInput(0));
+        Sort sort = rel instanceof Sort ? (Sort) rel : null;
+        if (sort != null) {
+            rel = strip(sort.getInput());
+        }
+        if (rel instanceof Filter) {
+            // conditions pushed earlier are kept
+            condition = RexUtil.composeConjunction(builder.getRexBuilder(),
+                    ImmutableList.of(((Filter) rel).getCondition(), condition), false);
+            rel = strip(((Filter) rel).getInput());
+        }
+
+        rel = new JdbcRules.JdbcFilter(rel.getCluster(), rel.getTraitSet(), rel, condition);
+        if (sort != null) {
+            rel = sort.copy(sort.getTraitSet(), ImmutableList.of(rel));
+        }
+        return toEnumerable(rel);
+    }
+
+    /**
+     * Returns the fragment without the sort on top of it.
+     */
+    public static RelNode unsorted(RelNode fragment) {
+        fragment = strip(fragment);
+        if (fragment instanceof Sort) {
+            return strip(((Sort) fragment).getInput());
+        }
+        if (isRemote(fragment) && strip(fragment.getInput(0)) instanceof Sort) {
+            return toEnumerable(strip(((Sort) strip(fragment.getInput(0))).getInput()));
+        }
+        return fragment;
+    }
+
+    /**
+     * Restricts a remote fragment to rows whose key is equal to one of the given number of dynamic parameters,
+     * numbered from the given one.
+     */
+    public static RelNode lookup(RelNode fragment, int key, int firstParameter, int parameterCount, RelBuilder builder) {
+        RexBuilder rexBuilder = builder.getRexBuilder();
+        RexNode keyRef = rexBuilder.makeInputRef(strip(fragment), key);
+
+        List<RexNode> keys = new ArrayList<>();
+        for (int i = 0; i < parameterCount; i++) {
+            keys.add(rexBuilder.makeCall(SqlStdOperatorTable.EQUALS, keyRef,
+                    rexBuilder.makeDynamicParam(keyRef.getType(), firstParameter + i)));
+        }
+        return filter(unsorted(fragment), RexUtil.composeDisjunction(rexBuilder, keys), builder);
+    }
+
+    /**
+     * Returns the number following the greatest dynamic parameter used by the fragment, or 0 if there is none.
+     */
+    public static int nextParameter(RelNode fragment) {
+        final int[] next = {0};
+        // visits expressions of every node, which are never changed, so nodes are not copied
+        RexShuttle visitor = new RexShuttle() {
+            @Override
+            public RexNode visitDynamicParam(RexDynamicParam dynamicParam) {
+                next[0] = Math.max(next[0], dynamicParam.getIndex() + 1);
+                return dynamicParam;
+            }
+        };
+
+        List<RelNode> rels = new ArrayList<>();
+        rels.add(fragment);
+        while (!rels.isEmpty()) {
+            RelNode rel = strip(rels.remove(rels.size() - 1));
+            rel.accept(visitor);
+            rels.addAll(rel.getInputs());
+        }
+        return next[0];
+    }
+
+    /**
+     * Returns name of the provider which runs a remote fragment.
+     */
+    public static String provider(RelNode fragment) {
+        return strip(strip(fragment).getInput(0)).getConvention().getName();
+    }
+
+    /**
+     * Returns what identifies a table across connections and models, i.e. the provider of its schema and its name in
+     * the provider, or its qualified name if it is not held by a multi-cloud schema.
+     */
+    public static String identity(RelOptTable table) {
+        MultiCloudJdbcSchema schema = MultiCloudJdbcSchema.schema(table);
+        List<String> qualifiedName = table.getQualifiedName();
+        return schema == null
+                ? String.join(".", qualifiedName)
+                : schema.identity(qualifiedName.get(qualifiedName.size() - 1));
+    }
+
+    /**
+     * Returns SQL which the provider of a remote fragment runs, qualified by the name of the provider.
+     */
+    public static String sql(RelNode fragment) {
+        RelNode rel = strip(strip(fragment).getInput(0));
+        JdbcConvention convention = (JdbcConvention) rel.getConvention();
+        JdbcImplementor implementor = new JdbcImplementor(convention.dialect,
+                (JavaTypeFactory) rel.getCluster().getTypeFactory());
+        return convention.getName() + ": "
+                + implementor.visitChild(0, rel).asStatement().toSqlString(convention.dialect).getSql();
+    }
+
+    //~ Writes ---------------------------------------------
+
+    /**
+     * Returns an expression of the data source of the provider which stores the fragment.
+     */
+    public static Expression dataSource(JdbcTableScan fragment) {
+        JdbcConvention convention = (JdbcConvention) fragment.getConvention();
+        return Expressions.call(Schemas.unwrap(convention.expression, JdbcSchema.class),
+                BuiltInMethod.JDBC_SCHEMA_DATA_SOURCE.method);
+    }
+
+    /**
+     * Returns SQL which inserts a row into the fragment, with a parameter for each of the given columns.
+     */
+    public static String insertSql(JdbcTableScan fragment, List<String> columns) {
+        SqlDialect dialect = dialect(fragment);
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(remoteName(fragment)).append(" (");
+        StringBuilder values = new StringBuilder();
+        for (int i = 0; i < columns.size(); i++) {
+            sql.append(i > 0 ? ", " : "").append(dialect.quoteIdentifier(columns.get(i)));
+            values.append(i > 0 ? ", ?" : "?");
+        }
+        return sql.append(") VALUES (").append(values).append(")").toString();
+    }
+
+    /**
+     * Returns SQL which updates given columns of the row with a key, with a parameter for each of the columns
+     * followed by a parameter for the key.
+     */
+    public static String updateSql(JdbcTableScan fragment, List<String> columns, String key) {
+        SqlDialect dialect = dialect(fragment);
+        StringBuilder sql = new StringBuilder("UPDATE ").append(remoteName(fragment)).append(" SET ");
+        for (int i = 0; i < columns.size(); i++) {
+            sql.append(i > 0 ? ", " : "").append(dialect.quoteIdentifier(columns.get(i))).append(" = ?");
+        }
+        return sql.append(" WHERE ").append(dialect.quoteIdentifier(key)).append(" = ?").toString();
+    }
+
+    /**
+     * Returns SQL which deletes the row with a key, given as a parameter.
+     */
+    public static String deleteSql(JdbcTableScan fragment, String key) {
+        return "DELETE FROM " + remoteName(fragment)
+                + " WHERE " + dialect(fragment).quoteIdentifier(key) + " = ?";
+    }
+
+    /**
+     * Returns SQL which selects the greatest key of the fragment.
+     */
+    public static String maxKeySql(JdbcTableScan fragment, String key) {
+        return "SELECT MAX(" + dialect(fragment).quoteIdentifier(key) + ") FROM " + remoteName(fragment);
+    }
+
+    /**
+     * Returns name of a table next to the fragment table in its provider, i.e. in the same catalog and schema,
+     * as the provider expects it.
+     */
+    public static String siblingName(JdbcTableScan fragment, String tableName) {
+        SqlIdentifier table = remoteTable(fragment);
+        List<String> names = new ArrayList<>(table.names);
+        names.set(names.size() - 1, tableName);
+        return new SqlIdentifier(names, SqlParserPos.ZERO).toSqlString(dialect(fragment)).getSql();
+    }
+
+    private static SqlDialect dialect(JdbcTableScan fragment) {
+        return ((JdbcConvention) fragment.getConvention()).dialect;
+    }
+
+    /**
+     * Returns name of the fragment table in its provider, as the provider expects it.
+     */
+    private static String remoteName(JdbcTableScan fragment) {
+        return remoteTable(fragment).toSqlString(dialect(fragment)).getSql();
+    }
+
+    private static SqlIdentifier remoteTable(JdbcTableScan fragment) {
+        JdbcImplementor implementor = new JdbcImplementor(dialect(fragment),
+                (JavaTypeFactory) fragment.getCluster().getTypeFactory());
+        SqlNode table = implementor.visit(fragment).asSelect().getFrom();
+        if (table.getKind() == SqlKind.AS) {
+            table = ((SqlCall) table).operand(0);
+        }
+        return (SqlIdentifier) table;
+    }
+
+    private static RelNode toEnumerable(RelNode rel) {
+        JdbcConvention convention = (JdbcConvention) rel.getTraitSet().getTrait(ConventionTraitDef.INSTANCE);
+        return new JdbcToEnumerableConverterRule(convention, RelFactories.LOGICAL_BUILDER).convert(rel);
+    }
+
+    // inputs of rels in a heuristic planner are wrapped into vertices, and optimized fragments may be cached
+    // or metered
+    static RelNode strip(RelNode rel) {
+        if (rel instanceof EnumerableMultiCloudCache || rel instanceof EnumerableMultiCloudMeter) {
+            return strip(rel.getInput(0));
+        }
+        return rel instanceof HepRelVertex ? ((HepRelVertex) rel).getCurrentRel() : rel;
+    }
+}
@@ -1,25 +1,277 @@
 package cloud.sec.core.adapter.jdbc;
 
+import cloud.sec.core.catalog.MultiCloudCatalog;
+import com.google.common.collect.ImmutableList;
+import org.apache.calcite.avatica.AvaticaUtils;
 import org.apache.calcite.adapter.jdbc.JdbcConvention;
 import org.apache.calcite.adapter.jdbc.JdbcSchema;
+import org.apache.calcite.adapter.jdbc.JdbcTable;
+import org.apache.calcite.jdbc.CalciteSchema;
+import org.apache.calcite.jdbc.JavaTypeFactoryImpl;
+import org.apache.calcite.linq4j.tree.Expression;
+import org.apache.calcite.plan.RelOptTable;
+import org.apache.calcite.prepare.CalciteCatalogReader;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeField;
 import org.apache.calcite.schema.Schema;
 import org.apache.calcite.schema.SchemaFactory;
 import org.apache.calcite.schema.SchemaPlus;
+import org.apache.calcite.schema.SchemaVersion;
+import org.apache.calcite.schema.Schemas;
+import org.apache.calcite.schema.Table;
 import org.apache.calcite.sql.SqlDialect;
+import org.apache.calcite.sql.SqlDialectFactory;
+import org.apache.calcite.sql.SqlDialectFactoryImpl;
+import org.apache.calcite.sql.SqlIdentifier;
+import org.apache.calcite.sql.parser.SqlParserPos;
+import org.apache.calcite.sql.type.SqlTypeUtil;
+import org.apache.calcite.util.ImmutableBitSet;
+import org.apache.calcite.util.ImmutableNullableList;
+import org.apache.commons.dbcp2.BasicDataSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * A JDBC schema whose fragment tables tell the planner statistics collected by {@link MultiCloudStatistics} and keys
+ * declared by their providers.
+ * <p>
+ * Schemas which are stored by the same database server, and whose tables a connection of any of them can read,
+ * are declared co-located by the same {@value #COLOCATION_OPERAND} operand:
+ * <pre>
+ * "colocation": "mysql-1"
+ * </pre>
+ * Co-located schemas of a root schema share their {@link JdbcConvention}, the one of the schema created first,
+ * so the planner can join their tables in a single query run by that server. Roots of other connections or models
+ * group their schemas on their own, even by the same operand. Tables of co-located schemas tell the planner keys
+ * declared by their providers, so fragments can be joined with them by
+ * {@link MultiCloudRuleManager.MultiCloudColocatedJoinRule}.
+ * <p>
+ * Schemas of a root schema share the {@link MultiCloudCatalog} of fragmented tables declared by any of them.
+ */
 public class MultiCloudJdbcSchema extends JdbcSchema {
     private static final Logger logger = LoggerFactory.getLogger(MultiCloudJdbcSchema.class);
 
-    public MultiCloudJdbcSchema(DataSource dataSource, SqlDialect dialect, JdbcConvention convention, String catalog, String schema) {
+    /**
+     * Schema operand naming the group of co-located schemas.
+     */
+    public static final String COLOCATION_OPERAND = "colocation";
+
+    // latencies sampled from providers, by their identity, so every connection tells the planner the same costs
+    private static final Map<List<Object>, Double> SAMPLED_LATENCIES = new ConcurrentHashMap<>();
+
+    private final String name;
+    private final JdbcConvention convention;
+    private final String jdbcCatalog;
+    private final String jdbcSchema;
+    private final String colocation;
+    private final MultiCloudCatalog catalog;
+    private final Map<String, MultiCloudJdbcTable> wrappedTables = new ConcurrentHashMap<>();
+
+    public MultiCloudJdbcSchema(String name, DataSource dataSource, SqlDialect dialect, JdbcConvention convention,
+                                String catalog, String schema) {
+        this(name, dataSource, dialect, convention, catalog, schema, null, new MultiCloudCatalog());
+    }
+
+    public MultiCloudJdbcSchema(String name, DataSource dataSource, SqlDialect dialect, JdbcConvention convention,
+                                String catalog, String schema, String colocation,
+                                MultiCloudCatalog multiCloudCatalog) {
         super(dataSource, dialect, convention, catalog, schema);
+        this.name = name;
+        this.convention = convention;
+        this.jdbcCatalog = catalog;
+        this.jdbcSchema = schema;
+        this.colocation = colocation;
+        this.catalog = multiCloudCatalog;
         logger.debug("CREATED NEW MULTICLOUD SCHEMA");
     }
 
+    /**
+     * Returns the convention of the schema, which co-located schemas share.
+     */
+    public JdbcConvention getConvention() {
+        return convention;
+    }
+
+    /**
+     * Returns the catalog of fragmented tables of the root schema.
+     */
+    public MultiCloudCatalog getCatalog() {
+        return catalog;
+    }
+
+    /**
+     * Returns the catalog of the root schema which a table is read from, or {@code null} if the table is not held by
+     * a multi-cloud schema.
+     */
+    public static MultiCloudCatalog catalog(RelOptTable table) {
+        MultiCloudJdbcSchema schema = schema(table);
+        return schema == null ? null : schema.catalog;
+    }
+
+    /**
+     * Returns the schema which holds a table, or {@code null} if the table is not held by a multi-cloud schema.
+     */
+    static MultiCloudJdbcSchema schema(RelOptTable table) {
+        if (!(table.getRelOptSchema() instanceof CalciteCatalogReader)) {
+            return null;
+        }
+        CalciteSchema schema = ((CalciteCatalogReader) table.getRelOptSchema()).getRootSchema()
+                .getSubSchema(table.getQualifiedName().get(0), true);
+        return schema != null && schema.schema instanceof MultiCloudJdbcSchema
+                ? (MultiCloudJdbcSchema) schema.schema
+                : null;
+    }
+
+    /**
+     * Returns what identifies the provider of the schema across connections: URL and user of its pool, or its data
+     * source if it is not pooled, and the catalog and schema of its tables in the provider.
+     */
+    public List<Object> getProvider() {
+        DataSource dataSource = getDataSource();
+        Object location = dataSource instanceof BasicDataSource
+                ? ImmutableNullableList.of(((BasicDataSource) dataSource).getUrl(),
+                ((BasicDataSource) dataSource).getUsername())
+                : dataSource;
+        return ImmutableNullableList.of(location, jdbcCatalog, jdbcSchema);
+    }
+
+    /**
+     * Returns what identifies a table of the schema across connections and models: the location of the provider, as
+     * in {@link #getProvider()}, and the name of the table in the provider.
+     */
+    String identity(String tableName) {
+        return getProvider().get(0) + " " + remoteName(tableName);
+    }
+
+    @Override
+    public Table getTable(String tableName) {
+        Table table = super.getTable(tableName);
+        if (!(table instanceof JdbcTable)) {
+            return table;
+        }
+        if (catalog.getTableOfFragment(ImmutableList.of(name, tableName)) != null) {
+            return wrappedTables.computeIfAbsent(tableName, t -> fragmentTable((JdbcTable) table, tableName));
+        }
+        if (colocation != null) {
+            return wrappedTables.computeIfAbsent(tableName, t -> wrappedTable((JdbcTable) table, tableName));
+        }
+        return table;
+    }
+
+    private MultiCloudJdbcTable wrappedTable(JdbcTable table, String tableName) {
+        return new MultiCloudJdbcTable(table, location(), remoteName(tableName),
+                keys(tableName, table.getRowType(new JavaTypeFactoryImpl())));
+    }
+
+    /**
+     * Returns the location of the provider which identifies its tables in {@link MultiCloudStatistics}: URL of its
+     * pool, or the class of its data source if it is not pooled.
+     */
+    private String location() {
+        DataSource dataSource = getDataSource();
+        return dataSource instanceof BasicDataSource
+                ? ((BasicDataSource) dataSource).getUrl()
+                : dataSource.getClass().getName();
+    }
+
+    /**
+     * Returns the name of a table in the provider, as the provider expects it.
+     */
+    private String remoteName(String tableName) {
+        List<String> remoteName = new ArrayList<>();
+        for (String part : Arrays.asList(jdbcCatalog, jdbcSchema, tableName)) {
+            if (part != null) {
+                remoteName.add(part);
+            }
+        }
+        return new SqlIdentifier(remoteName, SqlParserPos.ZERO).toSqlString(dialect).getSql();
+    }
+
+    /**
+     * Reads keys of a table which its provider declares, i.e. its primary key and unique indexes, from metadata of
+     * the provider.
+     */
+    private List<ImmutableBitSet> keys(String tableName, RelDataType rowType) {
+        List<String> primaryKey = new ArrayList<>();
+        Map<String, List<String>> uniqueIndexes = new LinkedHashMap<>();
+        try (Connection connection = getDataSource().getConnection()) {
+            DatabaseMetaData metaData = connection.getMetaData();
+            try (ResultSet columns = metaData.getPrimaryKeys(jdbcCatalog, jdbcSchema, tableName)) {
+                while (columns.next()) {
+                    primaryKey.add(columns.getString("COLUMN_NAME"));
+                }
+            }
+            try (ResultSet columns = metaData.getIndexInfo(jdbcCatalog, jdbcSchema, tableName, true, true)) {
+                while (columns.next()) {
+                    if (columns.getShort("TYPE") != DatabaseMetaData.tableIndexStatistic
+                            && !columns.getBoolean("NON_UNIQUE")) {
+                        uniqueIndexes.computeIfAbsent(columns.getString("INDEX_NAME"), i -> new ArrayList<>())
+                                .add(columns.getString("COLUMN_NAME"));
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            logger.warn("Cannot read keys of " + name + "." + tableName, e);
+            return ImmutableList.of();
+        }
+
+        Set<ImmutableBitSet> keys = new LinkedHashSet<>();
+        addKey(keys, primaryKey, rowType);
+        for (List<String> uniqueIndex : uniqueIndexes.values()) {
+            addKey(keys, uniqueIndex, rowType);
+        }
+        return ImmutableList.copyOf(keys);
+    }
+
+    // rows may share NULLs of a unique index, and expressions of an index are not columns, so neither makes a key
+    private static void addKey(Set<ImmutableBitSet> keys, List<String> columns, RelDataType rowType) {
+        ImmutableBitSet.Builder key = ImmutableBitSet.builder();
+        for (String column : columns) {
+            RelDataTypeField field = column == null ? null : rowType.getField(column, true, false);
+            if (field == null || field.getType().isNullable()) {
+                return;
+            }
+            key.set(field.getIndex());
+        }
+        if (!columns.isEmpty()) {
+            keys.add(key.build());
+        }
+    }
+
+    private MultiCloudJdbcTable fragmentTable(JdbcTable table, String tableName) {
+        RelDataType rowType = table.getRowType(new JavaTypeFactoryImpl());
+        ImmutableBitSet.Builder ordered = ImmutableBitSet.builder();
+        for (RelDataTypeField field : rowType.getFieldList()) {
+            if (SqlTypeUtil.isNumeric(field.getType()) || SqlTypeUtil.inCharFamily(field.getType())
+                    || SqlTypeUtil.isDatetime(field.getType())) {
+                ordered.set(field.getIndex());
+            }
+        }
+
+        MultiCloudStatistics.INSTANCE.collect(location(), remoteName(tableName), getDataSource(), dialect,
+                rowType.getFieldNames(), ordered.build());
+        return wrappedTable(table, tableName);
+    }
+
+    @Override
+    public Schema snapshot(SchemaVersion version) {
+        return this; // the schema does not change, and a snapshot of JdbcSchema would lose fragment tables
+    }
+
     // Factory used by .json configuration
     public static class Factory implements SchemaFactory {
         public static final Factory INSTANCE = new Factory();
@@ -30,12 +282,70 @@ public class MultiCloudJdbcSchema extends JdbcSchema {
         @Override
         public Schema create(SchemaPlus parentSchema, String name, Map<String, Object> operand) {
             logger.info("Init Schema from .json configuration: " + name);
-            JdbcSchema original = JdbcSchema.create(parentSchema, name, operand);
+            MultiCloudJdbcSchema original = createPooled(parentSchema, name, operand);
 
+            original.catalog.register(name, operand);
+            original.catalog.registerProvider(name, operand, () -> SAMPLED_LATENCIES.computeIfAbsent(
+                    original.getProvider(), p -> MultiCloudDataSources.latency(original.getDataSource())));
             MultiCloudRuleManager.MultiCloudHookManager.addHook();
 
             return original;
         }
+
+        /**
+         * Creates the schema as {@link JdbcSchema#create(SchemaPlus, String, Map)} does, but over the shared pool
+         * of its provider from {@link MultiCloudDataSources}, unless the operand names its own data source.
+         */
+        private static MultiCloudJdbcSchema createPooled(SchemaPlus parentSchema, String name,
+                                                         Map<String, Object> operand) {
+            DataSource dataSource = MultiCloudDataSources.INSTANCE.get(name, operand);
+            if (dataSource == null) {
+                dataSource = JdbcSchema.create(parentSchema, name, operand).getDataSource();
+            }
+
+            String jdbcCatalog = (String) operand.get("jdbcCatalog");
+            String jdbcSchema = (String) operand.get("jdbcSchema");
+            String sqlDialectFactory = (String) operand.get("sqlDialectFactory");
+            SqlDialectFactory dialectFactory = sqlDialectFactory == null || sqlDialectFactory.isEmpty()
+                    ? SqlDialectFactoryImpl.INSTANCE
+                    : AvaticaUtils.instantiatePlugin(SqlDialectFactory.class, sqlDialectFactory);
+
+            Expression expression = Schemas.subSchemaExpression(parentSchema, name, JdbcSchema.class);
+            SqlDialect dialect = JdbcSchema.createDialect(dialectFactory, dataSource);
+            String colocation = (String) operand.get(COLOCATION_OPERAND);
+            JdbcConvention convention = colocation == null ? null : colocatedConvention(parentSchema, colocation);
+            if (convention == null) {
+                convention = JdbcConvention.of(dialect, expression, name);
+            }
+            return new MultiCloudJdbcSchema(name, dataSource, dialect, convention, jdbcCatalog, jdbcSchema,
+                    colocation, catalog(parentSchema));
+        }
+
+        /**
+         * Returns the catalog of schemas already created in the same parent schema, or a new one if there are none.
+         */
+        private static MultiCloudCatalog catalog(SchemaPlus parentSchema) {
+            for (CalciteSchema subSchema : parentSchema.unwrap(CalciteSchema.class).getSubSchemaMap().values()) {
+                if (subSchema.schema instanceof MultiCloudJdbcSchema) {
+                    return ((MultiCloudJdbcSchema) subSchema.schema).catalog;
+                }
+            }
+            return new MultiCloudCatalog();
+        }
+
+        /**
+         * Returns the convention of a schema already created in the same parent schema and declared co-located by
+         * the same operand, or {@code null} if there is none.
+         */
+        private static JdbcConvention colocatedConvention(SchemaPlus parentSchema, String colocation) {
+            for (CalciteSchema subSchema : parentSchema.unwrap(CalciteSchema.class).getSubSchemaMap().values()) {
+                if (subSchema.schema instanceof MultiCloudJdbcSchema
+                        && colocation.equals(((MultiCloudJdbcSchema) subSchema.schema).colocation)) {
+                    return ((MultiCloudJdbcSchema) subSchema.schema).convention;
+                }
+            }
+            return null;
+        }
     }
 }
 
@@ -0,0 +1,108 @@
+package cloud.sec.core.adapter.jdbc;
+
+import cloud.sec.core.adapter.jdbc.MultiCloudStatistics.TableStatistics;
+import com.google.common.collect.ImmutableList;
+import org.apache.calcite.DataContext;
+import org.apache.calcite.adapter.java.AbstractQueryableTable;
+import org.apache.calcite.adapter.jdbc.JdbcTable;
+import org.apache.calcite.linq4j.Enumerable;
+import org.apache.calcite.linq4j.QueryProvider;
+import org.apache.calcite.linq4j.Queryable;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelOptTable;
+import org.apache.calcite.prepare.Prepare;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.TableModify;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeFactory;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.schema.ModifiableTable;
+import org.apache.calcite.schema.Schema;
+import org.apache.calcite.schema.SchemaPlus;
+import org.apache.calcite.schema.ScannableTable;
+import org.apache.calcite.schema.Statistic;
+import org.apache.calcite.schema.Statistics;
+import org.apache.calcite.schema.TranslatableTable;
+import org.apache.calcite.util.ImmutableBitSet;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A fragment table, which reads and writes the provider through its {@link JdbcTable}, but tells the planner
+ * statistics collected by {@link MultiCloudStatistics}, along with keys which the provider declares.
+ */
+public class MultiCloudJdbcTable extends AbstractQueryableTable
+        implements TranslatableTable, ScannableTable, ModifiableTable {
+    private final JdbcTable table;
+    private final String provider;
+    private final String remoteName;
+    private final List<ImmutableBitSet> keys;
+
+    MultiCloudJdbcTable(JdbcTable table, String provider, String remoteName, List<ImmutableBitSet> keys) {
+        super(Object[].class);
+        this.table = table;
+        this.provider = provider;
+        this.remoteName = remoteName;
+        this.keys = keys;
+    }
+
+    @Override
+    public Statistic getStatistic() {
+        TableStatistics statistics = MultiCloudStatistics.INSTANCE.get(provider, remoteName);
+        if (statistics == null) {
+            return keys.isEmpty() ? Statistics.UNKNOWN
+                    : Statistics.of(null, keys, ImmutableList.of(), ImmutableList.of());
+        }
+        return statistics.toStatistic(keys);
+    }
+
+    public Schema.TableType getJdbcTableType() {
+        return table.getJdbcTableType();
+    }
+
+    @Override
+    public RelDataType getRowType(RelDataTypeFactory typeFactory) {
+        return table.getRowType(typeFactory);
+    }
+
+    @Override
+    public RelNode toRel(RelOptTable.ToRelContext context, RelOptTable relOptTable) {
+        return table.toRel(context, relOptTable);
+    }
+
+    @Override
+    public <T> Queryable<T> asQueryable(QueryProvider queryProvider, SchemaPlus schema, String tableName) {
+        return table.asQueryable(queryProvider, schema, tableName);
+    }
+
+    @Override
+    public Enumerable<Object[]> scan(DataContext root) {
+        return table.scan(root);
+    }
+
+    @Override
+    public Collection getModifiableCollection() {
+        return table.getModifiableCollection();
+    }
+
+    @Override
+    public TableModify toModificationRel(RelOptCluster cluster, RelOptTable relOptTable,
+                                         Prepare.CatalogReader catalogReader, RelNode input,
+                                         TableModify.Operation operation, List<String> updateColumnList,
+                                         List<RexNode> sourceExpressionList, boolean flattened) {
+        return table.toModificationRel(cluster, relOptTable, catalogReader, input, operation, updateColumnList,
+                sourceExpressionList, flattened);
+    }
+
+    @Override
+    public <C> C unwrap(Class<C> clazz) {
+        C result = super.unwrap(clazz);
+        return result != null ? result : table.unwrap(clazz);
+    }
+
+    @Override
+    public String toString() {
+        return table.toString();
+    }
+}
@@ -0,0 +1,71 @@
+package cloud.sec.core.adapter.jdbc;
+
+import cloud.sec.core.metrics.MultiCloudMetrics;
+import cloud.sec.core.metrics.MultiCloudTrace;
+import cloud.sec.core.rel.EnumerableMultiCloudMeter;
+import org.apache.calcite.adapter.enumerable.EnumerableRel;
+import org.apache.calcite.adapter.jdbc.JdbcToEnumerableConverter;
+import org.apache.calcite.plan.RelOptLattice;
+import org.apache.calcite.plan.RelOptMaterialization;
+import org.apache.calcite.plan.RelOptPlanner;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rel.RelHomogeneousShuttle;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.tools.Program;
+
+import java.util.List;
+
+/**
+ * Program which runs after the query is optimized, and puts every fragment executed by its provider, as well as
+ * the whole query, under an {@link EnumerableMultiCloudMeter}. Fragments are metered under their caches, so only
+ * rows actually fetched from providers are measured. Does nothing unless {@link MultiCloudMetrics}
+ * are enabled.
+ */
+public class MultiCloudMeterProgram implements Program {
+
+    /**
+     * Returns a program which traces planning of a query by the given program, if queries are traced, and sets
+     * the trace on the meter of the query, so it is continued once the query is executed. The trace is kept by
+     * the planning thread only while the program runs, whether it fails or not.
+     */
+    public static Program traced(final Program program) {
+        return (planner, rel, requiredOutputTraits, materializations, lattices) -> {
+            MultiCloudTrace.startPlanning();
+            try {
+                RelNode planned = program.run(planner, rel, requiredOutputTraits, materializations, lattices);
+                MultiCloudTrace trace = MultiCloudTrace.planning();
+                return trace != null && planned instanceof EnumerableMultiCloudMeter
+                        ? ((EnumerableMultiCloudMeter) planned).traced(trace) : planned;
+            } finally {
+                MultiCloudTrace.finishPlanning();
+            }
+        };
+    }
+
+    @Override
+    public RelNode run(RelOptPlanner planner, RelNode rel, RelTraitSet requiredOutputTraits,
+                       List<RelOptMaterialization> materializations, List<RelOptLattice> lattices) {
+        if (!MultiCloudMetrics.INSTANCE.isEnabled()) {
+            return rel;
+        }
+
+        RelNode metered = rel.accept(new RelHomogeneousShuttle() {
+            @Override
+            public RelNode visit(RelNode other) {
+                if (other instanceof JdbcToEnumerableConverter && MultiCloudJdbcFragments.isRemote(other)) {
+                    return EnumerableMultiCloudMeter.fragment(other);
+                }
+                return super.visit(other);
+            }
+        });
+        if (metered instanceof EnumerableRel) {
+            metered = EnumerableMultiCloudMeter.query(metered);
+        }
+
+        MultiCloudTrace trace = MultiCloudTrace.planning();
+        if (trace != null) {
+            trace.setPlan(metered);
+        }
+        return metered;
+    }
+}
@@ -0,0 +1,286 @@
+package cloud.sec.core.adapter.jdbc;
+
+import cloud.sec.core.catalog.MultiCloudCatalog;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.apache.calcite.adapter.jdbc.JdbcTableScan;
+import org.apache.calcite.jdbc.CalciteSchema;
+import org.apache.calcite.plan.Convention;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelOptTable;
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.prepare.CalciteCatalogReader;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.RelRoot;
+import org.apache.calcite.rel.RelVisitor;
+import org.apache.calcite.rel.core.TableModify;
+import org.apache.calcite.rel.core.TableScan;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.schema.Schema;
+import org.apache.calcite.sql.SqlExplainLevel;
+import org.apache.calcite.tools.Program;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * A bounded cache of optimized plans, shared by all connections.
+ * <p>
+ * Plans are keyed by the digest of the relational expression handed over to the program, which is the query
+ * normalized by the parser and validator, i.e. without whitespace, letter case of keywords or aliases.
+ * The key also holds the required traits, the provider of every schema of the connection and declarations of its
+ * {@link MultiCloudCatalog}, so a plan is reused by every connection whose schemas of the same names read the same
+ * providers and declare the same fragmented tables, and plans of other models stay cached when fragmentation of one
+ * changes. Providers of {@link MultiCloudJdbcSchema}s are their URLs and
+ * users; schemas of other kinds are compared by identity, so plans reading them are only reused on their connection.
+ * Parameterized queries share the plan regardless of parameter values.
+ * <p>
+ * Every connection has JDBC conventions of its own, so a plan cached by another connection is bound to conventions
+ * of the connection which reuses it: nodes in the conventions of the other connection are copied in those of the
+ * same schemas of this one, and scans are created again by tables of this connection. Generated code reaches
+ * providers by paths of their schemas in the root schema of the running connection, so bound plans read its pools.
+ * Statements which reuse a plan may implement it concurrently, so plans are implemented without reading metadata
+ * of their cluster, whose metadata query is not thread-safe.
+ * <p>
+ * Size of the cache is set by the {@value #SIZE_PROPERTY} system property; 0 disables caching.
+ */
+public class MultiCloudPlanCache {
+    private static final Logger logger = LoggerFactory.getLogger(MultiCloudPlanCache.class);
+
+    public static final String SIZE_PROPERTY = "cloudsec.plan.cache.size";
+
+    public static final MultiCloudPlanCache INSTANCE = new MultiCloudPlanCache(Long.getLong(SIZE_PROPERTY, 500));
+
+    private final long size;
+    private final Cache<Key, Plan> plans;
+
+    MultiCloudPlanCache(long size) {
+        this.size = size;
+        this.plans = CacheBuilder.newBuilder()
+                .maximumSize(size)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Returns a program which runs the given program only for queries it has not optimized yet.
+     */
+    public Program cached(final Program program) {
+        if (size == 0) {
+            return program;
+        }
+
+        return (planner, rel, requiredOutputTraits, materializations, lattices) -> {
+            if (!materializations.isEmpty() || !lattices.isEmpty()) {
+                return program.run(planner, rel, requiredOutputTraits, materializations, lattices);
+            }
+
+            CalciteCatalogReader catalogReader = catalogReader(rel);
+            CalciteSchema rootSchema = catalogReader == null ? null : catalogReader.getRootSchema();
+            Key key = new Key(rel, requiredOutputTraits, providers(rootSchema), declarations(rootSchema));
+            Plan plan;
+            try {
+                plan = plans.get(key, () -> {
+                    logger.debug("Optimizing query not in plan cache");
+                    return new Plan(program.run(planner, rel, requiredOutputTraits, materializations, lattices),
+                            conventions(rootSchema));
+                });
+            } catch (ExecutionException | UncheckedExecutionException e) {
+                // failed optimizations are not cached
+                throw Throwables.propagate(e.getCause());
+            }
+            return plan.bind(rootSchema, catalogReader);
+        };
+    }
+
+    /**
+     * Returns hit and miss statistics of the cache.
+     */
+    public CacheStats stats() {
+        return plans.stats();
+    }
+
+    /**
+     * Returns number of cached plans.
+     */
+    public long size() {
+        return plans.size();
+    }
+
+    /**
+     * Discards all cached plans.
+     */
+    public void invalidateAll() {
+        plans.invalidateAll();
+    }
+
+    /**
+     * Returns the catalog reader of the connection, from any table scanned or modified by the statement, or
+     * {@code null} if the statement reads no tables.
+     */
+    private static CalciteCatalogReader catalogReader(RelNode rel) {
+        final CalciteCatalogReader[] catalogReader = {null};
+        new RelVisitor() {
+            @Override
+            public void visit(RelNode node, int ordinal, RelNode parent) {
+                if ((node instanceof TableScan || node instanceof TableModify)
+                        && node.getTable().getRelOptSchema() instanceof CalciteCatalogReader) {
+                    catalogReader[0] = (CalciteCatalogReader) node.getTable().getRelOptSchema();
+                    return;
+                }
+                super.visit(node, ordinal, parent);
+            }
+        }.go(rel);
+        return catalogReader[0];
+    }
+
+    /**
+     * Returns providers of schemas of a connection by their names, or schemas themselves if they are not
+     * multi-cloud JDBC schemas.
+     */
+    private static Map<String, Object> providers(CalciteSchema rootSchema) {
+        if (rootSchema == null) {
+            return ImmutableMap.of();
+        }
+        ImmutableMap.Builder<String, Object> providers = ImmutableMap.builder();
+        for (Map.Entry<String, CalciteSchema> entry : rootSchema.getSubSchemaMap().entrySet()) {
+            Schema schema = entry.getValue().schema;
+            providers.put(entry.getKey(),
+                    schema instanceof MultiCloudJdbcSchema ? ((MultiCloudJdbcSchema) schema).getProvider() : schema);
+        }
+        return providers.build();
+    }
+
+    /**
+     * Returns declarations of the catalog shared by multi-cloud JDBC schemas of a connection, or an empty list if it
+     * has none.
+     */
+    private static List<Object> declarations(CalciteSchema rootSchema) {
+        if (rootSchema != null) {
+            for (CalciteSchema schema : rootSchema.getSubSchemaMap().values()) {
+                if (schema.schema instanceof MultiCloudJdbcSchema) {
+                    return ((MultiCloudJdbcSchema) schema.schema).getCatalog().getDeclarations();
+                }
+            }
+        }
+        return ImmutableList.of();
+    }
+
+    /**
+     * Returns names of schemas of a connection by their conventions.
+     */
+    private static Map<Convention, String> conventions(CalciteSchema rootSchema) {
+        Map<Convention, String> conventions = new IdentityHashMap<>();
+        if (rootSchema != null) {
+            for (Map.Entry<String, CalciteSchema> entry : rootSchema.getSubSchemaMap().entrySet()) {
+                if (entry.getValue().schema instanceof MultiCloudJdbcSchema) {
+                    conventions.put(((MultiCloudJdbcSchema) entry.getValue().schema).getConvention(), entry.getKey());
+                }
+            }
+        }
+        return conventions;
+    }
+
+    /**
+     * An optimized plan, with names of schemas whose conventions it may hold.
+     */
+    private static class Plan {
+        private final RelNode rel;
+        private final Map<Convention, String> conventions;
+
+        Plan(RelNode rel, Map<Convention, String> conventions) {
+            this.rel = rel;
+            this.conventions = conventions;
+        }
+
+        /**
+         * Returns the plan in conventions of a connection, whose schemas read the same providers as those of the
+         * connection which optimized it.
+         */
+        RelNode bind(CalciteSchema rootSchema, CalciteCatalogReader catalogReader) {
+            Map<Convention, Convention> rebound = new IdentityHashMap<>();
+            for (Map.Entry<Convention, String> entry : conventions.entrySet()) {
+                Convention convention =
+                        ((MultiCloudJdbcSchema) rootSchema.getSubSchema(entry.getValue(), true).schema).getConvention();
+                if (convention != entry.getKey()) {
+                    rebound.put(entry.getKey(), convention);
+                }
+            }
+            return rebound.isEmpty() ? rel : rebind(rel, rebound, catalogReader);
+        }
+
+        private static RelNode rebind(RelNode rel, Map<Convention, Convention> conventions,
+                                      CalciteCatalogReader catalogReader) {
+            Convention convention = conventions.get(rel.getConvention());
+            if (rel instanceof JdbcTableScan && convention != null) {
+                // a scan keeps the convention it was created with, so the table of the connection creates it again
+                RelOptTable table = catalogReader.getTable(rel.getTable().getQualifiedName());
+                return table.toRel(new RelOptTable.ToRelContext() {
+                    @Override
+                    public RelOptCluster getCluster() {
+                        return rel.getCluster();
+                    }
+
+                    @Override
+                    public RelRoot expandView(RelDataType rowType, String queryString, List<String> schemaPath,
+                                              List<String> viewPath) {
+                        throw new UnsupportedOperationException("Cannot expand view " + viewPath);
+                    }
+                });
+            }
+
+            boolean isChanged = convention != null;
+            List<RelNode> inputs = new ArrayList<>();
+            for (RelNode input : rel.getInputs()) {
+                RelNode bound = rebind(input, conventions, catalogReader);
+                inputs.add(bound);
+                isChanged |= bound != input;
+            }
+            if (!isChanged) {
+                return rel;
+            }
+            return rel.copy(convention == null ? rel.getTraitSet() : rel.getTraitSet().replace(convention), inputs);
+        }
+    }
+
+    private static class Key {
+        private final String digest;
+        private final RelTraitSet traitSet;
+        private final Map<String, Object> providers;
+        private final List<Object> declarations;
+
+        Key(RelNode rel, RelTraitSet traitSet, Map<String, Object> providers, List<Object> declarations) {
+            this.digest = RelOptUtil.toString(rel, SqlExplainLevel.DIGEST_ATTRIBUTES) + rel.getRowType().getFullTypeString();
+            this.traitSet = traitSet;
+            this.providers = providers;
+            this.declarations = declarations;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(digest, traitSet, providers, declarations);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj == this
+                    || obj instanceof Key
+                    && digest.equals(((Key) obj).digest)
+                    && traitSet.equals(((Key) obj).traitSet)
+                    && providers.equals(((Key) obj).providers)
+                    && declarations.equals(((Key) obj).declarations);
+        }
+    }
+}
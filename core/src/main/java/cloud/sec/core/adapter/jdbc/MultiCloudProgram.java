@@ -1,34 +1,62 @@
 package cloud.sec.core.adapter.jdbc;
 
+import cloud.sec.core.metrics.MultiCloudMetrics;
 import cloud.sec.core.tools.MultiCloudFieldSet;
-import org.apache.calcite.plan.RelOptLattice;
-import org.apache.calcite.plan.RelOptMaterialization;
-import org.apache.calcite.plan.RelOptPlanner;
-import org.apache.calcite.plan.RelTraitSet;
+import com.google.common.collect.ImmutableList;
+import org.apache.calcite.plan.*;
+import org.apache.calcite.plan.hep.HepMatchOrder;
+import org.apache.calcite.plan.hep.HepPlanner;
+import org.apache.calcite.plan.hep.HepProgram;
+import org.apache.calcite.plan.hep.HepProgramBuilder;
 import org.apache.calcite.rel.RelNode;
 import org.apache.calcite.tools.Program;
-import org.apache.calcite.tools.Programs;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.List;
 
 /**
- * The most typical program is an invocation of the volcano planner with a
- * particular {@link org.apache.calcite.tools.RuleSet}
+ * The multi-cloud rewrite, i.e. an invocation of the heuristic planner with
+ * {@link MultiCloudRuleManager#rules()}, run before cost-based optimization.
+ * <p>
+ * The rules are created once and shared by all queries, while every query gets a rewrite program and a planner of its
+ * own. Rules match bottom-up, so scans are rewritten before the rels above them are visited, and each rule matches
+ * a query at most as many times as the {@value #MATCH_LIMIT_PROPERTY} system property says (1000 by default).
  */
 public class MultiCloudProgram implements Program {
 
     private static final Logger logger = LoggerFactory.getLogger(MultiCloudProgram.class);
 
+    public static final String MATCH_LIMIT_PROPERTY = "cloudsec.rewrite.match.limit";
+
+    private static final int MATCH_LIMIT = Integer.getInteger(MATCH_LIMIT_PROPERTY, 1000);
+
+    private static final List<RelOptRule> RULES = ImmutableList.copyOf(MultiCloudRuleManager.rules());
+
+    // the planner keeps its state in the program it runs, e.g. resets the order and the limit of matches
+    private static HepProgram rewrite() {
+        HepProgramBuilder builder = HepProgram.builder()
+                .addMatchOrder(HepMatchOrder.BOTTOM_UP)
+                .addMatchLimit(MATCH_LIMIT);
+        for (RelOptRule rule : RULES) {
+            builder.addRuleInstance(rule);
+        }
+        return builder.build();
+    }
+
     @Override
     public RelNode run(RelOptPlanner planner, RelNode rel, RelTraitSet requiredOutputTraits, List<RelOptMaterialization> materializations, List<RelOptLattice> lattices) {
-        // TODO: make use of this
+        long start = System.nanoTime();
         MultiCloudFieldSet fields = MultiCloudDataManager.findFields(rel);
+        MultiCloudMetrics.INSTANCE.record(MultiCloudMetrics.Phase.FIELD_ANALYSIS, System.nanoTime() - start);
 
-        Program hep = Programs.hep(MultiCloudRuleManager.rules(), false, null);
+        // rules read used fields from the planner context
+        HepPlanner hepPlanner = new HepPlanner(rewrite(), Contexts.of(fields), false, null, RelOptCostImpl.FACTORY);
+        hepPlanner.setRoot(rel);
 
-        RelNode run = hep.run(planner, rel, requiredOutputTraits, materializations, lattices);
+        start = System.nanoTime();
+        RelNode run = hepPlanner.findBestExp();
+        MultiCloudMetrics.INSTANCE.record(MultiCloudMetrics.Phase.HEP_REWRITE, System.nanoTime() - start);
 
         return run;
     }
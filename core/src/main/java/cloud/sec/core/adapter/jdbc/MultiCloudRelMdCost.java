@@ -0,0 +1,104 @@
+package cloud.sec.core.adapter.jdbc;
+
+import cloud.sec.core.catalog.MultiCloudCatalog;
+import cloud.sec.core.catalog.MultiCloudProvider;
+import com.google.common.collect.ImmutableList;
+import org.apache.calcite.adapter.jdbc.JdbcToEnumerableConverter;
+import org.apache.calcite.plan.RelOptCost;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.TableScan;
+import org.apache.calcite.rel.metadata.BuiltInMetadata;
+import org.apache.calcite.rel.metadata.ChainedRelMetadataProvider;
+import org.apache.calcite.rel.metadata.DefaultRelMetadataProvider;
+import org.apache.calcite.rel.metadata.JaninoRelMetadataProvider;
+import org.apache.calcite.rel.metadata.MetadataDef;
+import org.apache.calcite.rel.metadata.MetadataHandler;
+import org.apache.calcite.rel.metadata.ReflectiveRelMetadataProvider;
+import org.apache.calcite.rel.metadata.RelMetadataProvider;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.tools.Program;
+import org.apache.calcite.util.BuiltInMethod;
+
+/**
+ * Cost of reading rows of a fragment executed by its provider, which adds the time it takes to transfer them
+ * from the {@link MultiCloudProvider} to the cost of the {@link JdbcToEnumerableConverter} on top of the fragment.
+ * <p>
+ * Costs of this version of Calcite are compared by their row counts only, so the time is added to the row count
+ * as the number of rows which could be processed in the meantime.
+ */
+public class MultiCloudRelMdCost implements MetadataHandler<BuiltInMetadata.NonCumulativeCost> {
+    public static final RelMetadataProvider SOURCE = ReflectiveRelMetadataProvider.reflectiveSource(
+            BuiltInMethod.NON_CUMULATIVE_COST.method, new MultiCloudRelMdCost());
+
+    /**
+     * Default metadata with the costs of remote fragments.
+     */
+    public static final RelMetadataProvider PROVIDER = ChainedRelMetadataProvider.of(
+            ImmutableList.of(SOURCE, DefaultRelMetadataProvider.INSTANCE));
+
+    /**
+     * Rows processed in a millisecond.
+     */
+    static final double ROWS_PER_MILLISECOND = 1000;
+
+    // size of a row whose fields have no known size
+    private static final double DEFAULT_ROW_BYTES = 100;
+
+    private MultiCloudRelMdCost() {
+    }
+
+    /**
+     * Returns a program which runs the given one with {@link #PROVIDER} in this thread, and then restores the providers
+     * the thread had before, so metadata of queries planned later by the thread, e.g. without the program, does not
+     * depend on the queries planned before them.
+     */
+    public static Program registered(final Program program) {
+        return (planner, rel, requiredOutputTraits, materializations, lattices) -> {
+            // the metadata query of a cluster is built from providers of its thread whenever a rule fires
+            JaninoRelMetadataProvider previous = RelMetadataQuery.THREAD_PROVIDERS.get();
+            RelMetadataQuery.THREAD_PROVIDERS.set(JaninoRelMetadataProvider.of(PROVIDER));
+            rel.getCluster().invalidateMetadataQuery();
+            try {
+                return program.run(planner, rel, requiredOutputTraits, materializations, lattices);
+            } finally {
+                RelMetadataQuery.THREAD_PROVIDERS.set(previous);
+                rel.getCluster().invalidateMetadataQuery();
+            }
+        };
+    }
+
+    @Override
+    public MetadataDef<BuiltInMetadata.NonCumulativeCost> getDef() {
+        return BuiltInMetadata.NonCumulativeCost.DEF;
+    }
+
+    public RelOptCost getNonCumulativeCost(JdbcToEnumerableConverter rel, RelMetadataQuery mq) {
+        RelOptCost cost = rel.computeSelfCost(rel.getCluster().getPlanner(), mq);
+        MultiCloudProvider provider = provider(rel);
+        if (cost == null || provider == null) {
+            return cost;
+        }
+
+        Double rowBytes = mq.getAverageRowSize(rel);
+        double millis = provider.transferMillis(mq.getRowCount(rel), rowBytes == null ? DEFAULT_ROW_BYTES : rowBytes);
+        return cost.plus(rel.getCluster().getPlanner().getCostFactory()
+                .makeCost(millis * ROWS_PER_MILLISECOND, 0, millis));
+    }
+
+    /**
+     * Returns the provider which executes the fragment, i.e. the one of the first table it reads.
+     */
+    private static MultiCloudProvider provider(RelNode rel) {
+        if (rel instanceof TableScan) {
+            MultiCloudCatalog catalog = MultiCloudJdbcSchema.catalog(rel.getTable());
+            return catalog == null ? null : catalog.getProvider(rel.getTable().getQualifiedName().get(0));
+        }
+        for (RelNode input : rel.getInputs()) {
+            MultiCloudProvider provider = provider(MultiCloudJdbcFragments.strip(input));
+            if (provider != null) {
+                return provider;
+            }
+        }
+        return null;
+    }
+}
@@ -1,24 +1,54 @@
 package cloud.sec.core.adapter.jdbc;
 
+import cloud.sec.core.catalog.MultiCloudCatalog;
+import cloud.sec.core.catalog.MultiCloudFragment;
+import cloud.sec.core.catalog.MultiCloudShard;
+import cloud.sec.core.catalog.MultiCloudTable;
+import cloud.sec.core.metrics.MultiCloudMetrics;
+import cloud.sec.core.rel.LogicalMultiCloudReassemble;
+import cloud.sec.core.rel.LogicalMultiCloudShardUnion;
+import cloud.sec.core.rel.LogicalMultiCloudTableModify;
+import cloud.sec.core.runtime.MultiCloudEnumerables;
+import cloud.sec.core.tools.MultiCloudFieldRegistry;
+import cloud.sec.core.tools.MultiCloudFieldSet;
+import cloud.sec.core.tools.MultiCloudFieldSets;
+import com.google.common.collect.ImmutableList;
+import org.apache.calcite.adapter.jdbc.JdbcConvention;
 import org.apache.calcite.adapter.jdbc.JdbcTableScan;
+import org.apache.calcite.plan.RelOptCluster;
 import org.apache.calcite.plan.RelOptRule;
 import org.apache.calcite.plan.RelOptRuleCall;
 import org.apache.calcite.plan.RelOptTable;
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.plan.ViewExpanders;
 import org.apache.calcite.rel.RelNode;
-import org.apache.calcite.rel.RelWriter;
 import org.apache.calcite.rel.core.*;
-import org.apache.calcite.rel.externalize.RelWriterImpl;
+import org.apache.calcite.rel.logical.LogicalAggregate;
+import org.apache.calcite.rel.logical.LogicalFilter;
+import org.apache.calcite.rel.logical.LogicalJoin;
 import org.apache.calcite.rel.logical.LogicalProject;
-import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.rel.logical.LogicalValues;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.rel.rules.FilterJoinRule;
+import org.apache.calcite.rel.rules.FilterProjectTransposeRule;
+import org.apache.calcite.rel.type.RelDataTypeField;
+import org.apache.calcite.rex.*;
 import org.apache.calcite.runtime.Hook;
+import org.apache.calcite.sql.SqlFunction;
+import org.apache.calcite.sql.SqlKind;
+import org.apache.calcite.sql.fun.SqlStdOperatorTable;
+import org.apache.calcite.sql.type.SqlTypeUtil;
 import org.apache.calcite.tools.*;
 import org.apache.calcite.util.Holder;
+import org.apache.calcite.util.ImmutableBitSet;
+import org.apache.calcite.util.ImmutableIntList;
 import org.apache.calcite.util.Pair;
+import org.apache.calcite.util.Util;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.PrintWriter;
-import java.util.List;
+import java.math.BigDecimal;
+import java.util.*;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
@@ -29,7 +59,20 @@ public class MultiCloudRuleManager {
 
     public static RuleSet rules() {
         return RuleSets.ofList(
-                MultiCloudScanRewriterRule.INSTANCE
+                // long lists of values are compared like short ones, so they reach fragments as well
+                MultiCloudInListRule.INSTANCE,
+                // modifications of fragmented tables are rewritten before their scans
+                MultiCloudTableModifyRule.INSTANCE,
+                // conditions of joins are known before joins with co-located tables are pushed into fragments
+                FilterJoinRule.FILTER_ON_JOIN,
+                MultiCloudColocatedJoinRule.INSTANCE,
+                MultiCloudScanRewriterRule.INSTANCE,
+                // filters are moved down to the reassembled fragments
+                FilterJoinRule.FILTER_ON_JOIN,
+                FilterJoinRule.JOIN,
+                FilterProjectTransposeRule.INSTANCE,
+                MultiCloudShardPruneRule.INSTANCE,
+                MultiCloudFilterRule.INSTANCE
         );
     }
 
@@ -40,10 +83,13 @@ public class MultiCloudRuleManager {
      */
     public static class MultiCloudHookManager {
         private static final Program PROGRAM = new MultiCloudProgram();
+        private static final Program CACHE_PROGRAM = new MultiCloudCacheProgram();
+        private static final Program METER_PROGRAM = new MultiCloudMeterProgram();
 
         private static Hook.Closeable globalProgramClosable;
 
-        public static void addHook() {
+        // connections created concurrently must not add the hook twice, which would nest the program in itself
+        public static synchronized void addHook() {
             if (globalProgramClosable == null) {
                 globalProgramClosable = Hook.PROGRAM.add(program());
             }
@@ -62,19 +108,47 @@ public class MultiCloudRuleManager {
                 if (chain == null) {
                     chain = Programs.standard();
                 }
-                holder.set(Programs.sequence(program, chain));
+                // the whole chain is cached, so cached queries skip cost-based optimization as well, while both
+                // the rewrite and the cost-based optimization after it see the cost of remote fragments
+                holder.set(MultiCloudMeterProgram.traced(MultiCloudRelMdCost.registered(
+                        MultiCloudPlanCache.INSTANCE.cached(Programs.sequence(program,
+                                MultiCloudMetrics.INSTANCE.timed(MultiCloudMetrics.Phase.VOLCANO, chain),
+                                CACHE_PROGRAM, METER_PROGRAM)))));
             };
         }
     }
 
     //~ Custom rules ---------------------------------------------
 
+    /**
+     * Returns the fragmented table declared in the catalog of the root schema of a table, or {@code null} if the
+     * table is not fragmented.
+     */
+    private static MultiCloudTable multiCloudTable(RelOptTable table) {
+        MultiCloudCatalog catalog = MultiCloudJdbcSchema.catalog(table);
+        return catalog == null ? null : catalog.getTable(table.getQualifiedName());
+    }
+
+    /**
+     * Returns ids of all fields of a table.
+     */
+    private static ImmutableBitSet tableFields(RelOptTable table) {
+        return ImmutableBitSet.of(MultiCloudFieldRegistry.INSTANCE.intern(
+                table.getQualifiedName(), table.getRowType().getFieldNames()));
+    }
+
     /**
      * A multi-cloud {@link RelOptRule} that triggers on {@link RelNode} match with operand {@link JdbcTableScan} that has no children.
      * <p>
-     * Rewrites {@link JdbcTableScan} into multiple {@link TableScan}s with {@link Project} on each of them,
-     * and then {@link Join}s them using 'multiid'. Finally, it {@link Project}s fields back into the original form
+     * Rewrites {@link JdbcTableScan} of a table registered in {@link MultiCloudCatalog} into multiple
+     * {@link TableScan}s of its fragments with {@link Project} on each of them,
+     * and then {@link Join}s them using the table key, or reassembles them by {@link LogicalMultiCloudReassemble}
+     * as configured by {@link MultiCloudTable#getReassembly()}. Finally, it {@link Project}s fields back into the original form
      * to return semantically equivalent {@link RelNode}.
+     * <p>
+     * Only fragments holding fields used by the query are scanned. Used fields are taken from the
+     * {@link MultiCloudFieldSet} found in the planner context, if there is one. Fields nobody reads are
+     * returned as NULLs (or zeros, if not nullable), so the row type of the original scan is preserved.
      */
     public static class MultiCloudScanRewriterRule extends RelOptRule {
 
@@ -83,44 +157,835 @@ public class MultiCloudRuleManager {
 
 
         public MultiCloudScanRewriterRule(RelBuilderFactory relBuilderFactory) {
-            super(operand(JdbcTableScan.class, none()),
+            // scans of fragments and of other tables are not matched at all
+            super(operandJ(JdbcTableScan.class, null,
+                    scan -> multiCloudTable(scan.getTable()) != null, none()),
                     relBuilderFactory,
                     MultiCloudScanRewriterRule.class.getSimpleName());
-            logger.info("Using custom rule: " + this.getClass().getSimpleName());
+            logger.debug("Using custom rule: " + this.getClass().getSimpleName());
         }
 
 
         public void onMatch(RelOptRuleCall call) {
-            RelWriter rw = new RelWriterImpl(new PrintWriter(System.out, true));
-
-            logger.info("Executing rule");
             final JdbcTableScan originalScan = (JdbcTableScan) call.rels[0];
-            originalScan.explain(rw);
 
             RelOptTable table = originalScan.getTable();
-            String schemaName = table.getQualifiedName().get(0);
-            String tableName = table.getQualifiedName().get(1);
+            MultiCloudTable multiCloudTable = multiCloudTable(table);
 
 
             // transform the original scan only
             // fragment schema scans introduced as a result of original scan transformation have to be left intact
-            if (schemaName.equals("mc_db") && tableName.equals("employees")) {
+            if (multiCloudTable != null) {
                 RelBuilder builder = relBuilderFactory.create(originalScan.getCluster(), table.getRelOptSchema());
-                RelNode multiCloudScan = builder
-                        .scan("mc_db_google", "employees")
-                        .project(builder.field("multiid"), builder.field("id"), builder.field("first"), builder.field("last"))
-                        .scan("mc_db_amazon", "employees")
-                        .project(builder.field("multiid"), builder.field("age"), builder.field("city_id"))
-                        .join(JoinRelType.INNER, "multiid")
-                        .project(builder.field("id"), builder.field("age"), builder.field("first"), builder.field("last"), builder.field("city_id"))
+                RelNode multiCloudScan = rewrite(builder, originalScan, multiCloudTable, usedFields(call, table), false);
+
+                call.transformTo(multiCloudScan);
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Rewrote scan of " + table.getQualifiedName() + " into\n"
+                            + RelOptUtil.toString(multiCloudScan));
+                }
+            }
+        }
+
+        /**
+         * Rewrites a scan of a fragmented table into scans of the fragments which hold given fields, reassembled into
+         * rows of the logical table. Fields which are not given are returned as placeholders. If the scan is keyed,
+         * the key of the row follows the fields of the logical table.
+         * <p>
+         * Every shard of a sharded table is reassembled from its own fragments, and shards are put together by
+         * a {@link LogicalMultiCloudShardUnion}.
+         */
+        static RelNode rewrite(RelBuilder builder, TableScan originalScan, MultiCloudTable multiCloudTable,
+                               ImmutableBitSet usedFields, boolean isKeyed) {
+            List<MultiCloudShard> shards = multiCloudTable.getShards();
+            if (shards.size() == 1) {
+                return rewrite(builder, originalScan, multiCloudTable, shards.get(0), usedFields, isKeyed, null);
+            }
+
+            List<RelNode> inputs = new ArrayList<>();
+            for (MultiCloudShard shard : shards) {
+                inputs.add(rewrite(builder, originalScan, multiCloudTable, shard, usedFields, isKeyed, null));
+            }
+            return LogicalMultiCloudShardUnion.create(inputs, multiCloudTable,
+                    ImmutableIntList.range(0, shards.size()));
+        }
+
+        /**
+         * Rewrites a scan of a shard. If a co-located join is given, the other side of the join is joined with
+         * the fragment co-located with it before fragments are reassembled, and its fields are returned along with
+         * fields of the logical table, in the order of the join.
+         */
+        private static RelNode rewrite(RelBuilder builder, TableScan originalScan, MultiCloudTable multiCloudTable,
+                                       MultiCloudShard shard, ImmutableBitSet usedFields, boolean isKeyed,
+                                       ColocatedJoin join) {
+            RelOptTable table = originalScan.getTable();
+            Map<MultiCloudFragment, List<String>> fragments = fragments(multiCloudTable, shard, usedFields,
+                    join == null ? null : join.fragment);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Scanning fragments " + fragments.keySet() + " for fields "
+                        + MultiCloudFieldSets.ofIds(usedFields));
+            }
+
+            // fragments are either joined one after another, or reassembled all at once
+            MultiCloudTable.Reassembly reassembly = multiCloudTable.getReassembly();
+            boolean isReassembled = reassembly != MultiCloudTable.Reassembly.JOIN && fragments.size() > 1;
+
+            // position of each field in the joined fragments
+            Map<String, Integer> positions = new HashMap<>();
+            List<RelNode> inputs = new ArrayList<>();
+            int width = 0;
+            int otherPosition = -1;
+            for (Map.Entry<MultiCloudFragment, List<String>> fragment : fragments.entrySet()) {
+                builder.push(scan(table, originalScan.getCluster(), fragment.getKey()));
+
+                List<RexNode> fields = new ArrayList<>();
+                fields.add(builder.field(multiCloudTable.getKey()));
+                for (String field : fragment.getValue()) {
+                    positions.put(field, width + fields.size());
+                    fields.add(builder.field(field));
+                }
+                builder.project(fields);
+
+                int fragmentWidth = fields.size();
+                if (join != null && fragment.getKey().equals(join.fragment)) {
+                    // the key stays first, so the joined fragment is reassembled as any other
+                    builder.push(join.other);
+                    List<RexNode> conditions = new ArrayList<>();
+                    for (int i = 0; i < join.fields.size(); i++) {
+                        conditions.add(builder.equals(
+                                builder.field(2, 0, positions.get(join.fields.get(i)) - width),
+                                builder.field(2, 1, join.otherKeys.get(i))));
+                    }
+                    builder.join(JoinRelType.INNER, conditions);
+                    otherPosition = width + fragmentWidth;
+                    fragmentWidth += join.other.getRowType().getFieldCount();
+                }
+
+                if (isReassembled) {
+                    // merged fragments are sorted by the provider, so they can be merged as they stream in
+                    inputs.add(MultiCloudJdbcFragments.remote(builder, reassembly == MultiCloudTable.Reassembly.MERGE));
+                } else if (width > 0) {
+                    builder.join(JoinRelType.INNER,
+                            builder.equals(builder.field(2, 0, 0), builder.field(2, 1, 0)));
+                }
+                width += fragmentWidth;
+            }
+
+            if (isReassembled) {
+                // every fragment returns the key first
+                builder.push(LogicalMultiCloudReassemble.create(inputs,
+                        Collections.nCopies(inputs.size(), 0), reassembly));
+            }
+
+            // fields nobody reads are filled with placeholders of the same type
+            RexBuilder rexBuilder = builder.getRexBuilder();
+            List<RexNode> fields = new ArrayList<>();
+            for (RelDataTypeField field : table.getRowType().getFieldList()) {
+                Integer position = positions.get(field.getName());
+                if (position != null) {
+                    fields.add(builder.field(position));
+                } else if (field.getType().isNullable()) {
+                    fields.add(rexBuilder.makeNullLiteral(field.getType()));
+                } else {
+                    fields.add(rexBuilder.makeZeroLiteral(field.getType()));
+                }
+            }
+            List<String> names = new ArrayList<>(table.getRowType().getFieldNames());
+            if (isKeyed) {
+                // the key of the first fragment
+                fields.add(builder.field(0));
+                names.add(multiCloudTable.getKey());
+            }
+            if (join != null) {
+                List<RexNode> otherFields = new ArrayList<>();
+                for (int i = 0; i < join.other.getRowType().getFieldCount(); i++) {
+                    otherFields.add(builder.field(otherPosition + i));
+                }
+                fields.addAll(join.isOtherLeft ? 0 : fields.size(), otherFields);
+                names = join.names;
+            }
+            return builder
+                    .project(fields, names)
+                    .build();
+        }
+
+        /**
+         * A join of a fragmented table with another table, which is co-located with one of the fragments.
+         */
+        static final class ColocatedJoin {
+            final MultiCloudFragment fragment;
+            final RelNode other;
+            final boolean isOtherLeft;
+            final List<String> fields;
+            final List<Integer> otherKeys;
+            final List<String> names;
+
+            /**
+             * @param fragment    fragment co-located with the other side, which holds fields of the condition
+             * @param other       the other side of the join
+             * @param isOtherLeft whether the other side is the left input of the join
+             * @param fields      fields of the logical table, each equal to a key of the other side
+             * @param otherKeys   keys of the other side
+             * @param names       names of fields returned by the join
+             */
+            ColocatedJoin(MultiCloudFragment fragment, RelNode other, boolean isOtherLeft, List<String> fields,
+                          List<Integer> otherKeys, List<String> names) {
+                this.fragment = fragment;
+                this.other = other;
+                this.isOtherLeft = isOtherLeft;
+                this.fields = fields;
+                this.otherKeys = otherKeys;
+                this.names = names;
+            }
+        }
+
+        /**
+         * Scans a fragment the way its schema does, i.e. by {@link JdbcTableScan}, so the work on the fragment
+         * can be pushed down to its provider.
+         */
+        static RelNode scan(RelOptTable table, RelOptCluster cluster, MultiCloudFragment fragment) {
+            RelOptTable fragmentTable = table.getRelOptSchema().getTableForMember(fragment.getQualifiedName());
+            if (fragmentTable == null) {
+                throw new IllegalStateException("Fragment " + fragment + " not found");
+            }
+            return fragmentTable.toRel(ViewExpanders.simpleContext(cluster));
+        }
+
+        /**
+         * Returns ids of the table fields used by the query, or of all of them if that is not known.
+         */
+        private static ImmutableBitSet usedFields(RelOptRuleCall call, RelOptTable table) {
+            ImmutableBitSet tableFields = tableFields(table);
+
+            MultiCloudFieldSet fields = call.getPlanner().getContext().unwrap(MultiCloudFieldSet.class);
+            ImmutableBitSet usedFields = fields == null
+                    ? ImmutableBitSet.of()
+                    : MultiCloudFieldSets.ids(fields).intersect(tableFields);
+
+            // nothing is known about this table, so everything is used
+            return usedFields.isEmpty() ? tableFields : usedFields;
+        }
+
+        /**
+         * Picks fragments of a shard that cover given fields, each of them with the fields it has to return.
+         * The required fragment, if any, is picked first with all the given fields it holds; after it, the fragment
+         * which covers the most of remaining fields is always picked first.
+         */
+        private static Map<MultiCloudFragment, List<String>> fragments(MultiCloudTable table, MultiCloudShard shard,
+                                                                       ImmutableBitSet usedFields,
+                                                                       MultiCloudFragment required) {
+            Map<MultiCloudFragment, List<String>> fragments = new LinkedHashMap<>();
+            ImmutableBitSet remaining = usedFields;
+
+            if (required != null) {
+                ImmutableBitSet fields = table.getFieldIds(required).intersect(remaining);
+                fragments.put(required, fieldNames(fields));
+                remaining = remaining.except(fields);
+            } else if (remaining.isEmpty()) {
+                // only keys are read, which every fragment holds
+                fragments.put(shard.getFragments().get(0), ImmutableList.of());
+            }
+
+            while (!remaining.isEmpty()) {
+                MultiCloudFragment bestFragment = null;
+                ImmutableBitSet bestFields = ImmutableBitSet.of();
+                for (MultiCloudFragment fragment : shard.getFragments()) {
+                    ImmutableBitSet fields = table.getFieldIds(fragment).intersect(remaining);
+                    if (fields.cardinality() > bestFields.cardinality()) {
+                        bestFragment = fragment;
+                        bestFields = fields;
+                    }
+                }
+
+                if (bestFragment == null) {
+                    throw new IllegalStateException("No fragment of " + table + " in shard " + shard + " holds fields "
+                            + MultiCloudFieldSets.ofIds(remaining));
+                }
+
+                fragments.put(bestFragment, fieldNames(bestFields));
+                remaining = remaining.except(bestFields);
+            }
+
+            return fragments;
+        }
+
+        private static List<String> fieldNames(ImmutableBitSet ids) {
+            List<String> fieldNames = new ArrayList<>();
+            for (int id : ids) {
+                fieldNames.add(MultiCloudFieldRegistry.INSTANCE.field(id).field);
+            }
+            return fieldNames;
+        }
+    }
+
+    /**
+     * A multi-cloud {@link RelOptRule} that triggers on an inner {@link Join} of a table registered in
+     * {@link MultiCloudCatalog} with tables co-located with one of its fragments, i.e. stored by schemas which share
+     * the {@value MultiCloudJdbcSchema#COLOCATION_OPERAND} of the fragment.
+     * <p>
+     * Rewrites the scan as {@link MultiCloudScanRewriterRule} does, but the other side is joined with the co-located
+     * fragment which holds fields of the condition before fragments are reassembled, so the provider runs the join
+     * and the fragment is not read as a whole. Joined rows of the fragment have to keep unique keys to be reassembled,
+     * so unless no other fragment is read, the other side has to be unique on its keys of the join.
+     */
+    public static class MultiCloudColocatedJoinRule extends RelOptRule {
+
+        public static final RelOptRule INSTANCE =
+                new MultiCloudColocatedJoinRule(RelFactories.LOGICAL_BUILDER);
+
+        public MultiCloudColocatedJoinRule(RelBuilderFactory relBuilderFactory) {
+            super(operand(LogicalJoin.class, any()),
+                    relBuilderFactory,
+                    MultiCloudColocatedJoinRule.class.getSimpleName());
+            logger.debug("Using custom rule: " + this.getClass().getSimpleName());
+        }
+
+        public void onMatch(RelOptRuleCall call) {
+            final LogicalJoin join = call.rel(0);
+            JoinInfo joinInfo = join.analyzeCondition();
+            if (join.getJoinType() != JoinRelType.INNER || !joinInfo.isEqui() || joinInfo.leftKeys.isEmpty()) {
+                return;
+            }
+
+            for (boolean isOtherLeft : new boolean[]{true, false}) {
+                RelNode other = isOtherLeft ? join.getLeft() : join.getRight();
+                RelNode scan = MultiCloudJdbcFragments.strip(isOtherLeft ? join.getRight() : join.getLeft());
+
+                // filters of the fragmented table are applied to the join, and moved down to fragments later
+                List<RexNode> conditions = new ArrayList<>();
+                while (scan instanceof LogicalFilter) {
+                    conditions.add(RexUtil.shift(((LogicalFilter) scan).getCondition(),
+                            isOtherLeft ? other.getRowType().getFieldCount() : 0));
+                    scan = MultiCloudJdbcFragments.strip(scan.getInput(0));
+                }
+                List<Integer> keys = isOtherLeft ? joinInfo.rightKeys : joinInfo.leftKeys;
+                List<Integer> otherKeys = isOtherLeft ? joinInfo.leftKeys : joinInfo.rightKeys;
+                if (!(scan instanceof JdbcTableScan)) {
+                    continue;
+                }
+                MultiCloudTable multiCloudTable = multiCloudTable(scan.getTable());
+                JdbcConvention convention = convention(other);
+                if (multiCloudTable == null || multiCloudTable.isSharded() || convention == null) {
+                    continue;
+                }
+
+                List<String> fields = new ArrayList<>();
+                for (int key : keys) {
+                    fields.add(scan.getRowType().getFieldNames().get(key));
+                }
+                MultiCloudFragment fragment = colocatedFragment(scan, multiCloudTable, fields, convention);
+                if (fragment == null) {
+                    continue;
+                }
+
+                ImmutableBitSet usedFields = MultiCloudScanRewriterRule.usedFields(call, scan.getTable())
+                        .union(ImmutableBitSet.of(MultiCloudFieldRegistry.INSTANCE.intern(
+                                scan.getTable().getQualifiedName(), fields)));
+                MultiCloudShard shard = multiCloudTable.getShards().get(0);
+                boolean isReassembled = multiCloudTable.getReassembly() != MultiCloudTable.Reassembly.JOIN
+                        && MultiCloudScanRewriterRule.fragments(multiCloudTable, shard, usedFields, fragment).size() > 1;
+                if (isReassembled && !Boolean.TRUE.equals(
+                        call.getMetadataQuery().areColumnsUnique(other, ImmutableBitSet.of(otherKeys)))) {
+                    logger.debug("Not joining " + fragment + " in its provider, as keys of the join are not unique");
+                    continue;
+                }
+
+                RelBuilder builder = relBuilderFactory.create(join.getCluster(), scan.getTable().getRelOptSchema());
+                RelNode rewritten = builder
+                        .push(MultiCloudScanRewriterRule.rewrite(builder, (TableScan) scan, multiCloudTable,
+                                shard, usedFields, false, new MultiCloudScanRewriterRule.ColocatedJoin(fragment, other,
+                                        isOtherLeft, fields, otherKeys, join.getRowType().getFieldNames())))
+                        .filter(conditions)
                         .build();
+                call.transformTo(rewritten);
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Joined " + fragment + " in its provider\n" + RelOptUtil.toString(rewritten));
+                }
+                return;
+            }
+        }
 
-                logger.debug("RESULT");
-                multiCloudScan.explain(rw);
+        /**
+         * Returns the convention shared by all tables of a tree of scans, filters and projections, or {@code null}
+         * if it reads fragmented tables, tables of different providers, or does anything else.
+         */
+        private static JdbcConvention convention(RelNode rel) {
+            rel = MultiCloudJdbcFragments.strip(rel);
+            if (rel instanceof JdbcTableScan) {
+                MultiCloudCatalog catalog = MultiCloudJdbcSchema.catalog(rel.getTable());
+                boolean isFragmented = catalog != null
+                        && (catalog.getTable(rel.getTable().getQualifiedName()) != null
+                        || catalog.getTableOfFragment(rel.getTable().getQualifiedName()) != null);
+                return isFragmented ? null : (JdbcConvention) rel.getConvention();
+            }
+            if (rel instanceof LogicalFilter || rel instanceof LogicalProject) {
+                return convention(rel.getInput(0));
+            }
+            return null;
+        }
 
-                call.transformTo(multiCloudScan);
-                logger.debug(call.getMetadataQuery().getCumulativeCost(multiCloudScan).toString());
+        /**
+         * Returns a fragment which holds all given fields and whose provider has the given convention, if any.
+         */
+        private static MultiCloudFragment colocatedFragment(RelNode scan, MultiCloudTable table, List<String> fields,
+                                                            JdbcConvention convention) {
+            for (MultiCloudFragment fragment : table.getFragments()) {
+                if (fragment.getFields().containsAll(fields) && MultiCloudScanRewriterRule.scan(scan.getTable(),
+                        scan.getCluster(), fragment).getConvention() == convention) {
+                    return fragment;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * A multi-cloud {@link RelOptRule} that triggers on an inner {@link Join} with distinct {@link LogicalValues} of
+     * a single field, which is how lists of 20 or more values, such as {@code id IN (1, 2, ...)}, are converted.
+     * <p>
+     * Replaces the join by a {@link Filter} comparing the field with each of the values, as shorter lists are
+     * converted, so the list reaches the fragment which holds the field, and other fragments are looked up by keys of
+     * its rows instead of being read as a whole. Lists of more than {@link MultiCloudEnumerables#LOOKUP_KEYS} values
+     * are left joined.
+     */
+    public static class MultiCloudInListRule extends RelOptRule {
+
+        public static final RelOptRule INSTANCE =
+                new MultiCloudInListRule(RelFactories.LOGICAL_BUILDER);
+
+        public MultiCloudInListRule(RelBuilderFactory relBuilderFactory) {
+            super(operand(LogicalJoin.class,
+                    operand(RelNode.class, any()),
+                    operand(LogicalAggregate.class, operand(LogicalValues.class, none()))),
+                    relBuilderFactory,
+                    MultiCloudInListRule.class.getSimpleName());
+            logger.debug("Using custom rule: " + this.getClass().getSimpleName());
+        }
+
+        public void onMatch(RelOptRuleCall call) {
+            final LogicalJoin join = call.rel(0);
+            final RelNode input = call.rel(1);
+            final LogicalAggregate aggregate = call.rel(2);
+            final LogicalValues values = call.rel(3);
+            int width = input.getRowType().getFieldCount();
+            if (join.getJoinType() != JoinRelType.INNER || join.getCondition().getKind() != SqlKind.EQUALS
+                    || values.getRowType().getFieldCount() != 1 || !aggregate.getAggCallList().isEmpty()
+                    || !aggregate.getGroupSet().equals(ImmutableBitSet.of(0))
+                    || values.getTuples().size() > MultiCloudEnumerables.LOOKUP_KEYS) {
+                return;
+            }
+
+            // the field of the input is compared with the value as it is, on either side
+            List<RexNode> operands = ((RexCall) join.getCondition()).getOperands();
+            boolean isValueLeft = operands.get(0) instanceof RexInputRef
+                    && ((RexInputRef) operands.get(0)).getIndex() == width;
+            RexNode field = operands.get(isValueLeft ? 1 : 0);
+            RexNode value = operands.get(isValueLeft ? 0 : 1);
+            ImmutableBitSet fieldInputs = RelOptUtil.InputFinder.bits(field);
+            if (!(value instanceof RexInputRef) || ((RexInputRef) value).getIndex() != width
+                    || fieldInputs.isEmpty() || fieldInputs.length() > width
+                    || !SqlTypeUtil.equalSansNullability(join.getCluster().getTypeFactory(),
+                    field.getType(), value.getType())) {
+                return;
+            }
+
+            RexBuilder rexBuilder = join.getCluster().getRexBuilder();
+            List<RexNode> points = new ArrayList<>();
+            for (List<RexLiteral> tuple : values.getTuples()) {
+                points.add(rexBuilder.makeCall(SqlStdOperatorTable.EQUALS, field, tuple.get(0)));
+            }
+
+            // the value of a joined row is equal to its field
+            RelBuilder builder = call.builder();
+            builder.push(input).filter(RexUtil.composeDisjunction(rexBuilder, points, false));
+            List<RexNode> projects = new ArrayList<>(builder.fields());
+            projects.add(rexBuilder.ensureType(value.getType(), field, true));
+            logger.debug("Filtering " + field + " by a list of " + points.size() + " values");
+
+            call.transformTo(builder.project(projects, join.getRowType().getFieldNames()).build());
+        }
+    }
+
+    /**
+     * A multi-cloud {@link RelOptRule} that triggers on {@link TableModify} of a table registered in
+     * {@link MultiCloudCatalog}.
+     * <p>
+     * Rewrites the modification into {@link LogicalMultiCloudTableModify}, which writes every fragment by itself.
+     * Inserted rows are handed over as they are, and get their keys when they are written. Rows to update or delete
+     * are found by scanning the fragments which hold fields of the condition, and are handed over by their keys,
+     * followed by new values of updated fields.
+     */
+    public static class MultiCloudTableModifyRule extends RelOptRule {
+
+        public static final RelOptRule INSTANCE =
+                new MultiCloudTableModifyRule(RelFactories.LOGICAL_BUILDER);
+
+        public MultiCloudTableModifyRule(RelBuilderFactory relBuilderFactory) {
+            super(operand(TableModify.class, any()),
+                    relBuilderFactory,
+                    MultiCloudTableModifyRule.class.getSimpleName());
+            logger.debug("Using custom rule: " + this.getClass().getSimpleName());
+        }
+
+        public void onMatch(RelOptRuleCall call) {
+            final TableModify modify = call.rel(0);
+            RelOptTable table = modify.getTable();
+            MultiCloudTable multiCloudTable = multiCloudTable(table);
+            if (multiCloudTable == null) {
+                return;
+            }
+
+            TableModify.Operation operation = modify.getOperation();
+            if (operation == TableModify.Operation.MERGE) {
+                throw new UnsupportedOperationException("MERGE into fragmented table " + multiCloudTable);
+            }
+            // rows would have to move to another shard
+            if (operation == TableModify.Operation.UPDATE && multiCloudTable.isSharded()
+                    && modify.getUpdateColumnList().contains(multiCloudTable.getShardKey())) {
+                throw new UnsupportedOperationException("UPDATE of shard key " + multiCloudTable.getShardKey()
+                        + " of " + multiCloudTable);
+            }
+
+            List<JdbcTableScan> targets = new ArrayList<>();
+            for (MultiCloudFragment fragment : multiCloudTable.getFragments()) {
+                RelNode scan = MultiCloudScanRewriterRule.scan(table, modify.getCluster(), fragment);
+                if (!(scan instanceof JdbcTableScan)) {
+                    throw new IllegalStateException("Fragment " + fragment + " is not stored in a JDBC schema");
+                }
+                targets.add((JdbcTableScan) scan);
+            }
+
+            RelNode input = MultiCloudJdbcFragments.strip(modify.getInput());
+            if (operation != TableModify.Operation.INSERT) {
+                input = keys(call.builder(), modify, multiCloudTable);
+            }
+
+            call.transformTo(LogicalMultiCloudTableModify.create(input, multiCloudTable, operation,
+                    modify.getUpdateColumnList(), targets));
+        }
+
+        /**
+         * Returns keys of rows to modify, followed by new values of updated fields.
+         */
+        private static RelNode keys(RelBuilder builder, TableModify modify, MultiCloudTable multiCloudTable) {
+            RelNode input = MultiCloudJdbcFragments.strip(modify.getInput());
+            int fieldCount = modify.getTable().getRowType().getFieldCount();
+            if (!(input instanceof Project)) {
+                throw new UnsupportedOperationException("Cannot " + modify.getOperation() + " "
+                        + multiCloudTable + " from " + input);
+            }
+
+            // new values follow fields of the logical table
+            List<RexNode> values = ((Project) input).getProjects().subList(fieldCount, input.getRowType().getFieldCount());
+            ImmutableBitSet usedFields = MultiCloudFieldSets.ids(MultiCloudFieldAnalyzer.INSTANCE.analyze(input,
+                    ImmutableBitSet.range(fieldCount, input.getRowType().getFieldCount())));
+
+            RelNode keyed = keyed(builder, MultiCloudJdbcFragments.strip(((Project) input).getInput()),
+                    modify, multiCloudTable, usedFields);
+
+            List<RexNode> fields = new ArrayList<>();
+            List<String> names = new ArrayList<>();
+            builder.push(keyed);
+            fields.add(builder.field(keyed.getRowType().getFieldCount() - 1));
+            names.add(multiCloudTable.getKey());
+            for (int i = 0; i < values.size(); i++) {
+                fields.add(values.get(i));
+                names.add(modify.getUpdateColumnList().get(i));
+            }
+            return builder.project(fields, names).build();
+        }
+
+        /**
+         * Rebuilds the rows to modify with the key of each row following its fields.
+         * Rows have to be found by projections and filters of the scanned table.
+         */
+        private static RelNode keyed(RelBuilder builder, RelNode rel, TableModify modify,
+                                     MultiCloudTable multiCloudTable, ImmutableBitSet usedFields) {
+            if (rel instanceof TableScan && rel.getTable().getQualifiedName().equals(modify.getTable().getQualifiedName())) {
+                return MultiCloudScanRewriterRule.rewrite(builder, (TableScan) rel, multiCloudTable,
+                        usedFields.intersect(tableFields(rel.getTable())), true);
+            }
+            if (rel instanceof Filter) {
+                RelNode input = keyed(builder, MultiCloudJdbcFragments.strip(((Filter) rel).getInput()),
+                        modify, multiCloudTable, usedFields);
+                return rel.copy(rel.getTraitSet(), ImmutableList.of(input));
+            }
+            if (rel instanceof Project) {
+                RelNode input = keyed(builder, MultiCloudJdbcFragments.strip(((Project) rel).getInput()),
+                        modify, multiCloudTable, usedFields);
+                builder.push(input);
+                List<RexNode> fields = new ArrayList<>(((Project) rel).getProjects());
+                fields.add(builder.field(input.getRowType().getFieldCount() - 1));
+                List<String> names = new ArrayList<>(rel.getRowType().getFieldNames());
+                names.add(multiCloudTable.getKey());
+                return builder.project(fields, names).build();
+            }
+            throw new UnsupportedOperationException("Cannot " + modify.getOperation() + " "
+                    + multiCloudTable + " from " + rel);
+        }
+    }
+
+    /**
+     * A multi-cloud {@link RelOptRule} that triggers on {@link Filter} of a {@link LogicalMultiCloudShardUnion}.
+     * <p>
+     * Leaves out shards which cannot hold any row matching the condition, as told by comparisons of the shard key
+     * with literals, and pushes the filter into every remaining shard, so it reaches their fragments. Equality
+     * prunes shards of both range- and hash-sharded tables, other comparisons only prune ranges.
+     */
+    public static class MultiCloudShardPruneRule extends RelOptRule {
+
+        public static final RelOptRule INSTANCE =
+                new MultiCloudShardPruneRule(RelFactories.LOGICAL_BUILDER);
+
+        public MultiCloudShardPruneRule(RelBuilderFactory relBuilderFactory) {
+            super(operand(Filter.class, operand(LogicalMultiCloudShardUnion.class, any())),
+                    relBuilderFactory,
+                    MultiCloudShardPruneRule.class.getSimpleName());
+            logger.debug("Using custom rule: " + this.getClass().getSimpleName());
+        }
+
+        public void onMatch(RelOptRuleCall call) {
+            final Filter filter = call.rel(0);
+            final LogicalMultiCloudShardUnion union = call.rel(1);
+            MultiCloudTable multiCloudTable = union.getMultiCloudTable();
+
+            // the shard key is not among the fields if it is the hidden key of the table
+            RelDataTypeField shardKey = union.getRowType().getField(multiCloudTable.getShardKey(), true, false);
+
+            RelBuilder builder = call.builder();
+            List<RelNode> inputs = new ArrayList<>();
+            List<Integer> shards = new ArrayList<>();
+            for (int i = 0; i < union.getInputs().size(); i++) {
+                int shard = union.getShards().get(i);
+                if (shardKey != null && excludes(filter.getCondition(), shardKey.getIndex(), multiCloudTable, shard)) {
+                    continue;
+                }
+
+                RelNode input = MultiCloudJdbcFragments.strip(union.getInputs().get(i));
+                if (input instanceof Project) {
+                    // the filter is moved past the projection of the shard, so it reaches the reassembled fragments
+                    RexNode condition = RelOptUtil.pushPastProject(filter.getCondition(), (Project) input);
+                    RelNode filtered = builder.push(((Project) input).getInput()).filter(condition).build();
+                    input = input.copy(input.getTraitSet(), ImmutableList.of(filtered));
+                } else {
+                    input = builder.push(input).filter(filter.getCondition()).build();
+                }
+                inputs.add(input);
+                shards.add(shard);
+            }
+            logger.debug("Reading shards " + shards + " of " + multiCloudTable.getQualifiedName());
+
+            if (inputs.isEmpty()) {
+                call.transformTo(builder.values(filter.getRowType()).build());
+            } else if (inputs.size() == 1) {
+                call.transformTo(inputs.get(0));
+            } else {
+                call.transformTo(LogicalMultiCloudShardUnion.create(inputs, multiCloudTable, shards));
+            }
+        }
+
+        /**
+         * Returns whether the condition is false for every row of the shard, i.e. for every shard key it may hold.
+         * Conditions which are not understood never exclude a shard.
+         */
+        private static boolean excludes(RexNode condition, int shardKey, MultiCloudTable table, int shard) {
+            switch (condition.getKind()) {
+            case AND:
+                for (RexNode operand : ((RexCall) condition).getOperands()) {
+                    if (excludes(operand, shardKey, table, shard)) {
+                        return true;
+                    }
+                }
+                return false;
+            case OR:
+                for (RexNode operand : ((RexCall) condition).getOperands()) {
+                    if (!excludes(operand, shardKey, table, shard)) {
+                        return false;
+                    }
+                }
+                return true;
+            case EQUALS:
+            case LESS_THAN:
+            case LESS_THAN_OR_EQUAL:
+            case GREATER_THAN:
+            case GREATER_THAN_OR_EQUAL:
+                break;
+            default:
+                return false;
+            }
+
+            // comparison of the shard key with a numeric literal, on either side
+            RexNode left = MultiCloudJdbcFragments.uncast(((RexCall) condition).getOperands().get(0));
+            RexNode right = MultiCloudJdbcFragments.uncast(((RexCall) condition).getOperands().get(1));
+            SqlKind kind = condition.getKind();
+            if (right instanceof RexInputRef && left instanceof RexLiteral) {
+                RexNode swapped = left;
+                left = right;
+                right = swapped;
+                kind = kind.reverse();
+            }
+            if (!(left instanceof RexInputRef) || ((RexInputRef) left).getIndex() != shardKey
+                    || !(right instanceof RexLiteral)
+                    || !(((RexLiteral) right).getValue() instanceof BigDecimal)) {
+                return false;
+            }
+
+            BigDecimal value = (BigDecimal) ((RexLiteral) right).getValue();
+            switch (kind) {
+            case EQUALS:
+                return !table.mayHoldEqual(shard, value);
+            case LESS_THAN:
+                return !table.mayHoldBelow(shard, value, false);
+            case LESS_THAN_OR_EQUAL:
+                return !table.mayHoldBelow(shard, value, true);
+            default:
+                return !table.mayHoldAbove(shard, value);
+            }
+        }
+
+    }
+
+    /**
+     * A multi-cloud {@link RelOptRule} that triggers on {@link Filter} of a {@link LogicalMultiCloudReassemble}.
+     * <p>
+     * Routes each conjunction of the condition to the fragment which owns all of its fields, so it is evaluated by
+     * the provider of the fragment before rows are moved across clouds. The filtered fragment which is expected to
+     * return the fewest rows then becomes the driver of the reassembly, i.e. other fragments are only looked up
+     * by keys of its rows, if it is expected to return fewer rows than any of them.
+     */
+    public static class MultiCloudFilterRule extends RelOptRule {
+
+        public static final RelOptRule INSTANCE =
+                new MultiCloudFilterRule(RelFactories.LOGICAL_BUILDER);
+
+        public MultiCloudFilterRule(RelBuilderFactory relBuilderFactory) {
+            super(operand(Filter.class, operand(LogicalMultiCloudReassemble.class, any())),
+                    relBuilderFactory,
+                    MultiCloudFilterRule.class.getSimpleName());
+            logger.debug("Using custom rule: " + this.getClass().getSimpleName());
+        }
+
+        public void onMatch(RelOptRuleCall call) {
+            final Filter filter = call.rel(0);
+            final LogicalMultiCloudReassemble reassemble = call.rel(1);
+            List<RelNode> inputs = reassemble.getInputs();
+
+            // conditions owned by each fragment, shifted to its fields
+            List<List<RexNode>> pushed = new ArrayList<>();
+            List<RexNode> remaining = new ArrayList<>();
+            for (int i = 0; i < inputs.size(); i++) {
+                pushed.add(new ArrayList<>());
+            }
+            for (RexNode condition : RelOptUtil.conjunctions(filter.getCondition())) {
+                ImmutableBitSet fields = RelOptUtil.InputFinder.bits(condition);
+                int offset = 0;
+                boolean isPushed = false;
+                for (int i = 0; i < inputs.size() && !isPushed && !fields.isEmpty() && isPushable(condition); i++) {
+                    int width = inputs.get(i).getRowType().getFieldCount();
+                    if (fields.nextSetBit(0) >= offset && fields.length() <= offset + width) {
+                        pushed.get(i).add(RexUtil.shift(condition, -offset));
+                        isPushed = true;
+                    }
+                    offset += width;
+                }
+                if (!isPushed) {
+                    remaining.add(condition);
+                }
+            }
+
+            RelBuilder builder = call.builder();
+            List<RelNode> newInputs = new ArrayList<>();
+            boolean isChanged = false;
+            for (int i = 0; i < inputs.size(); i++) {
+                RelNode input = inputs.get(i);
+                if (!pushed.get(i).isEmpty()) {
+                    input = MultiCloudJdbcFragments.filter(input,
+                            RexUtil.composeConjunction(builder.getRexBuilder(), pushed.get(i), false), builder);
+                    isChanged = true;
+                }
+                newInputs.add(input);
+            }
+            if (!isChanged) {
+                return;
+            }
+
+            int driver = driver(call.getMetadataQuery(), newInputs);
+            int pointRows = -1;
+            if (driver >= 0) {
+                // the plan may be cached and implemented by concurrent statements, which do not share metadata
+                pointRows = MultiCloudJdbcFragments.pointRows(newInputs.get(driver), call.getMetadataQuery());
+                // fragments do not have to be sorted for lookups
+                for (int i = 0; i < newInputs.size(); i++) {
+                    newInputs.set(i, MultiCloudJdbcFragments.unsorted(newInputs.get(i)));
+                }
+            }
+            logger.debug("Pushed " + pushed + " to fragments, driven by fragment " + driver);
+
+            call.transformTo(builder
+                    .push(LogicalMultiCloudReassemble.create(newInputs, reassemble.getKeys(),
+                            reassemble.getReassembly(), driver, pointRows))
+                    .filter(remaining)
+                    .build());
+        }
+
+        /**
+         * Returns whether a condition can be evaluated by any provider on its own.
+         */
+        private static boolean isPushable(RexNode condition) {
+            if (!RexUtil.isDeterministic(condition) || RexUtil.containsCorrelation(condition)
+                    || RexUtil.SubQueryFinder.find(ImmutableList.of(condition)) != null
+                    || RexOver.containsOver(condition)) {
+                return false;
+            }
+            try {
+                condition.accept(new RexVisitorImpl<Void>(true) {
+                    @Override
+                    public Void visitCall(RexCall call) {
+                        if (call.getOperator() instanceof SqlFunction
+                                && ((SqlFunction) call.getOperator()).getFunctionType().isUserDefined()) {
+                            throw Util.FoundOne.NULL;
+                        }
+                        return super.visitCall(call);
+                    }
+                });
+                return true;
+            } catch (Util.FoundOne e) {
+                return false;
+            }
+        }
+
+        /**
+         * Picks the filtered fragment with the fewest expected rows as the driver, if it is expected to return
+         * fewer rows than any other fragment, and all other fragments can be looked up by their providers.
+         * Returns -1 otherwise.
+         * <p>
+         * A fragment filtered by points of a unique field, such as {@code id IN (1, 2, 3)}, drives the lookups
+         * whatever the estimates are, since it returns at most as many rows as there are points.
+         */
+        private static int driver(RelMetadataQuery mq, List<RelNode> inputs) {
+            int driver = -1;
+            int pointRows = -1;
+            for (int i = 0; i < inputs.size(); i++) {
+                int rows = MultiCloudJdbcFragments.pointRows(inputs.get(i), mq);
+                if (rows >= 0 && (pointRows < 0 || rows < pointRows)) {
+                    driver = i;
+                    pointRows = rows;
+                } else if (pointRows < 0 && MultiCloudJdbcFragments.isFiltered(inputs.get(i))
+                        && (driver < 0 || mq.getRowCount(inputs.get(i)) < mq.getRowCount(inputs.get(driver)))) {
+                    driver = i;
+                }
+            }
+            if (driver < 0) {
+                return -1;
+            }
+
+            for (int i = 0; i < inputs.size(); i++) {
+                if (i != driver && (!MultiCloudJdbcFragments.isRemote(inputs.get(i))
+                        || pointRows < 0 && mq.getRowCount(inputs.get(i)) <= mq.getRowCount(inputs.get(driver)))) {
+                    return -1;
+                }
             }
+            return driver;
         }
     }
 }
\ No newline at end of file
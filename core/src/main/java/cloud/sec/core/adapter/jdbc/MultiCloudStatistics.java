@@ -0,0 +1,298 @@
+package cloud.sec.core.adapter.jdbc;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
+import org.apache.calcite.schema.Statistic;
+import org.apache.calcite.schema.Statistics;
+import org.apache.calcite.sql.SqlDialect;
+import org.apache.calcite.util.ImmutableBitSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Statistics of fragment tables, collected in the background from their providers and kept in a local file.
+ * <p>
+ * Every fragment table is sampled the first time it is read, unless the file holds its statistics already,
+ * and then again every {@value #REFRESH_PROPERTY} seconds (an hour by default; 0 disables collection).
+ * A sample reads the row count of the table, and the number of distinct values, minimum and maximum of each of its
+ * columns. Statistics are written to the file named by {@value #FILE_PROPERTY}
+ * ({@code multicloud-statistics.json} by default) after every sample, and read from it on startup.
+ * <p>
+ * Tables are identified by their providers and their names in the providers, rather than by names of their schemas,
+ * which other models or applications sharing the file may give to other providers.
+ * <p>
+ * The planner sees statistics through {@link Statistic} of the tables, i.e. their row counts. Samples may be stale
+ * or taken by another application, so columns whose sampled values are all distinct are not told to be unique;
+ * tables tell only the keys which their providers declare.
+ */
+public class MultiCloudStatistics {
+    private static final Logger logger = LoggerFactory.getLogger(MultiCloudStatistics.class);
+
+    public static final String FILE_PROPERTY = "cloudsec.statistics.file";
+    public static final String REFRESH_PROPERTY = "cloudsec.statistics.refresh";
+
+    public static final MultiCloudStatistics INSTANCE = new MultiCloudStatistics(
+            new File(System.getProperty(FILE_PROPERTY, "multicloud-statistics.json")),
+            Long.getLong(REFRESH_PROPERTY, 3600));
+
+    private static final ScheduledExecutorService COLLECTOR = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "multicloud-statistics");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final File file;
+    private final long refreshSeconds;
+    private final Map<String, TableStatistics> tables = new ConcurrentHashMap<>();
+    private final Map<String, Boolean> collected = new ConcurrentHashMap<>();
+
+    private MultiCloudStatistics(File file, long refreshSeconds) {
+        this.file = file;
+        this.refreshSeconds = refreshSeconds;
+        load();
+    }
+
+    /**
+     * Returns statistics of a table, or {@code null} if it was not sampled yet.
+     *
+     * @param provider   location of the provider of the table, such as its URL
+     * @param remoteName name of the table in its provider, as the provider expects it
+     */
+    public TableStatistics get(String provider, String remoteName) {
+        return tables.get(name(provider, remoteName));
+    }
+
+    /**
+     * Starts collecting statistics of a table, unless they are collected already.
+     *
+     * @param provider   location of the provider of the table, such as its URL
+     * @param remoteName name of the table in its provider, as the provider expects it
+     * @param dataSource data source of its provider
+     * @param dialect    dialect of its provider
+     * @param columns    columns of the table
+     * @param ordered    positions of columns with minimum and maximum
+     */
+    public void collect(String provider, String remoteName, DataSource dataSource, SqlDialect dialect,
+                        List<String> columns, ImmutableBitSet ordered) {
+        String name = name(provider, remoteName);
+        if (refreshSeconds <= 0 || collected.putIfAbsent(name, true) != null) {
+            return;
+        }
+
+        String sql = sql(dialect, remoteName, columns, ordered);
+        TableStatistics previous = tables.get(name);
+        long age = previous == null ? Long.MAX_VALUE : System.currentTimeMillis() - previous.sampledMillis;
+        long delay = Math.max(0, TimeUnit.SECONDS.toMillis(refreshSeconds) - age);
+
+        COLLECTOR.scheduleWithFixedDelay(() -> sample(name, dataSource, sql, columns, ordered),
+                delay, TimeUnit.SECONDS.toMillis(refreshSeconds), TimeUnit.MILLISECONDS);
+    }
+
+    private static String name(String provider, String remoteName) {
+        return provider + " " + remoteName;
+    }
+
+    private static String sql(SqlDialect dialect, String remoteName, List<String> columns, ImmutableBitSet ordered) {
+        StringBuilder sql = new StringBuilder("SELECT COUNT(*)");
+        for (int i = 0; i < columns.size(); i++) {
+            String column = dialect.quoteIdentifier(columns.get(i));
+            sql.append(", COUNT(DISTINCT ").append(column).append(")");
+            if (ordered.get(i)) {
+                sql.append(", MIN(").append(column).append("), MAX(").append(column).append(")");
+            }
+        }
+        return sql.append(" FROM ").append(remoteName).toString();
+    }
+
+    private void sample(String name, DataSource dataSource, String sql, List<String> columns,
+                        ImmutableBitSet ordered) {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(sql)) {
+            if (!resultSet.next()) {
+                return;
+            }
+
+            int position = 1;
+            long rowCount = resultSet.getLong(position++);
+            Map<String, ColumnStatistics> columnStatistics = new LinkedHashMap<>();
+            for (int i = 0; i < columns.size(); i++) {
+                long distinctCount = resultSet.getLong(position++);
+                Object min = null;
+                Object max = null;
+                if (ordered.get(i)) {
+                    min = value(resultSet.getObject(position++));
+                    max = value(resultSet.getObject(position++));
+                }
+                columnStatistics.put(columns.get(i), new ColumnStatistics(distinctCount, min, max));
+            }
+
+            tables.put(name, new TableStatistics(rowCount, columnStatistics, System.currentTimeMillis()));
+            logger.debug("Sampled statistics of " + name + ": " + rowCount + " rows");
+            save();
+        } catch (SQLException | RuntimeException e) {
+            logger.warn("Sampling statistics of " + name + " failed", e);
+        }
+    }
+
+    // values other than numbers, booleans and strings are kept as strings
+    private static Object value(Object value) {
+        return value == null || value instanceof Number || value instanceof Boolean || value instanceof String
+                ? value : value.toString();
+    }
+
+    //~ File ---------------------------------------------
+
+    @SuppressWarnings("unchecked")
+    private void load() {
+        if (!file.isFile()) {
+            return;
+        }
+        try {
+            Map<String, Map<String, Object>> content = new ObjectMapper().readValue(file, Map.class);
+            for (Map.Entry<String, Map<String, Object>> table : content.entrySet()) {
+                tables.put(table.getKey(), TableStatistics.fromMap(table.getValue()));
+            }
+            logger.info("Read statistics of " + tables.size() + " tables from " + file);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Cannot read statistics from " + file, e);
+        }
+    }
+
+    private synchronized void save() {
+        Map<String, Object> content = new HashMap<>();
+        for (Map.Entry<String, TableStatistics> table : tables.entrySet()) {
+            content.put(table.getKey(), table.getValue().toMap());
+        }
+        try {
+            // the file is replaced as a whole, so it is never read half-written
+            File temporary = new File(file.getPath() + ".tmp");
+            new ObjectMapper().writeValue(temporary, content);
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("Cannot write statistics to " + file, e);
+        }
+    }
+
+    //~ Statistics ---------------------------------------------
+
+    /**
+     * Statistics of a table.
+     */
+    public static final class TableStatistics {
+        private final long rowCount;
+        private final ImmutableMap<String, ColumnStatistics> columns;
+        private final long sampledMillis;
+
+        TableStatistics(long rowCount, Map<String, ColumnStatistics> columns, long sampledMillis) {
+            this.rowCount = rowCount;
+            this.columns = ImmutableMap.copyOf(columns);
+            this.sampledMillis = sampledMillis;
+        }
+
+        public long getRowCount() {
+            return rowCount;
+        }
+
+        /**
+         * Returns statistics of a column, or {@code null} if it was not sampled.
+         */
+        public ColumnStatistics getColumn(String column) {
+            return columns.get(column);
+        }
+
+        /**
+         * Returns the statistic of a table with the sampled row count and the given keys.
+         */
+        public Statistic toStatistic(List<ImmutableBitSet> keys) {
+            return Statistics.of(rowCount, keys);
+        }
+
+        private Map<String, Object> toMap() {
+            Map<String, Object> columnMaps = new LinkedHashMap<>();
+            for (Map.Entry<String, ColumnStatistics> column : columns.entrySet()) {
+                Map<String, Object> columnMap = new LinkedHashMap<>();
+                columnMap.put("ndv", column.getValue().distinctCount);
+                columnMap.put("min", column.getValue().min);
+                columnMap.put("max", column.getValue().max);
+                columnMaps.put(column.getKey(), columnMap);
+            }
+
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("rowCount", rowCount);
+            map.put("sampled", sampledMillis);
+            map.put("columns", columnMaps);
+            return map;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static TableStatistics fromMap(Map<String, Object> map) {
+            Map<String, ColumnStatistics> columns = new LinkedHashMap<>();
+            for (Map.Entry<String, Map<String, Object>> column
+                    : ((Map<String, Map<String, Object>>) map.get("columns")).entrySet()) {
+                columns.put(column.getKey(), new ColumnStatistics(
+                        ((Number) column.getValue().get("ndv")).longValue(),
+                        column.getValue().get("min"),
+                        column.getValue().get("max")));
+            }
+            return new TableStatistics(((Number) map.get("rowCount")).longValue(), columns,
+                    ((Number) map.get("sampled")).longValue());
+        }
+
+        @Override
+        public String toString() {
+            return rowCount + " rows, " + columns;
+        }
+    }
+
+    /**
+     * Statistics of a column. Minimum and maximum are {@code null} for columns which are not ordered.
+     */
+    public static final class ColumnStatistics {
+        private final long distinctCount;
+        private final Object min;
+        private final Object max;
+
+        ColumnStatistics(long distinctCount, Object min, Object max) {
+            this.distinctCount = distinctCount;
+            this.min = min;
+            this.max = max;
+        }
+
+        public long getDistinctCount() {
+            return distinctCount;
+        }
+
+        public Object getMin() {
+            return min;
+        }
+
+        public Object getMax() {
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return "(ndv " + distinctCount + ", min " + min + ", max " + max + ")";
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package cloud.sec.core.catalog;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Catalog of {@link MultiCloudTable}s, i.e. logical tables which are divided into fragments across providers.
+ * <p>
+ * Tables are declared in the operand of the schema which holds them in .json configuration, either inline:
+ * <pre>
+ * "fragmentation": {
+ *   "employees": {
+ *     "key": "multiid",
+ *     "reassembly": "MERGE",
+ *     "fragments": [
+ *       {"schema": "mc_db_google", "table": "employees", "fields": ["id", "first", "last"]},
+ *       {"schema": "mc_db_amazon", "table": "employees", "fields": ["id", "age", "city_id"]}
+ *     ]
+ *   }
+ * }
+ * </pre>
+ * or as a path to a sidecar .json file with the same content. Reassembly is optional, see
+ * {@link MultiCloudTable.Reassembly} for the options.
+ * <p>
+ * A sharded table lists its shards instead of fragments, each with fragments of its own:
+ * <pre>
+ * "employees": {
+ *   "key": "multiid",
+ *   "sharding": "RANGE",
+ *   "shardKey": "id",
+ *   "shards": [
+ *     {"upTo": 1000, "fragments": [...]},
+ *     {"fragments": [...]}
+ *   ]
+ * }
+ * </pre>
+ * Sharding and the shard key are optional, by default shards hold ranges of the key. See
+ * {@link MultiCloudTable.Sharding} for the options.
+ * <p>
+ * Tables are indexed by their qualified name, so looking up a scanned table takes constant time
+ * no matter how many tables are declared. Lookups are lock-free; registration replaces the index as a whole.
+ * <p>
+ * The catalog also holds {@link MultiCloudProvider}s, which tell the planner how costly it is to read from
+ * each schema.
+ * <p>
+ * Names of schemas are only meaningful within a root schema, so every root schema, i.e. every model of
+ * a connection, has a catalog of its own, which its schemas share. Models which declare tables or schemas of the
+ * same names differently do not replace declarations of each other.
+ */
+public class MultiCloudCatalog {
+    private static final Logger logger = LoggerFactory.getLogger(MultiCloudCatalog.class);
+
+    /**
+     * Schema operand holding table declarations, or a path to the file with them.
+     */
+    public static final String OPERAND = "fragmentation";
+
+    /**
+     * Schema operand holding the cost of reading from the provider of the schema.
+     */
+    public static final String COST_OPERAND = "cost";
+
+    private volatile ImmutableMap<List<String>, MultiCloudTable> tables = ImmutableMap.of();
+    private volatile ImmutableMap<List<String>, MultiCloudTable> tablesOfFragments = ImmutableMap.of();
+    private volatile ImmutableMap<String, MultiCloudProvider> providers = ImmutableMap.of();
+    private volatile List<Object> declarations = ImmutableList.of(tables, providers);
+
+    /**
+     * Registers tables declared in the operand of a schema. Does nothing if the operand declares no tables.
+     */
+    public void register(String schemaName, Map<String, Object> operand) {
+        Object declaration = operand.get(OPERAND);
+        if (declaration == null) {
+            return;
+        }
+
+        for (MultiCloudTable table : parse(schemaName, declaration)) {
+            register(table);
+        }
+    }
+
+    /**
+     * Registers a table, replacing the previous declaration of the table with the same name.
+     */
+    public synchronized void register(MultiCloudTable table) {
+        if (table.equals(tables.get(table.getQualifiedName()))) {
+            return;
+        }
+
+        Map<List<String>, MultiCloudTable> newTables = new HashMap<>(tables);
+        newTables.put(table.getQualifiedName(), table);
+        tables = ImmutableMap.copyOf(newTables);
+
+        Map<List<String>, MultiCloudTable> newTablesOfFragments = new HashMap<>();
+        for (MultiCloudTable newTable : newTables.values()) {
+            for (MultiCloudFragment fragment : newTable.getFragments()) {
+                newTablesOfFragments.put(fragment.getQualifiedName(), newTable);
+            }
+        }
+        tablesOfFragments = ImmutableMap.copyOf(newTablesOfFragments);
+        declarations = ImmutableList.of(tables, providers);
+
+        logger.debug("Registered fragmented table " + table);
+    }
+
+    /**
+     * Returns the table with a given qualified name, or {@code null} if the table is not fragmented.
+     */
+    public MultiCloudTable getTable(List<String> qualifiedName) {
+        return tables.get(qualifiedName);
+    }
+
+    /**
+     * Returns the table which a fragment with a given qualified name belongs to, or {@code null} if it is not
+     * a fragment.
+     */
+    public MultiCloudTable getTableOfFragment(List<String> qualifiedName) {
+        return tablesOfFragments.get(qualifiedName);
+    }
+
+    /**
+     * Registers the provider of a schema with the cost declared in its operand:
+     * <pre>
+     * "cost": {"latencyMillis": 20, "bandwidthMBps": 100}
+     * </pre>
+     * Latency which is not declared is sampled, but only the first time the schema is registered. Bandwidth which
+     * is not declared is unlimited.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized void registerProvider(String schemaName, Map<String, Object> operand,
+                                              DoubleSupplier sampledLatency) {
+        Object declaration = operand.getOrDefault(COST_OPERAND, ImmutableMap.of());
+        if (!(declaration instanceof Map)) {
+            throw new IllegalArgumentException("Invalid " + COST_OPERAND + " of schema " + schemaName + ": "
+                    + declaration);
+        }
+        Map<String, Object> cost = (Map<String, Object>) declaration;
+
+        MultiCloudProvider previous = providers.get(schemaName);
+        Number latency = (Number) cost.get("latencyMillis");
+        Number bandwidth = (Number) cost.get("bandwidthMBps");
+        MultiCloudProvider provider = new MultiCloudProvider(schemaName,
+                latency != null ? latency.doubleValue()
+                        : previous != null ? previous.getLatencyMillis() : sampledLatency.getAsDouble(),
+                bandwidth != null ? bandwidth.doubleValue() : Double.POSITIVE_INFINITY);
+        if (provider.equals(previous)) {
+            return;
+        }
+
+        Map<String, MultiCloudProvider> newProviders = new HashMap<>(providers);
+        newProviders.put(schemaName, provider);
+        providers = ImmutableMap.copyOf(newProviders);
+        declarations = ImmutableList.of(tables, providers);
+
+        logger.debug("Registered provider " + provider);
+    }
+
+    /**
+     * Returns the provider of a schema, or {@code null} if it is not registered.
+     */
+    public MultiCloudProvider getProvider(String schemaName) {
+        return providers.get(schemaName);
+    }
+
+    /**
+     * Returns declarations of tables and providers in the catalog, which equal those of another catalog if both
+     * declare the same tables and providers.
+     */
+    public List<Object> getDeclarations() {
+        return declarations;
+    }
+
+    //~ Parsing ---------------------------------------------
+
+    @SuppressWarnings("unchecked")
+    private static List<MultiCloudTable> parse(String schemaName, Object declaration) {
+        Map<String, Object> tables;
+        if (declaration instanceof String) {
+            tables = read(new File((String) declaration));
+        } else if (declaration instanceof Map) {
+            tables = (Map<String, Object>) declaration;
+        } else {
+            throw new IllegalArgumentException("Invalid " + OPERAND + " of schema " + schemaName + ": " + declaration);
+        }
+
+        List<MultiCloudTable> result = new ArrayList<>();
+        for (Map.Entry<String, Object> table : tables.entrySet()) {
+            Map<String, Object> tableOperand = (Map<String, Object>) table.getValue();
+
+            String key = (String) require(tableOperand, "key");
+            Object reassembly = tableOperand.getOrDefault("reassembly", MultiCloudTable.Reassembly.MERGE.name());
+            Object sharding = tableOperand.getOrDefault("sharding", MultiCloudTable.Sharding.RANGE.name());
+
+            // a table which is not sharded lists its fragments directly
+            List<MultiCloudShard> shards = new ArrayList<>();
+            if (tableOperand.containsKey("shards")) {
+                for (Map<String, Object> shard : (List<Map<String, Object>>) tableOperand.get("shards")) {
+                    Number upperBound = (Number) shard.get("upTo");
+                    shards.add(new MultiCloudShard(upperBound == null ? null : upperBound.longValue(),
+                            fragments(shard)));
+                }
+            } else {
+                shards.add(new MultiCloudShard(null, fragments(tableOperand)));
+            }
+
+            result.add(new MultiCloudTable(schemaName, table.getKey(), key,
+                    MultiCloudTable.Reassembly.valueOf(((String) reassembly).toUpperCase(Locale.ROOT)),
+                    MultiCloudTable.Sharding.valueOf(((String) sharding).toUpperCase(Locale.ROOT)),
+                    (String) tableOperand.getOrDefault("shardKey", key), shards));
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<MultiCloudFragment> fragments(Map<String, Object> operand) {
+        List<MultiCloudFragment> fragments = new ArrayList<>();
+        for (Map<String, Object> fragment : (List<Map<String, Object>>) require(operand, "fragments")) {
+            fragments.add(new MultiCloudFragment(
+                    (String) require(fragment, "schema"),
+                    (String) require(fragment, "table"),
+                    ImmutableList.copyOf((List<String>) require(fragment, "fields"))));
+        }
+        return fragments;
+    }
+
+    private static Object require(Map<String, Object> operand, String name) {
+        Object value = operand.get(name);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing '" + name + "' in " + operand);
+        }
+        return value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> read(File file) {
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.configure(JsonParser.Feature.ALLOW_COMMENTS, true);
+        try {
+            return mapper.readValue(file, Map.class);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot read fragmentation from " + file, e);
+        }
+    }
+}
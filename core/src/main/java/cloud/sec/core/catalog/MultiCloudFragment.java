@@ -0,0 +1,64 @@
+package cloud.sec.core.catalog;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A vertical fragment of a {@link MultiCloudTable}, stored in a table of one of the providers.
+ * <p>
+ * Besides its fields, every fragment stores the key of the logical table, which is used to join fragments back.
+ */
+public final class MultiCloudFragment {
+    private final String schema;
+    private final String table;
+    private final ImmutableList<String> fields;
+
+    public MultiCloudFragment(String schema, String table, List<String> fields) {
+        this.schema = Objects.requireNonNull(schema, "schema");
+        this.table = Objects.requireNonNull(table, "table");
+        this.fields = ImmutableList.copyOf(fields);
+    }
+
+    public String getSchema() {
+        return schema;
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    /**
+     * Returns fully-qualified name of the fragment table, as used by {@link org.apache.calcite.plan.RelOptTable}.
+     */
+    public List<String> getQualifiedName() {
+        return ImmutableList.of(schema, table);
+    }
+
+    /**
+     * Returns fields of the logical table stored in this fragment, without the key.
+     */
+    public List<String> getFields() {
+        return fields;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(schema, table, fields);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj == this
+                || obj instanceof MultiCloudFragment
+                && schema.equals(((MultiCloudFragment) obj).schema)
+                && table.equals(((MultiCloudFragment) obj).table)
+                && fields.equals(((MultiCloudFragment) obj).fields);
+    }
+
+    @Override
+    public String toString() {
+        return schema + "." + table + fields;
+    }
+}
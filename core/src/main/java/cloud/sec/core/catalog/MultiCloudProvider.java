@@ -0,0 +1,69 @@
+package cloud.sec.core.catalog;
+
+import java.util.Objects;
+
+/**
+ * A provider, i.e. the database behind a JDBC schema, with the cost of reading rows from it over the network.
+ * <p>
+ * Reading rows takes a round trip of the latency, plus the time to transfer the rows at the bandwidth of the
+ * provider. A provider with unlimited bandwidth costs only its latency.
+ */
+public final class MultiCloudProvider {
+    private final String name;
+    private final double latencyMillis;
+    private final double bandwidthMBps;
+
+    public MultiCloudProvider(String name, double latencyMillis, double bandwidthMBps) {
+        this.name = Objects.requireNonNull(name, "name");
+        this.latencyMillis = latencyMillis;
+        this.bandwidthMBps = bandwidthMBps;
+        if (latencyMillis < 0 || bandwidthMBps <= 0) {
+            throw new IllegalArgumentException("Invalid cost of provider " + name);
+        }
+    }
+
+    /**
+     * Returns name of the schema of the provider.
+     */
+    public String getName() {
+        return name;
+    }
+
+    public double getLatencyMillis() {
+        return latencyMillis;
+    }
+
+    /**
+     * Returns bandwidth in megabytes per second, or {@link Double#POSITIVE_INFINITY} if it is unlimited.
+     */
+    public double getBandwidthMBps() {
+        return bandwidthMBps;
+    }
+
+    /**
+     * Returns milliseconds it takes to read rows of the given average size from the provider.
+     */
+    public double transferMillis(double rowCount, double rowBytes) {
+        // a megabyte per second is a thousand bytes per millisecond
+        return latencyMillis + rowCount * rowBytes / (bandwidthMBps * 1000);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(name, latencyMillis, bandwidthMBps);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj == this
+                || obj instanceof MultiCloudProvider
+                && name.equals(((MultiCloudProvider) obj).name)
+                && latencyMillis == ((MultiCloudProvider) obj).latencyMillis
+                && bandwidthMBps == ((MultiCloudProvider) obj).bandwidthMBps;
+    }
+
+    @Override
+    public String toString() {
+        return name + "(latency " + latencyMillis + " ms, bandwidth " + bandwidthMBps + " MB/s)";
+    }
+}
@@ -0,0 +1,59 @@
+package cloud.sec.core.catalog;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A horizontal shard of a {@link MultiCloudTable}, i.e. the rows whose shard key falls into the shard, which are
+ * vertically divided into {@link MultiCloudFragment}s of their own.
+ * <p>
+ * Shards of a {@link MultiCloudTable.Sharding#RANGE range-sharded} table hold keys below their upper bound and not
+ * below the bound of the previous shard; the last shard has no bound. Shards of a
+ * {@link MultiCloudTable.Sharding#HASH hash-sharded} table have no bounds.
+ */
+public final class MultiCloudShard {
+    private final Long upperBound;
+    private final ImmutableList<MultiCloudFragment> fragments;
+
+    public MultiCloudShard(Long upperBound, List<MultiCloudFragment> fragments) {
+        this.upperBound = upperBound;
+        this.fragments = ImmutableList.copyOf(fragments);
+        if (this.fragments.isEmpty()) {
+            throw new IllegalArgumentException("Shard has no fragments");
+        }
+    }
+
+    /**
+     * Returns the exclusive upper bound of shard keys in this shard, or {@code null} if there is none.
+     */
+    public Long getUpperBound() {
+        return upperBound;
+    }
+
+    /**
+     * Returns fragments, in the order of preference.
+     */
+    public List<MultiCloudFragment> getFragments() {
+        return fragments;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(upperBound, fragments);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj == this
+                || obj instanceof MultiCloudShard
+                && Objects.equals(upperBound, ((MultiCloudShard) obj).upperBound)
+                && fragments.equals(((MultiCloudShard) obj).fragments);
+    }
+
+    @Override
+    public String toString() {
+        return (upperBound == null ? "" : "<" + upperBound) + fragments;
+    }
+}
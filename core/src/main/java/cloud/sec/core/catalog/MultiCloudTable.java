@@ -0,0 +1,328 @@
+package cloud.sec.core.catalog;
+
+import cloud.sec.core.tools.MultiCloudFieldRegistry;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.apache.calcite.util.ImmutableBitSet;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A logical table which is vertically divided into {@link MultiCloudFragment}s.
+ * All fragments share the key field, which is used to join them back into the logical table.
+ * The key is unique within every fragment.
+ * <p>
+ * Large tables can also be divided horizontally into {@link MultiCloudShard}s by ranges or hashes of a shard key,
+ * which is either the key or a numeric field of the logical table. Every shard is divided into fragments of its own,
+ * and rows of a shard are reassembled from its fragments only. A table which is not sharded has a single shard.
+ */
+public final class MultiCloudTable {
+    private final String schema;
+    private final String name;
+    private final String key;
+    private final ImmutableList<MultiCloudFragment> fragments;
+    private final Reassembly reassembly;
+    private final Sharding sharding;
+    private final String shardKey;
+    private final ImmutableList<MultiCloudShard> shards;
+    private final ImmutableMap<MultiCloudFragment, ImmutableBitSet> fieldIds;
+    private final ImmutableMap<MultiCloudFragment, Integer> shardsOfFragments;
+
+    public MultiCloudTable(String schema, String name, String key, List<MultiCloudFragment> fragments) {
+        this(schema, name, key, fragments, Reassembly.MERGE);
+    }
+
+    public MultiCloudTable(String schema, String name, String key, List<MultiCloudFragment> fragments, Reassembly reassembly) {
+        this(schema, name, key, reassembly, Sharding.RANGE, key,
+                ImmutableList.of(new MultiCloudShard(null, fragments)));
+    }
+
+    public MultiCloudTable(String schema, String name, String key, Reassembly reassembly, Sharding sharding,
+                           String shardKey, List<MultiCloudShard> shards) {
+        this.schema = Objects.requireNonNull(schema, "schema");
+        this.name = Objects.requireNonNull(name, "name");
+        this.key = Objects.requireNonNull(key, "key");
+        this.reassembly = Objects.requireNonNull(reassembly, "reassembly");
+        this.sharding = Objects.requireNonNull(sharding, "sharding");
+        this.shardKey = Objects.requireNonNull(shardKey, "shardKey");
+        this.shards = ImmutableList.copyOf(shards);
+        if (this.shards.isEmpty()) {
+            throw new IllegalArgumentException("Table " + schema + "." + name + " has no fragments");
+        }
+        for (int i = 0; i < this.shards.size(); i++) {
+            Long upperBound = this.shards.get(i).getUpperBound();
+            boolean isLast = i == this.shards.size() - 1;
+            if (sharding == Sharding.HASH ? upperBound != null
+                    : isLast != (upperBound == null)
+                    || !isLast && i > 0 && upperBound <= this.shards.get(i - 1).getUpperBound()) {
+                throw new IllegalArgumentException("Invalid bound of shard " + i + " of " + schema + "." + name);
+            }
+        }
+
+        // fields are interned once, so picking fragments for a query only takes bit operations
+        ImmutableList.Builder<MultiCloudFragment> allFragments = ImmutableList.builder();
+        Map<MultiCloudFragment, ImmutableBitSet> fieldIds = new HashMap<>();
+        Map<MultiCloudFragment, Integer> shardsOfFragments = new HashMap<>();
+        for (int i = 0; i < this.shards.size(); i++) {
+            for (MultiCloudFragment fragment : this.shards.get(i).getFragments()) {
+                allFragments.add(fragment);
+                fieldIds.put(fragment, ImmutableBitSet.of(
+                        MultiCloudFieldRegistry.INSTANCE.intern(getQualifiedName(), fragment.getFields())));
+                shardsOfFragments.put(fragment, i);
+            }
+        }
+        this.fragments = allFragments.build();
+        this.fieldIds = ImmutableMap.copyOf(fieldIds);
+        this.shardsOfFragments = ImmutableMap.copyOf(shardsOfFragments);
+    }
+
+    public String getSchema() {
+        return schema;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns fully-qualified name of the logical table, as used by {@link org.apache.calcite.plan.RelOptTable}.
+     */
+    public List<String> getQualifiedName() {
+        return ImmutableList.of(schema, name);
+    }
+
+    /**
+     * Returns name of the key field shared by all fragments.
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Returns fragments of all shards, shard after shard, each in the order of preference.
+     */
+    public List<MultiCloudFragment> getFragments() {
+        return fragments;
+    }
+
+    /**
+     * Returns ids of fields of the logical table stored in a fragment, as given by {@link MultiCloudFieldRegistry}.
+     */
+    public ImmutableBitSet getFieldIds(MultiCloudFragment fragment) {
+        ImmutableBitSet ids = fieldIds.get(fragment);
+        if (ids == null) {
+            throw new IllegalArgumentException("Fragment " + fragment + " does not belong to " + this);
+        }
+        return ids;
+    }
+
+    /**
+     * Returns the way fragments are joined back into the logical table.
+     */
+    public Reassembly getReassembly() {
+        return reassembly;
+    }
+
+    public Sharding getSharding() {
+        return sharding;
+    }
+
+    /**
+     * Returns name of the field which decides the shard of a row, which is the key unless declared otherwise.
+     */
+    public String getShardKey() {
+        return shardKey;
+    }
+
+    public List<MultiCloudShard> getShards() {
+        return shards;
+    }
+
+    /**
+     * Returns whether rows are divided into more than one shard.
+     */
+    public boolean isSharded() {
+        return shards.size() > 1;
+    }
+
+    /**
+     * Returns position of the shard which holds a fragment.
+     */
+    public int getShard(MultiCloudFragment fragment) {
+        Integer shard = shardsOfFragments.get(fragment);
+        if (shard == null) {
+            throw new IllegalArgumentException("Fragment " + fragment + " does not belong to " + this);
+        }
+        return shard;
+    }
+
+    /**
+     * Returns upper bounds of all shards but the last one, if the table is sharded by ranges.
+     */
+    public long[] getUpperBounds() {
+        long[] upperBounds = new long[sharding == Sharding.RANGE ? shards.size() - 1 : 0];
+        for (int i = 0; i < upperBounds.length; i++) {
+            upperBounds[i] = shards.get(i).getUpperBound();
+        }
+        return upperBounds;
+    }
+
+    /**
+     * Returns position of the shard which holds rows with the given shard key.
+     */
+    public int shardOf(Object shardKeyValue) {
+        return shardOf(shardKeyValue, sharding, getUpperBounds(), shards.size());
+    }
+
+    /**
+     * Returns position of the shard which holds rows with the given shard key, among shards with given upper
+     * bounds or number of shards. Rows without the shard key belong to the first shard.
+     */
+    public static int shardOf(Object shardKeyValue, Sharding sharding, long[] upperBounds, int shardCount) {
+        if (shardKeyValue == null) {
+            return 0;
+        }
+        if (!(shardKeyValue instanceof Number)) {
+            throw new IllegalArgumentException("Shard key " + shardKeyValue + " is not a number");
+        }
+
+        if (sharding == Sharding.HASH) {
+            if (isWhole((Number) shardKeyValue)) {
+                return (int) Math.floorMod(((Number) shardKeyValue).longValue(), (long) shardCount);
+            }
+            try {
+                return decimal(shardKeyValue).toBigIntegerExact().mod(BigInteger.valueOf(shardCount)).intValue();
+            } catch (ArithmeticException e) {
+                throw new IllegalArgumentException("Hashed shard key " + shardKeyValue + " is not a whole number");
+            }
+        }
+
+        for (int i = 0; i < upperBounds.length; i++) {
+            boolean isBelow = isWhole((Number) shardKeyValue)
+                    ? ((Number) shardKeyValue).longValue() < upperBounds[i]
+                    : decimal(shardKeyValue).compareTo(BigDecimal.valueOf(upperBounds[i])) < 0;
+            if (isBelow) {
+                return i;
+            }
+        }
+        return upperBounds.length;
+    }
+
+    /**
+     * Returns whether a shard may hold rows whose shard key is equal to the given value.
+     */
+    public boolean mayHoldEqual(int shard, BigDecimal value) {
+        if (sharding == Sharding.HASH) {
+            try {
+                return value.toBigIntegerExact().mod(BigInteger.valueOf(shards.size())).intValue() == shard;
+            } catch (ArithmeticException e) {
+                return false; // hashed keys are whole numbers
+            }
+        }
+        BigDecimal lowerBound = lowerBound(shard);
+        BigDecimal upperBound = upperBound(shard);
+        return (lowerBound == null || lowerBound.compareTo(value) <= 0)
+                && (upperBound == null || value.compareTo(upperBound) < 0);
+    }
+
+    /**
+     * Returns whether a shard may hold rows whose shard key is less than, or equal to if inclusive, the given value.
+     */
+    public boolean mayHoldBelow(int shard, BigDecimal value, boolean isInclusive) {
+        BigDecimal lowerBound = sharding == Sharding.RANGE ? lowerBound(shard) : null;
+        if (lowerBound == null) {
+            return true;
+        }
+        int comparison = lowerBound.compareTo(value);
+        return comparison < 0 || isInclusive && comparison == 0;
+    }
+
+    /**
+     * Returns whether a shard may hold rows whose shard key is greater than, or equal to, the given value.
+     */
+    public boolean mayHoldAbove(int shard, BigDecimal value) {
+        BigDecimal upperBound = sharding == Sharding.RANGE ? upperBound(shard) : null;
+        return upperBound == null || value.compareTo(upperBound) < 0;
+    }
+
+    private BigDecimal lowerBound(int shard) {
+        return shard == 0 ? null : BigDecimal.valueOf(shards.get(shard - 1).getUpperBound());
+    }
+
+    private BigDecimal upperBound(int shard) {
+        Long upperBound = shards.get(shard).getUpperBound();
+        return upperBound == null ? null : BigDecimal.valueOf(upperBound);
+    }
+
+    private static boolean isWhole(Number value) {
+        return value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte;
+    }
+
+    private static BigDecimal decimal(Object value) {
+        return value instanceof BigDecimal ? (BigDecimal) value : new BigDecimal(value.toString());
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(schema, name, key, reassembly, sharding, shardKey, shards);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj == this
+                || obj instanceof MultiCloudTable
+                && schema.equals(((MultiCloudTable) obj).schema)
+                && name.equals(((MultiCloudTable) obj).name)
+                && key.equals(((MultiCloudTable) obj).key)
+                && reassembly == ((MultiCloudTable) obj).reassembly
+                && sharding == ((MultiCloudTable) obj).sharding
+                && shardKey.equals(((MultiCloudTable) obj).shardKey)
+                && shards.equals(((MultiCloudTable) obj).shards);
+    }
+
+    @Override
+    public String toString() {
+        return schema + "." + name
+                + (isSharded() ? " " + sharding + "(" + shardKey + ")" + shards : fragments.toString());
+    }
+
+    /**
+     * Ways of joining fragments back into the logical table.
+     */
+    public enum Reassembly {
+        /**
+         * Fragments are joined by a regular join, which fetches them one after another.
+         */
+        JOIN,
+        /**
+         * Fragments are fetched concurrently and joined by a hash join as their rows arrive.
+         * Rows waiting for their parts are kept in memory.
+         */
+        HASH,
+        /**
+         * Fragments are sorted by the key by their providers, fetched concurrently and merged row by row,
+         * so memory use does not depend on the size of the table.
+         */
+        MERGE
+    }
+
+    /**
+     * Ways of dividing rows of the logical table into shards.
+     */
+    public enum Sharding {
+        /**
+         * Every shard holds a range of shard keys, up to its upper bound.
+         */
+        RANGE,
+        /**
+         * Every shard holds shard keys whose remainder after division by the number of shards is the position
+         * of the shard. Shard keys have to be whole numbers.
+         */
+        HASH
+    }
+}
@@ -0,0 +1,142 @@
+package cloud.sec.core.metrics;
+
+import org.apache.calcite.tools.Program;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Metrics of all queries, shared by all connections and published as MXBeans in the
+ * {@value #JMX_DOMAIN} domain:
+ * <ul>
+ * <li>{@code type=Phase} timers of each {@link Phase} of planning and executing queries,</li>
+ * <li>{@code type=Provider} rows, bytes and latency of fragments fetched from each provider.</li>
+ * </ul>
+ * Fragments and queries are measured only if the {@value #PROPERTY} system property is not {@code false};
+ * planning is measured regardless. Measurements of single queries are available from {@link MultiCloudTrace}.
+ */
+public final class MultiCloudMetrics {
+    private static final Logger logger = LoggerFactory.getLogger(MultiCloudMetrics.class);
+
+    public static final String PROPERTY = "cloudsec.metrics";
+    public static final String JMX_DOMAIN = "cloud.sec.multicloud";
+
+    public static final MultiCloudMetrics INSTANCE =
+            new MultiCloudMetrics(!"false".equalsIgnoreCase(System.getProperty(PROPERTY)));
+
+    /**
+     * Phases of a query.
+     */
+    public enum Phase {
+        /**
+         * Finding fields used by the query.
+         */
+        FIELD_ANALYSIS("fieldAnalysis"),
+        /**
+         * Rewriting scans of fragmented tables in the heuristic planner.
+         */
+        HEP_REWRITE("hepRewrite"),
+        /**
+         * Cost-based optimization in the volcano planner.
+         */
+        VOLCANO("volcano"),
+        /**
+         * Executing the query, from opening its result until it is read or closed.
+         */
+        EXECUTION("execution");
+
+        private final String metricName;
+
+        Phase(String metricName) {
+            this.metricName = metricName;
+        }
+
+        public String getMetricName() {
+            return metricName;
+        }
+    }
+
+    private final boolean isEnabled;
+    private final Map<Phase, MultiCloudTimer> timers = new EnumMap<>(Phase.class);
+    private final Map<String, MultiCloudProviderMetrics> providers = new ConcurrentHashMap<>();
+
+    private MultiCloudMetrics(boolean isEnabled) {
+        this.isEnabled = isEnabled;
+        for (Phase phase : Phase.values()) {
+            MultiCloudTimer timer = new MultiCloudTimer();
+            timers.put(phase, timer);
+            register("type=Phase,name=" + phase.getMetricName(), timer);
+        }
+    }
+
+    /**
+     * Returns whether fragments and queries are measured.
+     */
+    public boolean isEnabled() {
+        return isEnabled;
+    }
+
+    public MultiCloudTimer getTimer(Phase phase) {
+        return timers.get(phase);
+    }
+
+    /**
+     * Returns metrics of a provider, i.e. of the schema which executes fragments.
+     */
+    public MultiCloudProviderMetrics getProvider(String name) {
+        return providers.computeIfAbsent(name, n -> {
+            MultiCloudProviderMetrics metrics = new MultiCloudProviderMetrics(n);
+            register("type=Provider,name=" + ObjectName.quote(n), metrics);
+            return metrics;
+        });
+    }
+
+    /**
+     * Returns metrics of all providers which fetched any fragment.
+     */
+    public Collection<MultiCloudProviderMetrics> getProviders() {
+        return Collections.unmodifiableCollection(providers.values());
+    }
+
+    /**
+     * Records the duration of a phase, also into the trace of the query being planned in this thread, if any.
+     */
+    public void record(Phase phase, long nanos) {
+        timers.get(phase).record(nanos);
+        MultiCloudTrace trace = MultiCloudTrace.planning();
+        if (trace != null) {
+            trace.addPhase(phase, nanos);
+        }
+    }
+
+    /**
+     * Returns a program which records how long the given program runs as the given phase.
+     */
+    public Program timed(final Phase phase, final Program program) {
+        return (planner, rel, requiredOutputTraits, materializations, lattices) -> {
+            long start = System.nanoTime();
+            try {
+                return program.run(planner, rel, requiredOutputTraits, materializations, lattices);
+            } finally {
+                record(phase, System.nanoTime() - start);
+            }
+        };
+    }
+
+    private static void register(String name, Object bean) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(bean, new ObjectName(JMX_DOMAIN + ":" + name));
+        } catch (JMException | RuntimeException e) {
+            // e.g. another class loader registered the same metrics already
+            logger.warn("Cannot publish metrics " + name + " over JMX", e);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package cloud.sec.core.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fragments fetched from a provider: rows and estimated bytes read, latency until the first row arrives, which
+ * includes executing the fragment, and time until the last row arrives.
+ */
+public final class MultiCloudProviderMetrics implements MultiCloudProviderMetricsMXBean {
+    private final String name;
+    private final MultiCloudTimer latency = new MultiCloudTimer();
+    private final MultiCloudTimer fetch = new MultiCloudTimer();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder rows = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+
+    MultiCloudProviderMetrics(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Records a fetched fragment.
+     *
+     * @param latencyNanos time until the first row, or until the end if there were no rows
+     * @param fetchNanos   time until the last row
+     */
+    public void record(long rowCount, long byteCount, long latencyNanos, long fetchNanos, boolean failed) {
+        latency.record(latencyNanos);
+        fetch.record(fetchNanos);
+        rows.add(rowCount);
+        bytes.add(byteCount);
+        if (failed) {
+            failures.increment();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getFetchCount() {
+        return fetch.getCount();
+    }
+
+    @Override
+    public long getFailureCount() {
+        return failures.sum();
+    }
+
+    @Override
+    public long getRowCount() {
+        return rows.sum();
+    }
+
+    @Override
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    @Override
+    public double getMeanLatencyMillis() {
+        return latency.getMeanMillis();
+    }
+
+    @Override
+    public double getMaxLatencyMillis() {
+        return latency.getMaxMillis();
+    }
+
+    @Override
+    public double getMeanFetchMillis() {
+        return fetch.getMeanMillis();
+    }
+
+    @Override
+    public double getMaxFetchMillis() {
+        return fetch.getMaxMillis();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d fetches (%d failed), %d rows, %d bytes, latency mean %.3f ms, max %.3f ms,"
+                        + " fetch mean %.3f ms, max %.3f ms", name, getFetchCount(), getFailureCount(), getRowCount(),
+                getBytes(), getMeanLatencyMillis(), getMaxLatencyMillis(), getMeanFetchMillis(), getMaxFetchMillis());
+    }
+}
@@ -0,0 +1,22 @@
+package cloud.sec.core.metrics;
+
+/**
+ * Management interface of {@link MultiCloudProviderMetrics}.
+ */
+public interface MultiCloudProviderMetricsMXBean {
+    long getFetchCount();
+
+    long getFailureCount();
+
+    long getRowCount();
+
+    long getBytes();
+
+    double getMeanLatencyMillis();
+
+    double getMaxLatencyMillis();
+
+    double getMeanFetchMillis();
+
+    double getMaxFetchMillis();
+}
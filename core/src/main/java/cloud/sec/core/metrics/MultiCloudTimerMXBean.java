@@ -0,0 +1,14 @@
+package cloud.sec.core.metrics;
+
+/**
+ * Management interface of a {@link MultiCloudTimer}.
+ */
+public interface MultiCloudTimerMXBean {
+    long getCount();
+
+    double getTotalMillis();
+
+    double getMeanMillis();
+
+    double getMaxMillis();
+}
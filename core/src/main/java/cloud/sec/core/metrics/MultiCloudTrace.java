@@ -0,0 +1,267 @@
+package cloud.sec.core.metrics;
+
+import com.google.common.cache.CacheBuilder;
+import org.apache.calcite.DataContext;
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.rel.RelNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Trace of a single query: how long each phase of planning took, the optimized plan, and every fragment fetched
+ * while the query was executed. Queries are traced only if the {@value #PROPERTY} system property is {@code true}
+ * and {@link MultiCloudMetrics} are enabled; finished traces are handed over to listeners, by default logged.
+ * <p>
+ * A query is planned by the thread of its statement, which keeps the trace only while it plans the query; the trace
+ * is then carried by the plan of the statement, and continued by its first execution. Queries whose plans were
+ * cached, and further executions of a statement, have no planning phases. Fragments are fetched by other threads,
+ * so the trace of an executed query is kept by the context of the query.
+ */
+public final class MultiCloudTrace {
+    private static final Logger logger = LoggerFactory.getLogger(MultiCloudTrace.class);
+
+    public static final String PROPERTY = "cloudsec.trace";
+
+    private static final boolean IS_ENABLED = Boolean.getBoolean(PROPERTY) && MultiCloudMetrics.INSTANCE.isEnabled();
+
+    private static final ThreadLocal<MultiCloudTrace> PLANNING = new ThreadLocal<>();
+
+    // contexts are compared by identity, and queries which are never closed do not keep their traces
+    private static final Map<DataContext, MultiCloudTrace> RUNNING =
+            CacheBuilder.newBuilder().weakKeys().<DataContext, MultiCloudTrace>build().asMap();
+
+    private static final List<Consumer<MultiCloudTrace>> LISTENERS =
+            new CopyOnWriteArrayList<>(Collections.singletonList(trace -> logger.info(trace.toString())));
+
+    private final Map<MultiCloudMetrics.Phase, Long> phases = new EnumMap<>(MultiCloudMetrics.Phase.class);
+    private final List<Fragment> fragments = new ArrayList<>();
+    private String plan;
+    private long rowCount;
+    private long executionNanos;
+    private boolean failed;
+    private boolean isExecuted;
+
+    private MultiCloudTrace() {
+    }
+
+    public static boolean isEnabled() {
+        return IS_ENABLED;
+    }
+
+    /**
+     * Starts tracing the query being planned by this thread.
+     */
+    public static void startPlanning() {
+        if (IS_ENABLED) {
+            PLANNING.set(new MultiCloudTrace());
+        }
+    }
+
+    /**
+     * Returns the trace of the query being planned by this thread, or {@code null} if it is not traced.
+     */
+    public static MultiCloudTrace planning() {
+        return IS_ENABLED ? PLANNING.get() : null;
+    }
+
+    /**
+     * Stops tracing the query planned by this thread, whether it was planned or failed.
+     */
+    public static void finishPlanning() {
+        PLANNING.remove();
+    }
+
+    /**
+     * Starts tracing execution of the query in the given context, continuing the trace of its planning unless
+     * another execution of the same plan continued it already. Returns {@code null} if the query is not traced.
+     *
+     * @param root    context of the query
+     * @param planned trace of planning of the query, or {@code null} if it was not traced
+     */
+    public static MultiCloudTrace start(DataContext root, MultiCloudTrace planned) {
+        if (!IS_ENABLED) {
+            return null;
+        }
+        MultiCloudTrace trace = planned != null && planned.continued() ? planned : new MultiCloudTrace();
+        RUNNING.put(root, trace);
+        return trace;
+    }
+
+    /**
+     * Returns the trace of the query executed in the given context, or {@code null} if it is not traced.
+     */
+    public static MultiCloudTrace of(DataContext root) {
+        return IS_ENABLED ? RUNNING.get(root) : null;
+    }
+
+    // only the first execution of a plan continues the trace of its planning
+    private synchronized boolean continued() {
+        boolean isContinued = !isExecuted;
+        isExecuted = true;
+        return isContinued;
+    }
+
+    public static void addListener(Consumer<MultiCloudTrace> listener) {
+        LISTENERS.add(listener);
+    }
+
+    public static void removeListener(Consumer<MultiCloudTrace> listener) {
+        LISTENERS.remove(listener);
+    }
+
+    public synchronized void addPhase(MultiCloudMetrics.Phase phase, long nanos) {
+        phases.merge(phase, nanos, Long::sum);
+    }
+
+    public synchronized void setPlan(RelNode rel) {
+        plan = RelOptUtil.toString(rel);
+    }
+
+    public synchronized void addFragment(String provider, String sql, long rowCount, long byteCount,
+                                         long latencyNanos, long fetchNanos, boolean failed) {
+        fragments.add(new Fragment(provider, sql, rowCount, byteCount, latencyNanos, fetchNanos, failed));
+    }
+
+    /**
+     * Finishes the trace of the query executed in the given context and hands it over to the listeners.
+     */
+    public void finish(DataContext root, long rowCount, long executionNanos, boolean failed) {
+        RUNNING.remove(root);
+        synchronized (this) {
+            this.rowCount = rowCount;
+            this.executionNanos = executionNanos;
+            this.failed = failed;
+        }
+        for (Consumer<MultiCloudTrace> listener : LISTENERS) {
+            try {
+                listener.accept(this);
+            } catch (RuntimeException e) {
+                logger.warn("Trace listener failed", e);
+            }
+        }
+    }
+
+    public synchronized Map<MultiCloudMetrics.Phase, Long> getPhaseNanos() {
+        return new EnumMap<>(phases);
+    }
+
+    /**
+     * Returns the optimized plan, or {@code null} if the plan was cached.
+     */
+    public synchronized String getPlan() {
+        return plan;
+    }
+
+    public synchronized List<Fragment> getFragments() {
+        return new ArrayList<>(fragments);
+    }
+
+    public synchronized long getRowCount() {
+        return rowCount;
+    }
+
+    public synchronized long getExecutionNanos() {
+        return executionNanos;
+    }
+
+    public synchronized boolean isFailed() {
+        return failed;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder("Query ").append(failed ? "failed" : "returned " + rowCount + " rows")
+                .append(" in ").append(millis(executionNanos));
+        if (plan == null) {
+            sb.append(", plan cached");
+        } else {
+            for (Map.Entry<MultiCloudMetrics.Phase, Long> phase : phases.entrySet()) {
+                sb.append(", ").append(phase.getKey().getMetricName()).append(' ').append(millis(phase.getValue()));
+            }
+            sb.append('\n').append(plan.trim());
+        }
+        for (Fragment fragment : fragments) {
+            sb.append("\n  ").append(fragment);
+        }
+        return sb.toString();
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.3f ms", nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    /**
+     * A fragment fetched from a provider.
+     */
+    public static final class Fragment {
+        private static final int MAX_SQL_LENGTH = 200;
+
+        private final String provider;
+        private final String sql;
+        private final long rowCount;
+        private final long byteCount;
+        private final long latencyNanos;
+        private final long fetchNanos;
+        private final boolean failed;
+
+        Fragment(String provider, String sql, long rowCount, long byteCount,
+                 long latencyNanos, long fetchNanos, boolean failed) {
+            this.provider = provider;
+            this.sql = sql;
+            this.rowCount = rowCount;
+            this.byteCount = byteCount;
+            this.latencyNanos = latencyNanos;
+            this.fetchNanos = fetchNanos;
+            this.failed = failed;
+        }
+
+        public String getProvider() {
+            return provider;
+        }
+
+        public String getSql() {
+            return sql;
+        }
+
+        public long getRowCount() {
+            return rowCount;
+        }
+
+        public long getByteCount() {
+            return byteCount;
+        }
+
+        public long getLatencyNanos() {
+            return latencyNanos;
+        }
+
+        public long getFetchNanos() {
+            return fetchNanos;
+        }
+
+        public boolean isFailed() {
+            return failed;
+        }
+
+        @Override
+        public String toString() {
+            return (failed ? "failed after " : rowCount + " rows, " + byteCount + " bytes, latency "
+                    + millis(latencyNanos) + ", fetched in ") + millis(fetchNanos) + ": " + abbreviate(sql);
+        }
+
+        // lookups repeat a condition for every key of a chunk
+        private static String abbreviate(String sql) {
+            String line = sql.replaceAll("\\s+", " ");
+            return line.length() <= MAX_SQL_LENGTH ? line : line.substring(0, MAX_SQL_LENGTH) + "...";
+        }
+    }
+}
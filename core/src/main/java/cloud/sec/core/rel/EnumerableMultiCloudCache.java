@@ -0,0 +1,115 @@
+package cloud.sec.core.rel;
+
+import cloud.sec.core.adapter.jdbc.MultiCloudJdbcFragments;
+import cloud.sec.core.runtime.MultiCloudFragmentCache;
+import com.google.common.collect.ImmutableList;
+import org.apache.calcite.DataContext;
+import org.apache.calcite.adapter.enumerable.EnumerableConvention;
+import org.apache.calcite.adapter.enumerable.EnumerableRel;
+import org.apache.calcite.adapter.enumerable.EnumerableRelImplementor;
+import org.apache.calcite.adapter.jdbc.JdbcTableScan;
+import org.apache.calcite.linq4j.tree.BlockBuilder;
+import org.apache.calcite.linq4j.tree.Expression;
+import org.apache.calcite.linq4j.tree.Expressions;
+import org.apache.calcite.plan.RelOptCost;
+import org.apache.calcite.plan.RelOptPlanner;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.RelWriter;
+import org.apache.calcite.rel.SingleRel;
+import org.apache.calcite.rel.core.TableModify;
+import org.apache.calcite.rel.core.TableScan;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Relational expression in {@link EnumerableConvention enumerable calling convention} that reads rows of a remote
+ * fragment through {@link MultiCloudFragmentCache}, or invalidates cached rows of the tables modified by its input.
+ * <p>
+ * It is placed on top of fragments executed by their providers, and of modifications, once the query is optimized.
+ * Its input is read as it is whenever the rows are not cached.
+ */
+public class EnumerableMultiCloudCache extends SingleRel implements EnumerableRel {
+    private final boolean isModify;
+    private final ImmutableList<String> tables;
+
+    private EnumerableMultiCloudCache(RelNode input, boolean isModify, List<String> tables) {
+        super(input.getCluster(), input.getTraitSet(), input);
+        this.isModify = isModify;
+        this.tables = ImmutableList.copyOf(tables);
+    }
+
+    /**
+     * Creates a cache of the rows of a remote fragment, or an invalidation of the tables modified by its input.
+     */
+    public static EnumerableMultiCloudCache create(RelNode input) {
+        Set<String> tables = new LinkedHashSet<>();
+        boolean isModify = tables(input, tables);
+        return new EnumerableMultiCloudCache(input, isModify, new ArrayList<>(tables));
+    }
+
+    /**
+     * Collects the tables read or modified by the expression, as identified by their providers and their names in
+     * the providers, and returns whether it modifies any of them. Rows of a fragmented table are only read from
+     * its fragments, so a modification of the table invalidates rows of the fragments it writes.
+     */
+    private static boolean tables(RelNode rel, Set<String> tables) {
+        boolean isModify = false;
+        if (rel instanceof MultiCloudTableModify) {
+            for (JdbcTableScan target : ((MultiCloudTableModify) rel).getTargets()) {
+                tables.add(MultiCloudJdbcFragments.identity(target.getTable()));
+            }
+            isModify = true;
+        } else if (rel instanceof TableModify || rel instanceof TableScan) {
+            tables.add(MultiCloudJdbcFragments.identity(rel.getTable()));
+            isModify = rel instanceof TableModify;
+        }
+
+        for (RelNode input : rel.getInputs()) {
+            isModify |= tables(input, tables);
+        }
+        return isModify;
+    }
+
+    @Override
+    public RelNode copy(RelTraitSet traitSet, List<RelNode> inputs) {
+        return new EnumerableMultiCloudCache(sole(inputs), isModify, tables);
+    }
+
+    @Override
+    public RelOptCost computeSelfCost(RelOptPlanner planner, RelMetadataQuery mq) {
+        return planner.getCostFactory().makeTinyCost();
+    }
+
+    @Override
+    public RelWriter explainTerms(RelWriter pw) {
+        return super.explainTerms(pw)
+                .item("tables", tables)
+                .itemIf("modify", true, isModify);
+    }
+
+    @Override
+    public Result implement(EnumerableRelImplementor implementor, Prefer pref) {
+        BlockBuilder builder = new BlockBuilder();
+        Result result = implementor.visitChild(this, 0, (EnumerableRel) getInput(), pref);
+        Expression rows = builder.append("rows", result.block);
+
+        Expression tableNames = Expressions.constant(tables.toArray(new String[0]));
+        if (isModify) {
+            builder.add(Expressions.call(MultiCloudFragmentCache.class, "invalidating", rows, tableNames));
+        } else {
+            builder.add(
+                    Expressions.call(MultiCloudFragmentCache.class, "cached",
+                            rows,
+                            Expressions.constant(MultiCloudJdbcFragments.sql(getInput())),
+                            tableNames,
+                            DataContext.ROOT,
+                            Expressions.constant(MultiCloudJdbcFragments.nextParameter(getInput()))));
+        }
+        return implementor.result(result.physType, builder.toBlock());
+    }
+}
@@ -0,0 +1,98 @@
+package cloud.sec.core.rel;
+
+import cloud.sec.core.adapter.jdbc.MultiCloudJdbcFragments;
+import cloud.sec.core.metrics.MultiCloudMetrics;
+import cloud.sec.core.metrics.MultiCloudTrace;
+import cloud.sec.core.runtime.MultiCloudMeters;
+import org.apache.calcite.DataContext;
+import org.apache.calcite.adapter.enumerable.EnumerableConvention;
+import org.apache.calcite.adapter.enumerable.EnumerableRel;
+import org.apache.calcite.adapter.enumerable.EnumerableRelImplementor;
+import org.apache.calcite.linq4j.tree.BlockBuilder;
+import org.apache.calcite.linq4j.tree.Expression;
+import org.apache.calcite.linq4j.tree.Expressions;
+import org.apache.calcite.plan.RelOptCost;
+import org.apache.calcite.plan.RelOptPlanner;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.RelWriter;
+import org.apache.calcite.rel.SingleRel;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+
+import java.util.List;
+
+/**
+ * Relational expression in {@link EnumerableConvention enumerable calling convention} that passes rows of its input
+ * through {@link MultiCloudMeters} into {@link MultiCloudMetrics}.
+ * <p>
+ * It is placed on top of fragments executed by their providers, and of the whole query, once the query is optimized.
+ */
+public class EnumerableMultiCloudMeter extends SingleRel implements EnumerableRel {
+    private final String provider;
+    private final MultiCloudTrace trace;
+
+    private EnumerableMultiCloudMeter(RelNode input, String provider, MultiCloudTrace trace) {
+        super(input.getCluster(), input.getTraitSet(), input);
+        this.provider = provider;
+        this.trace = trace;
+    }
+
+    /**
+     * Creates a meter of a remote fragment, which is fetched from its provider.
+     */
+    public static EnumerableMultiCloudMeter fragment(RelNode input) {
+        return new EnumerableMultiCloudMeter(input, MultiCloudJdbcFragments.provider(input), null);
+    }
+
+    /**
+     * Creates a meter of the whole query.
+     */
+    public static EnumerableMultiCloudMeter query(RelNode input) {
+        return new EnumerableMultiCloudMeter(input, null, null);
+    }
+
+    /**
+     * Returns the meter of the whole query, which continues the given trace of its planning once it is executed.
+     * Plans may be cached, so the trace is set on the meter of the plan of a single statement.
+     */
+    public EnumerableMultiCloudMeter traced(MultiCloudTrace trace) {
+        return new EnumerableMultiCloudMeter(getInput(), provider, trace);
+    }
+
+    @Override
+    public RelNode copy(RelTraitSet traitSet, List<RelNode> inputs) {
+        return new EnumerableMultiCloudMeter(sole(inputs), provider, trace);
+    }
+
+    @Override
+    public RelOptCost computeSelfCost(RelOptPlanner planner, RelMetadataQuery mq) {
+        return planner.getCostFactory().makeTinyCost();
+    }
+
+    @Override
+    public RelWriter explainTerms(RelWriter pw) {
+        return super.explainTerms(pw)
+                .item("meter", provider == null ? "query" : provider);
+    }
+
+    @Override
+    public Result implement(EnumerableRelImplementor implementor, Prefer pref) {
+        BlockBuilder builder = new BlockBuilder();
+        Result result = implementor.visitChild(this, 0, (EnumerableRel) getInput(), pref);
+        Expression rows = builder.append("rows", result.block);
+
+        if (provider == null) {
+            builder.add(Expressions.call(MultiCloudMeters.class, "executed", rows, DataContext.ROOT,
+                    trace == null ? Expressions.constant(null, MultiCloudTrace.class)
+                            : implementor.stash(trace, MultiCloudTrace.class)));
+        } else {
+            builder.add(
+                    Expressions.call(MultiCloudMeters.class, "fetched",
+                            rows,
+                            Expressions.constant(provider),
+                            Expressions.constant(MultiCloudJdbcFragments.sql(getInput())),
+                            DataContext.ROOT));
+        }
+        return implementor.result(result.physType, builder.toBlock());
+    }
+}
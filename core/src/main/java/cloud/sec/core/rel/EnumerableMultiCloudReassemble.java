@@ -0,0 +1,146 @@
+package cloud.sec.core.rel;
+
+import cloud.sec.core.adapter.jdbc.MultiCloudJdbcFragments;
+import cloud.sec.core.catalog.MultiCloudTable;
+import cloud.sec.core.metrics.MultiCloudMetrics;
+import cloud.sec.core.runtime.MultiCloudEnumerables;
+import org.apache.calcite.DataContext;
+import org.apache.calcite.adapter.enumerable.*;
+import org.apache.calcite.linq4j.Enumerable;
+import org.apache.calcite.linq4j.Ord;
+import org.apache.calcite.linq4j.function.Function1;
+import org.apache.calcite.linq4j.tree.BlockBuilder;
+import org.apache.calcite.linq4j.tree.Expression;
+import org.apache.calcite.linq4j.tree.Expressions;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.RelFactories;
+import org.apache.calcite.tools.RelBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Implementation of {@link MultiCloudReassemble} in {@link EnumerableConvention enumerable calling convention}.
+ * Fragments are fetched concurrently by {@link MultiCloudEnumerables}.
+ */
+public class EnumerableMultiCloudReassemble extends MultiCloudReassemble implements EnumerableRel {
+
+    public EnumerableMultiCloudReassemble(RelOptCluster cluster, RelTraitSet traitSet, List<RelNode> inputs,
+                                          List<Integer> keys, MultiCloudTable.Reassembly reassembly, int driver,
+                                          int pointRows) {
+        super(cluster, traitSet, inputs, keys, reassembly, driver, pointRows);
+    }
+
+    @Override
+    public RelNode copy(RelTraitSet traitSet, List<RelNode> inputs) {
+        return new EnumerableMultiCloudReassemble(getCluster(), traitSet, inputs, keys, reassembly, driver,
+                pointRows);
+    }
+
+    @Override
+    public Result implement(EnumerableRelImplementor implementor, Prefer pref) {
+        if (driver >= 0 && canLookup()) {
+            return implementLookup(implementor);
+        }
+
+        BlockBuilder builder = new BlockBuilder();
+
+        // every fragment is handed over as rows of arrays
+        List<Expression> fragments = new ArrayList<>();
+        for (Ord<RelNode> input : Ord.zip(inputs)) {
+            fragments.add(implementFragment(implementor, builder, input.i, input.e));
+        }
+
+        // fragments of a lookup are not sorted, so they can only be hashed, within the memory budget of the connection
+        if (reassembly == MultiCloudTable.Reassembly.MERGE && driver < 0) {
+            builder.add(
+                    Expressions.call(MultiCloudEnumerables.class, "merge",
+                            Expressions.newArrayInit(Enumerable.class, fragments),
+                            Expressions.constant(keys.toIntArray())));
+        } else {
+            builder.add(
+                    Expressions.call(MultiCloudEnumerables.class, "hash",
+                            Expressions.newArrayInit(Enumerable.class, fragments),
+                            Expressions.constant(keys.toIntArray()),
+                            DataContext.ROOT));
+        }
+
+        return implementor.result(physType(implementor), builder.toBlock());
+    }
+
+    private boolean canLookup() {
+        for (int i = 0; i < inputs.size(); i++) {
+            if (i != driver && !MultiCloudJdbcFragments.isRemote(inputs.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the driver, while other fragments are looked up by chunks of its keys passed as dynamic parameters.
+     * Parameters of the lookups follow the ones of the query, and are set by {@link MultiCloudEnumerables}.
+     * A driver filtered by points of a unique field, such as {@code id IN (1, 2, 3)}, returns at most as many rows
+     * as there are points, so its keys are looked up at once by as many parameters.
+     */
+    private Result implementLookup(EnumerableRelImplementor implementor) {
+        BlockBuilder builder = new BlockBuilder();
+        RelBuilder relBuilder = RelFactories.LOGICAL_BUILDER.create(getCluster(), null);
+
+        int firstParameter = 0;
+        for (RelNode input : inputs) {
+            firstParameter = Math.max(firstParameter, MultiCloudJdbcFragments.nextParameter(input));
+        }
+        int keyCount = pointRows > 0 ? Math.min(pointRows, MultiCloudEnumerables.LOOKUP_KEYS)
+                : MultiCloudEnumerables.LOOKUP_KEYS;
+
+        Expression driverRows = null;
+        List<Expression> lookups = new ArrayList<>();
+        for (Ord<RelNode> input : Ord.zip(inputs)) {
+            if (input.i == driver) {
+                driverRows = implementFragment(implementor, builder, input.i, input.e);
+                lookups.add(Expressions.constant(null, Function1.class));
+            } else {
+                RelNode lookup = MultiCloudJdbcFragments.lookup(input.e, keys.get(input.i),
+                        firstParameter, keyCount, relBuilder);
+                if (MultiCloudMetrics.INSTANCE.isEnabled()) {
+                    lookup = EnumerableMultiCloudMeter.fragment(lookup);
+                }
+
+                // the lookup is run for every chunk of keys, with parameters set in its own context
+                BlockBuilder lookupBuilder = new BlockBuilder();
+                lookupBuilder.add(Expressions.return_(null,
+                        implementFragment(implementor, lookupBuilder, input.i, lookup)));
+                lookups.add(builder.append("lookup" + input.i,
+                        Expressions.lambda(Function1.class, lookupBuilder.toBlock(), DataContext.ROOT)));
+            }
+        }
+
+        builder.add(
+                Expressions.call(MultiCloudEnumerables.class, "lookup",
+                        driverRows,
+                        Expressions.constant(driver),
+                        Expressions.newArrayInit(Function1.class, lookups),
+                        Expressions.constant(keys.toIntArray()),
+                        Expressions.constant(firstParameter),
+                        Expressions.constant(keyCount),
+                        DataContext.ROOT));
+
+        return implementor.result(physType(implementor), builder.toBlock());
+    }
+
+    private Expression implementFragment(EnumerableRelImplementor implementor, BlockBuilder builder,
+                                         int ordinal, RelNode input) {
+        // lookups are not inputs of this, so they are implemented without a parent
+        Result result = implementor.visitChild(inputs.get(ordinal) == input ? this : null, ordinal,
+                (EnumerableRel) input, Prefer.ARRAY);
+        Expression fragment = builder.append("fragment" + ordinal, result.block);
+        return builder.append("fragmentRows" + ordinal, result.physType.convertTo(fragment, JavaRowFormat.ARRAY));
+    }
+
+    private PhysType physType(EnumerableRelImplementor implementor) {
+        return PhysTypeImpl.of(implementor.getTypeFactory(), getRowType(), JavaRowFormat.ARRAY, false);
+    }
+}
@@ -0,0 +1,37 @@
+package cloud.sec.core.rel;
+
+import org.apache.calcite.adapter.enumerable.EnumerableConvention;
+import org.apache.calcite.plan.Convention;
+import org.apache.calcite.plan.RelOptRule;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.convert.ConverterRule;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rule to convert a {@link LogicalMultiCloudReassemble} to an {@link EnumerableMultiCloudReassemble}.
+ */
+public class EnumerableMultiCloudReassembleRule extends ConverterRule {
+    public static final EnumerableMultiCloudReassembleRule INSTANCE = new EnumerableMultiCloudReassembleRule();
+
+    private EnumerableMultiCloudReassembleRule() {
+        super(LogicalMultiCloudReassemble.class, Convention.NONE, EnumerableConvention.INSTANCE,
+                EnumerableMultiCloudReassembleRule.class.getSimpleName());
+    }
+
+    @Override
+    public RelNode convert(RelNode rel) {
+        LogicalMultiCloudReassemble reassemble = (LogicalMultiCloudReassemble) rel;
+
+        List<RelNode> inputs = new ArrayList<>();
+        for (RelNode input : reassemble.getInputs()) {
+            inputs.add(RelOptRule.convert(input, input.getTraitSet().replace(EnumerableConvention.INSTANCE)));
+        }
+
+        return new EnumerableMultiCloudReassemble(rel.getCluster(),
+                reassemble.getTraitSet().replace(EnumerableConvention.INSTANCE),
+                inputs, reassemble.getKeys(), reassemble.getReassembly(), reassemble.getDriver(),
+                reassemble.getPointRows());
+    }
+}
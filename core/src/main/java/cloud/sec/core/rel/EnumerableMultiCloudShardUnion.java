@@ -0,0 +1,55 @@
+package cloud.sec.core.rel;
+
+import cloud.sec.core.catalog.MultiCloudTable;
+import cloud.sec.core.runtime.MultiCloudEnumerables;
+import org.apache.calcite.adapter.enumerable.*;
+import org.apache.calcite.linq4j.Enumerable;
+import org.apache.calcite.linq4j.Ord;
+import org.apache.calcite.linq4j.tree.BlockBuilder;
+import org.apache.calcite.linq4j.tree.Expression;
+import org.apache.calcite.linq4j.tree.Expressions;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.SetOp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Implementation of {@link MultiCloudShardUnion} in {@link EnumerableConvention enumerable calling convention}.
+ * Shards are read concurrently by {@link MultiCloudEnumerables}.
+ */
+public class EnumerableMultiCloudShardUnion extends MultiCloudShardUnion implements EnumerableRel {
+
+    public EnumerableMultiCloudShardUnion(RelOptCluster cluster, RelTraitSet traitSet, List<RelNode> inputs,
+                                          MultiCloudTable table, List<Integer> shards) {
+        super(cluster, traitSet, inputs, table, shards);
+    }
+
+    @Override
+    public SetOp copy(RelTraitSet traitSet, List<RelNode> inputs, boolean all) {
+        return new EnumerableMultiCloudShardUnion(getCluster(), traitSet, inputs, table, shards);
+    }
+
+    @Override
+    public Result implement(EnumerableRelImplementor implementor, Prefer pref) {
+        BlockBuilder builder = new BlockBuilder();
+
+        // every shard is handed over as rows of arrays
+        List<Expression> shardRows = new ArrayList<>();
+        for (Ord<RelNode> input : Ord.zip(inputs)) {
+            Result result = implementor.visitChild(this, input.i, (EnumerableRel) input.e, Prefer.ARRAY);
+            Expression shard = builder.append("shard" + input.i, result.block);
+            shardRows.add(builder.append("shardRows" + input.i,
+                    result.physType.convertTo(shard, JavaRowFormat.ARRAY)));
+        }
+
+        builder.add(
+                Expressions.call(MultiCloudEnumerables.class, "union",
+                        Expressions.newArrayInit(Enumerable.class, shardRows)));
+
+        PhysType physType = PhysTypeImpl.of(implementor.getTypeFactory(), getRowType(), JavaRowFormat.ARRAY, false);
+        return implementor.result(physType, builder.toBlock());
+    }
+}
@@ -0,0 +1,36 @@
+package cloud.sec.core.rel;
+
+import org.apache.calcite.adapter.enumerable.EnumerableConvention;
+import org.apache.calcite.plan.Convention;
+import org.apache.calcite.plan.RelOptRule;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.convert.ConverterRule;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rule to convert a {@link LogicalMultiCloudShardUnion} to an {@link EnumerableMultiCloudShardUnion}.
+ */
+public class EnumerableMultiCloudShardUnionRule extends ConverterRule {
+    public static final EnumerableMultiCloudShardUnionRule INSTANCE = new EnumerableMultiCloudShardUnionRule();
+
+    private EnumerableMultiCloudShardUnionRule() {
+        super(LogicalMultiCloudShardUnion.class, Convention.NONE, EnumerableConvention.INSTANCE,
+                EnumerableMultiCloudShardUnionRule.class.getSimpleName());
+    }
+
+    @Override
+    public RelNode convert(RelNode rel) {
+        LogicalMultiCloudShardUnion union = (LogicalMultiCloudShardUnion) rel;
+
+        List<RelNode> inputs = new ArrayList<>();
+        for (RelNode input : union.getInputs()) {
+            inputs.add(RelOptRule.convert(input, input.getTraitSet().replace(EnumerableConvention.INSTANCE)));
+        }
+
+        return new EnumerableMultiCloudShardUnion(rel.getCluster(),
+                union.getTraitSet().replace(EnumerableConvention.INSTANCE),
+                inputs, union.getMultiCloudTable(), union.getShards());
+    }
+}
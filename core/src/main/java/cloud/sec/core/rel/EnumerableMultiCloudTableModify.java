@@ -0,0 +1,129 @@
+package cloud.sec.core.rel;
+
+import cloud.sec.core.adapter.jdbc.MultiCloudJdbcFragments;
+import cloud.sec.core.catalog.MultiCloudFragment;
+import cloud.sec.core.catalog.MultiCloudTable;
+import cloud.sec.core.runtime.MultiCloudWrites;
+import org.apache.calcite.adapter.enumerable.*;
+import org.apache.calcite.adapter.jdbc.JdbcTableScan;
+import org.apache.calcite.linq4j.tree.BlockBuilder;
+import org.apache.calcite.linq4j.tree.Expression;
+import org.apache.calcite.linq4j.tree.Expressions;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.TableModify;
+import org.apache.calcite.util.ImmutableIntList;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Implementation of {@link MultiCloudTableModify} in {@link EnumerableConvention enumerable calling convention}.
+ * Fragments are written concurrently and in batches by {@link MultiCloudWrites}.
+ */
+public class EnumerableMultiCloudTableModify extends MultiCloudTableModify implements EnumerableRel {
+
+    public EnumerableMultiCloudTableModify(RelOptCluster cluster, RelTraitSet traitSet, RelNode input,
+                                           MultiCloudTable table, TableModify.Operation operation,
+                                           List<String> updateColumnList, List<JdbcTableScan> targets) {
+        super(cluster, traitSet, input, table, operation, updateColumnList, targets);
+    }
+
+    @Override
+    public RelNode copy(RelTraitSet traitSet, List<RelNode> inputs) {
+        return new EnumerableMultiCloudTableModify(getCluster(), traitSet, sole(inputs), table, operation,
+                updateColumnList, targets);
+    }
+
+    @Override
+    public Result implement(EnumerableRelImplementor implementor, Prefer pref) {
+        BlockBuilder builder = new BlockBuilder();
+        Result result = implementor.visitChild(this, 0, (EnumerableRel) getInput(), Prefer.ARRAY);
+        Expression input = builder.append("input", result.block);
+        Expression rows = builder.append("inputRows", result.physType.convertTo(input, JavaRowFormat.ARRAY));
+
+        List<String> fieldNames = getInput().getRowType().getFieldNames();
+        String key = table.getKey();
+
+        List<Expression> dataSources = new ArrayList<>();
+        List<String> sqls = new ArrayList<>();
+        List<int[]> parameters = new ArrayList<>();
+        List<String> maxKeySqls = new ArrayList<>();
+        List<Integer> shards = new ArrayList<>();
+        for (int i = 0; i < targets.size(); i++) {
+            MultiCloudFragment fragment = table.getFragments().get(i);
+            JdbcTableScan target = targets.get(i);
+
+            List<String> columns = new ArrayList<>();
+            List<Integer> fields = new ArrayList<>();
+            switch (operation) {
+            case INSERT:
+                // the generated key follows fields of the logical table
+                columns.add(key);
+                fields.add(fieldNames.size());
+                for (String field : fragment.getFields()) {
+                    columns.add(field);
+                    fields.add(fieldNames.indexOf(field));
+                }
+                sqls.add(MultiCloudJdbcFragments.insertSql(target, columns));
+                maxKeySqls.add(MultiCloudJdbcFragments.maxKeySql(target, key));
+                break;
+            case UPDATE:
+                for (int j = 0; j < updateColumnList.size(); j++) {
+                    if (fragment.getFields().contains(updateColumnList.get(j))) {
+                        columns.add(updateColumnList.get(j));
+                        fields.add(j + 1);
+                    }
+                }
+                if (columns.isEmpty()) {
+                    continue; // nothing to update in this fragment
+                }
+                fields.add(0);
+                sqls.add(MultiCloudJdbcFragments.updateSql(target, columns, key));
+                break;
+            default:
+                fields.add(0);
+                sqls.add(MultiCloudJdbcFragments.deleteSql(target, key));
+            }
+
+            dataSources.add(MultiCloudJdbcFragments.dataSource(target));
+            shards.add(table.getShard(fragment));
+            int[] fieldArray = new int[fields.size()];
+            for (int j = 0; j < fieldArray.length; j++) {
+                fieldArray[j] = fields.get(j);
+            }
+            parameters.add(fieldArray);
+        }
+
+        boolean isInsert = operation == TableModify.Operation.INSERT;
+        List<Expression> arguments = new ArrayList<>(Arrays.asList(
+                rows,
+                Expressions.newArrayInit(DataSource.class, dataSources),
+                Expressions.constant(sqls.toArray(new String[0])),
+                Expressions.constant(parameters.toArray(new int[0][])),
+                Expressions.constant(isInsert ? String.join(".", table.getQualifiedName()) : null, String.class),
+                Expressions.constant(isInsert ? MultiCloudJdbcFragments.siblingName(targets.get(0),
+                        MultiCloudWrites.KEYS_TABLE) : null, String.class),
+                Expressions.constant(isInsert ? maxKeySqls.toArray(new String[0]) : null, String[].class)));
+
+        // inserted rows go to their shard, while updated and deleted keys are looked for in every shard
+        if (isInsert && table.isSharded()) {
+            int shardKey = table.getShardKey().equals(key)
+                    ? fieldNames.size() : fieldNames.indexOf(table.getShardKey());
+            if (shardKey < 0) {
+                throw new IllegalStateException("Shard key " + table.getShardKey() + " is not a field of " + table);
+            }
+            arguments.add(Expressions.constant(ImmutableIntList.copyOf(shards).toIntArray()));
+            arguments.add(Expressions.constant(shardKey));
+            arguments.add(Expressions.constant(table.getSharding()));
+            arguments.add(Expressions.constant(table.getUpperBounds()));
+        }
+        builder.add(Expressions.call(MultiCloudWrites.class, "write", arguments));
+
+        PhysType physType = PhysTypeImpl.of(implementor.getTypeFactory(), getRowType(), JavaRowFormat.SCALAR);
+        return implementor.result(physType, builder.toBlock());
+    }
+}
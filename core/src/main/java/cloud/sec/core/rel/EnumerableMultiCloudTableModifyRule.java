@@ -0,0 +1,30 @@
+package cloud.sec.core.rel;
+
+import org.apache.calcite.adapter.enumerable.EnumerableConvention;
+import org.apache.calcite.plan.Convention;
+import org.apache.calcite.plan.RelOptRule;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.convert.ConverterRule;
+
+/**
+ * Rule to convert a {@link LogicalMultiCloudTableModify} to an {@link EnumerableMultiCloudTableModify}.
+ */
+public class EnumerableMultiCloudTableModifyRule extends ConverterRule {
+    public static final EnumerableMultiCloudTableModifyRule INSTANCE = new EnumerableMultiCloudTableModifyRule();
+
+    private EnumerableMultiCloudTableModifyRule() {
+        super(LogicalMultiCloudTableModify.class, Convention.NONE, EnumerableConvention.INSTANCE,
+                EnumerableMultiCloudTableModifyRule.class.getSimpleName());
+    }
+
+    @Override
+    public RelNode convert(RelNode rel) {
+        LogicalMultiCloudTableModify modify = (LogicalMultiCloudTableModify) rel;
+        RelNode input = modify.getInput();
+
+        return new EnumerableMultiCloudTableModify(rel.getCluster(),
+                modify.getTraitSet().replace(EnumerableConvention.INSTANCE),
+                RelOptRule.convert(input, input.getTraitSet().replace(EnumerableConvention.INSTANCE)),
+                modify.getMultiCloudTable(), modify.getOperation(), modify.getUpdateColumnList(), modify.getTargets());
+    }
+}
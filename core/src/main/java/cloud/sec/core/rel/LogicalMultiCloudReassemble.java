@@ -0,0 +1,52 @@
+package cloud.sec.core.rel;
+
+import cloud.sec.core.catalog.MultiCloudTable;
+import org.apache.calcite.plan.Convention;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelOptPlanner;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rel.RelNode;
+
+import java.util.List;
+
+/**
+ * Sub-class of {@link MultiCloudReassemble} not targeted at any particular engine or calling convention.
+ */
+public final class LogicalMultiCloudReassemble extends MultiCloudReassemble {
+
+    public LogicalMultiCloudReassemble(RelOptCluster cluster, RelTraitSet traitSet, List<RelNode> inputs,
+                                       List<Integer> keys, MultiCloudTable.Reassembly reassembly, int driver,
+                                       int pointRows) {
+        super(cluster, traitSet, inputs, keys, reassembly, driver, pointRows);
+    }
+
+    /**
+     * Creates a LogicalMultiCloudReassemble.
+     */
+    public static LogicalMultiCloudReassemble create(List<RelNode> inputs, List<Integer> keys,
+                                                     MultiCloudTable.Reassembly reassembly) {
+        return create(inputs, keys, reassembly, -1, -1);
+    }
+
+    /**
+     * Creates a LogicalMultiCloudReassemble which looks up other inputs by keys of the driver, which returns at most
+     * the given number of rows if it is filtered by points of a unique field, or any number if it is -1.
+     */
+    public static LogicalMultiCloudReassemble create(List<RelNode> inputs, List<Integer> keys,
+                                                     MultiCloudTable.Reassembly reassembly, int driver,
+                                                     int pointRows) {
+        RelOptCluster cluster = inputs.get(0).getCluster();
+        return new LogicalMultiCloudReassemble(cluster, cluster.traitSetOf(Convention.NONE), inputs, keys,
+                reassembly, driver, pointRows);
+    }
+
+    @Override
+    public RelNode copy(RelTraitSet traitSet, List<RelNode> inputs) {
+        return new LogicalMultiCloudReassemble(getCluster(), traitSet, inputs, keys, reassembly, driver, pointRows);
+    }
+
+    @Override
+    public void register(RelOptPlanner planner) {
+        planner.addRule(EnumerableMultiCloudReassembleRule.INSTANCE);
+    }
+}
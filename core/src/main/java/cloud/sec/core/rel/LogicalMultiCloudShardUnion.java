@@ -0,0 +1,41 @@
+package cloud.sec.core.rel;
+
+import cloud.sec.core.catalog.MultiCloudTable;
+import org.apache.calcite.plan.Convention;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelOptPlanner;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.SetOp;
+
+import java.util.List;
+
+/**
+ * Sub-class of {@link MultiCloudShardUnion} not targeted at any particular engine or calling convention.
+ */
+public final class LogicalMultiCloudShardUnion extends MultiCloudShardUnion {
+
+    public LogicalMultiCloudShardUnion(RelOptCluster cluster, RelTraitSet traitSet, List<RelNode> inputs,
+                                       MultiCloudTable table, List<Integer> shards) {
+        super(cluster, traitSet, inputs, table, shards);
+    }
+
+    /**
+     * Creates a LogicalMultiCloudShardUnion.
+     */
+    public static LogicalMultiCloudShardUnion create(List<RelNode> inputs, MultiCloudTable table,
+                                                     List<Integer> shards) {
+        RelOptCluster cluster = inputs.get(0).getCluster();
+        return new LogicalMultiCloudShardUnion(cluster, cluster.traitSetOf(Convention.NONE), inputs, table, shards);
+    }
+
+    @Override
+    public SetOp copy(RelTraitSet traitSet, List<RelNode> inputs, boolean all) {
+        return new LogicalMultiCloudShardUnion(getCluster(), traitSet, inputs, table, shards);
+    }
+
+    @Override
+    public void register(RelOptPlanner planner) {
+        planner.addRule(EnumerableMultiCloudShardUnionRule.INSTANCE);
+    }
+}
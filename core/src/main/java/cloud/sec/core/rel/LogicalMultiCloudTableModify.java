@@ -0,0 +1,47 @@
+package cloud.sec.core.rel;
+
+import cloud.sec.core.catalog.MultiCloudTable;
+import com.google.common.collect.Iterables;
+import org.apache.calcite.adapter.jdbc.JdbcTableScan;
+import org.apache.calcite.plan.Convention;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelOptPlanner;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.TableModify;
+
+import java.util.List;
+
+/**
+ * Sub-class of {@link MultiCloudTableModify} not targeted at any particular engine or calling convention.
+ */
+public final class LogicalMultiCloudTableModify extends MultiCloudTableModify {
+
+    public LogicalMultiCloudTableModify(RelOptCluster cluster, RelTraitSet traitSet, RelNode input,
+                                        MultiCloudTable table, TableModify.Operation operation,
+                                        List<String> updateColumnList, List<JdbcTableScan> targets) {
+        super(cluster, traitSet, input, table, operation, updateColumnList, targets);
+    }
+
+    /**
+     * Creates a LogicalMultiCloudTableModify.
+     */
+    public static LogicalMultiCloudTableModify create(RelNode input, MultiCloudTable table,
+                                                      TableModify.Operation operation, List<String> updateColumnList,
+                                                      List<JdbcTableScan> targets) {
+        RelOptCluster cluster = input.getCluster();
+        return new LogicalMultiCloudTableModify(cluster, cluster.traitSetOf(Convention.NONE), input, table,
+                operation, updateColumnList, targets);
+    }
+
+    @Override
+    public RelNode copy(RelTraitSet traitSet, List<RelNode> inputs) {
+        return new LogicalMultiCloudTableModify(getCluster(), traitSet, Iterables.getOnlyElement(inputs), table,
+                operation, updateColumnList, targets);
+    }
+
+    @Override
+    public void register(RelOptPlanner planner) {
+        planner.addRule(EnumerableMultiCloudTableModifyRule.INSTANCE);
+    }
+}
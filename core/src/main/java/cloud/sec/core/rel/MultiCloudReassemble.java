@@ -0,0 +1,147 @@
+package cloud.sec.core.rel;
+
+import cloud.sec.core.catalog.MultiCloudTable;
+import com.google.common.collect.ImmutableList;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelOptCost;
+import org.apache.calcite.plan.RelOptPlanner;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rel.AbstractRelNode;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.RelWriter;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeFactory;
+import org.apache.calcite.rel.type.RelDataTypeField;
+import org.apache.calcite.sql.validate.SqlValidatorUtil;
+import org.apache.calcite.util.ImmutableIntList;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Relational expression that joins fragments of a {@link MultiCloudTable} back into rows of the logical table.
+ * <p>
+ * Every input is a fragment which holds the key at the given position. Rows of all fragments with equal keys are
+ * joined into a single row, which consists of fields of all fragments in the order of inputs.
+ * <p>
+ * If there is a driver, only the driver is read as a whole. Other fragments are looked up by keys of its rows,
+ * which pays off when the driver is filtered down to a small part of the table. The most rows a driver filtered by
+ * points of a unique field returns are known once the query is planned, so they are kept by the plan, which is
+ * implemented without any metadata.
+ */
+public abstract class MultiCloudReassemble extends AbstractRelNode {
+    protected List<RelNode> inputs;
+    protected final ImmutableIntList keys;
+    protected final MultiCloudTable.Reassembly reassembly;
+    protected final int driver;
+    protected final int pointRows;
+
+    protected MultiCloudReassemble(RelOptCluster cluster, RelTraitSet traitSet, List<RelNode> inputs,
+                                   List<Integer> keys, MultiCloudTable.Reassembly reassembly, int driver,
+                                   int pointRows) {
+        super(cluster, traitSet);
+        this.inputs = ImmutableList.copyOf(inputs);
+        this.keys = ImmutableIntList.copyOf(keys);
+        this.reassembly = reassembly;
+        this.driver = driver;
+        this.pointRows = pointRows;
+
+        if (this.inputs.size() != this.keys.size()) {
+            throw new IllegalArgumentException("Every input needs a key");
+        }
+        if (driver < -1 || driver >= this.inputs.size()) {
+            throw new IllegalArgumentException("Invalid driver " + driver);
+        }
+    }
+
+    /**
+     * Returns position of the key in each input.
+     */
+    public ImmutableIntList getKeys() {
+        return keys;
+    }
+
+    public MultiCloudTable.Reassembly getReassembly() {
+        return reassembly;
+    }
+
+    /**
+     * Returns the input which drives lookups of other inputs, or -1 if all inputs are read as a whole.
+     */
+    public int getDriver() {
+        return driver;
+    }
+
+    /**
+     * Returns the most rows the driver returns, if it is filtered by points of a unique field, or -1 otherwise.
+     */
+    public int getPointRows() {
+        return pointRows;
+    }
+
+    @Override
+    public List<RelNode> getInputs() {
+        return inputs;
+    }
+
+    @Override
+    public void replaceInput(int ordinalInParent, RelNode p) {
+        List<RelNode> newInputs = new ArrayList<>(inputs);
+        newInputs.set(ordinalInParent, p);
+        inputs = ImmutableList.copyOf(newInputs);
+        recomputeDigest();
+    }
+
+    @Override
+    protected RelDataType deriveRowType() {
+        RelDataTypeFactory.Builder builder = getCluster().getTypeFactory().builder();
+        List<String> names = new ArrayList<>();
+        for (RelNode input : inputs) {
+            for (RelDataTypeField field : input.getRowType().getFieldList()) {
+                names.add(field.getName());
+                builder.add(field.getName(), field.getType());
+            }
+        }
+
+        // field names of different fragments have to be unique, just like in a join
+        List<String> uniqueNames = SqlValidatorUtil.uniquify(names, false);
+        RelDataTypeFactory.Builder uniqueBuilder = getCluster().getTypeFactory().builder();
+        List<RelDataTypeField> fields = builder.build().getFieldList();
+        for (int i = 0; i < fields.size(); i++) {
+            uniqueBuilder.add(uniqueNames.get(i), fields.get(i).getType());
+        }
+        return uniqueBuilder.build();
+    }
+
+    @Override
+    public double estimateRowCount(RelMetadataQuery mq) {
+        // keys are unique, so there are at most as many rows as in the smallest fragment
+        double rowCount = Double.MAX_VALUE;
+        for (RelNode input : inputs) {
+            rowCount = Math.min(rowCount, mq.getRowCount(input));
+        }
+        return rowCount;
+    }
+
+    @Override
+    public RelOptCost computeSelfCost(RelOptPlanner planner, RelMetadataQuery mq) {
+        double inputRowCount = 0;
+        for (RelNode input : inputs) {
+            inputRowCount += mq.getRowCount(input);
+        }
+        return planner.getCostFactory().makeCost(estimateRowCount(mq), inputRowCount, 0);
+    }
+
+    @Override
+    public RelWriter explainTerms(RelWriter pw) {
+        super.explainTerms(pw);
+        for (int i = 0; i < inputs.size(); i++) {
+            pw.input("input#" + i, inputs.get(i));
+        }
+        return pw.item("keys", keys)
+                .item("reassembly", reassembly)
+                .itemIf("driver", driver, driver >= 0)
+                .itemIf("pointRows", pointRows, pointRows >= 0);
+    }
+}
@@ -0,0 +1,51 @@
+package cloud.sec.core.rel;
+
+import cloud.sec.core.catalog.MultiCloudTable;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.RelWriter;
+import org.apache.calcite.rel.core.Union;
+import org.apache.calcite.util.ImmutableIntList;
+
+import java.util.List;
+
+/**
+ * Relational expression that returns rows of all shards of a sharded {@link MultiCloudTable}, i.e. a
+ * {@code UNION ALL} whose every input is a shard of the table, reassembled from its fragments.
+ * <p>
+ * Inputs know which shard they read, so shards which cannot hold rows matching a filter are left out.
+ */
+public abstract class MultiCloudShardUnion extends Union {
+    protected final MultiCloudTable table;
+    protected final ImmutableIntList shards;
+
+    protected MultiCloudShardUnion(RelOptCluster cluster, RelTraitSet traitSet, List<RelNode> inputs,
+                                   MultiCloudTable table, List<Integer> shards) {
+        super(cluster, traitSet, inputs, true);
+        this.table = table;
+        this.shards = ImmutableIntList.copyOf(shards);
+
+        if (this.inputs.size() != this.shards.size()) {
+            throw new IllegalArgumentException("Every input needs a shard");
+        }
+    }
+
+    public MultiCloudTable getMultiCloudTable() {
+        return table;
+    }
+
+    /**
+     * Returns position of the shard read by each input, among shards of the table.
+     */
+    public ImmutableIntList getShards() {
+        return shards;
+    }
+
+    @Override
+    public RelWriter explainTerms(RelWriter pw) {
+        return super.explainTerms(pw)
+                .item("table", table.getQualifiedName())
+                .item("shards", shards);
+    }
+}
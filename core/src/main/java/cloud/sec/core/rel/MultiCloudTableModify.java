@@ -0,0 +1,109 @@
+package cloud.sec.core.rel;
+
+import cloud.sec.core.catalog.MultiCloudTable;
+import com.google.common.collect.ImmutableList;
+import org.apache.calcite.adapter.jdbc.JdbcTableScan;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelOptCost;
+import org.apache.calcite.plan.RelOptPlanner;
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.RelWriter;
+import org.apache.calcite.rel.SingleRel;
+import org.apache.calcite.rel.core.TableModify;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.sql.SqlKind;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Relational expression that modifies a {@link MultiCloudTable} by writing each of its fragments.
+ * <p>
+ * The input holds rows of the logical table for {@link TableModify.Operation#INSERT INSERT}, so every row gets a new
+ * key and is split into all fragments. For {@link TableModify.Operation#UPDATE UPDATE} the input holds the key of
+ * each modified row followed by new values of the updated fields, and for {@link TableModify.Operation#DELETE DELETE}
+ * just the key, so fragments are modified by key.
+ * <p>
+ * Targets are scans of the fragments, in the order of {@link MultiCloudTable#getFragments()}, which tell where each
+ * fragment is stored. Rows inserted into a sharded table are only written into fragments of their shard, while
+ * updates and deletes are sent to every shard.
+ */
+public abstract class MultiCloudTableModify extends SingleRel {
+    protected final MultiCloudTable table;
+    protected final TableModify.Operation operation;
+    protected final ImmutableList<String> updateColumnList;
+    protected final ImmutableList<JdbcTableScan> targets;
+
+    protected MultiCloudTableModify(RelOptCluster cluster, RelTraitSet traitSet, RelNode input, MultiCloudTable table,
+                                    TableModify.Operation operation, List<String> updateColumnList,
+                                    List<JdbcTableScan> targets) {
+        super(cluster, traitSet, input);
+        this.table = table;
+        this.operation = operation;
+        this.updateColumnList = updateColumnList == null ? ImmutableList.of() : ImmutableList.copyOf(updateColumnList);
+        this.targets = ImmutableList.copyOf(targets);
+
+        if (operation != TableModify.Operation.INSERT && operation != TableModify.Operation.UPDATE
+                && operation != TableModify.Operation.DELETE) {
+            throw new IllegalArgumentException("Unsupported operation " + operation);
+        }
+        if (this.targets.size() != table.getFragments().size()) {
+            throw new IllegalArgumentException("Every fragment needs a target");
+        }
+    }
+
+    public MultiCloudTable getMultiCloudTable() {
+        return table;
+    }
+
+    public TableModify.Operation getOperation() {
+        return operation;
+    }
+
+    /**
+     * Returns fields set by UPDATE, in the order of their values in the input.
+     */
+    public List<String> getUpdateColumnList() {
+        return updateColumnList;
+    }
+
+    /**
+     * Returns scans of the fragments, which tell where each fragment is stored.
+     */
+    public List<JdbcTableScan> getTargets() {
+        return targets;
+    }
+
+    @Override
+    protected RelDataType deriveRowType() {
+        return RelOptUtil.createDmlRowType(SqlKind.INSERT, getCluster().getTypeFactory());
+    }
+
+    @Override
+    public double estimateRowCount(RelMetadataQuery mq) {
+        return 1;
+    }
+
+    @Override
+    public RelOptCost computeSelfCost(RelOptPlanner planner, RelMetadataQuery mq) {
+        // every input row is written to every fragment
+        double rowCount = mq.getRowCount(getInput());
+        return planner.getCostFactory().makeCost(rowCount, rowCount * targets.size(), 0);
+    }
+
+    @Override
+    public RelWriter explainTerms(RelWriter pw) {
+        List<List<String>> targetNames = new ArrayList<>();
+        for (JdbcTableScan target : targets) {
+            targetNames.add(target.getTable().getQualifiedName());
+        }
+        return super.explainTerms(pw)
+                .item("table", table.getQualifiedName())
+                .item("operation", operation)
+                .itemIf("updateColumnList", updateColumnList, operation == TableModify.Operation.UPDATE)
+                .item("targets", targetNames);
+    }
+}
@@ -0,0 +1,796 @@
+package cloud.sec.core.runtime;
+
+import org.apache.calcite.DataContext;
+import org.apache.calcite.adapter.java.JavaTypeFactory;
+import org.apache.calcite.linq4j.AbstractEnumerable;
+import org.apache.calcite.linq4j.Enumerable;
+import org.apache.calcite.linq4j.Enumerator;
+import org.apache.calcite.linq4j.QueryProvider;
+import org.apache.calcite.linq4j.function.Function1;
+import org.apache.calcite.schema.SchemaPlus;
+
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runtime operators used by the code generated for multi-cloud relational expressions.
+ */
+public final class MultiCloudEnumerables {
+    /**
+     * Greatest number of keys looked up at once, i.e. the number of key parameters of a lookup.
+     */
+    public static final int LOOKUP_KEYS = 256;
+
+    private MultiCloudEnumerables() {
+    }
+
+    /**
+     * Joins fragments on their keys, fetching all of them concurrently.
+     * Rows are joined as soon as all parts of a key arrive, so only rows still waiting for their parts are kept.
+     *
+     * @param fragments rows of each fragment
+     * @param keys      position of the key in the rows of each fragment
+     * @param root      context of the query, whose connection may limit memory of rows waiting for their parts
+     * @return joined rows, consisting of fields of all fragments in the given order
+     */
+    public static Enumerable<Object[]> hash(final Enumerable<Object[]>[] fragments, final int[] keys,
+                                            final DataContext root) {
+        return hash(fragments, keys, MultiCloudSpill.memoryBytes(root));
+    }
+
+    /**
+     * Joins fragments on their keys, fetching all of them concurrently, with the memory budget of the JVM.
+     *
+     * @see #hash(Enumerable[], int[], DataContext)
+     */
+    public static Enumerable<Object[]> hash(final Enumerable<Object[]>[] fragments, final int[] keys) {
+        return hash(fragments, keys, (DataContext) null);
+    }
+
+    static Enumerable<Object[]> hash(final Enumerable<Object[]>[] fragments, final int[] keys,
+                                     final long memoryBytes) {
+        return new AbstractEnumerable<Object[]>() {
+            @Override
+            public Enumerator<Object[]> enumerator() {
+                return new HashEnumerator(fragments, keys, memoryBytes);
+            }
+        };
+    }
+
+    /**
+     * Joins fragments on their keys by merging them, fetching all of them concurrently.
+     * Every fragment has to be sorted by its key, so only the current row of each fragment is kept.
+     *
+     * @param fragments rows of each fragment, sorted by the key
+     * @param keys      position of the key in the rows of each fragment
+     * @return joined rows, consisting of fields of all fragments in the given order, sorted by the key
+     */
+    public static Enumerable<Object[]> merge(final Enumerable<Object[]>[] fragments, final int[] keys) {
+        return new AbstractEnumerable<Object[]>() {
+            @Override
+            public Enumerator<Object[]> enumerator() {
+                return new MergeEnumerator(fragments, keys);
+            }
+        };
+    }
+
+    /**
+     * Returns rows of all shards, reading all of them concurrently. Rows come in the order they arrive.
+     *
+     * @param shards rows of each shard
+     */
+    public static Enumerable<Object[]> union(final Enumerable<Object[]>[] shards) {
+        return new AbstractEnumerable<Object[]>() {
+            @Override
+            public Enumerator<Object[]> enumerator() {
+                return new UnionEnumerator(shards);
+            }
+        };
+    }
+
+    /**
+     * Joins fragments on their keys by reading the driver and looking up other fragments by keys of its rows.
+     * Keys are looked up in chunks, all fragments at once, so only rows of the current chunk are kept.
+     *
+     * @param driver         rows of the driver
+     * @param driverFragment position of the driver among fragments
+     * @param lookups        rows of each fragment with the keys given as dynamic parameters by the context,
+     *                       or {@code null} for the driver
+     * @param keys           position of the key in the rows of each fragment
+     * @param firstParameter index of the first dynamic parameter holding a key
+     * @param keyCount       number of dynamic parameters holding keys, i.e. keys looked up at once
+     * @param root           context of the query
+     * @return joined rows, consisting of fields of all fragments in the given order
+     */
+    public static Enumerable<Object[]> lookup(final Enumerable<Object[]> driver, final int driverFragment,
+                                              final Function1<DataContext, Enumerable<Object[]>>[] lookups,
+                                              final int[] keys, final int firstParameter, final int keyCount,
+                                              final DataContext root) {
+        return new AbstractEnumerable<Object[]>() {
+            @Override
+            public Enumerator<Object[]> enumerator() {
+                return new LookupEnumerator(driver, driverFragment, lookups, keys, firstParameter, keyCount,
+                        root);
+            }
+        };
+    }
+
+    /**
+     * Returns a key which is equal for equal values of different numeric types, as returned by different providers.
+     */
+    static Object key(Object value) {
+        if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            return ((Number) value).longValue();
+        }
+        return value;
+    }
+
+    @SuppressWarnings("unchecked")
+    static int compare(Object key0, Object key1) {
+        if (key0 instanceof Number && key1 instanceof Number && key0.getClass() != key1.getClass()) {
+            return new BigDecimal(key0.toString()).compareTo(new BigDecimal(key1.toString()));
+        }
+        return ((Comparable<Object>) key0).compareTo(key1);
+    }
+
+    static Object[] concat(Object[][] parts) {
+        int width = 0;
+        for (Object[] part : parts) {
+            width += part.length;
+        }
+
+        Object[] row = new Object[width];
+        int offset = 0;
+        for (Object[] part : parts) {
+            System.arraycopy(part, 0, row, offset, part.length);
+            offset += part.length;
+        }
+        return row;
+    }
+
+    /**
+     * Symmetric hash join of fragments, fed by {@link MultiCloudFetch}. Parts of rows with whole keys wait in a map
+     * of primitive keys, and parts with other keys in a regular map.
+     * <p>
+     * Once parts waiting for others take more memory than the budget of the query, they are spilled by hashes of
+     * their keys into {@link MultiCloudSpill#PARTITIONS} partitions, as are all rows fetched afterwards, and
+     * partitions are joined one after another once all fragments are fetched. A partition which does not fit into
+     * the budget is re-partitioned, and its partitions are joined before the next one.
+     */
+    private static class HashEnumerator implements Enumerator<Object[]> {
+        private final Enumerable<Object[]>[] fragments;
+        private final int[] keys;
+        private final long memoryBytes;
+
+        // parts of rows which are still waiting for other fragments, and their estimated size
+        private final MultiCloudLongMap<Object[][]> pendingByLong = new MultiCloudLongMap<>();
+        private Map<Object, Object[][]> pending = new HashMap<>();
+        private long pendingBytes;
+
+        private final Deque<Object[]> joined = new ArrayDeque<>();
+        private final boolean[] finished;
+
+        private MultiCloudFetch fetch;
+        // spill of fetched rows, and on top of it, spills re-partitioning its partitions which are being joined
+        private final Deque<MultiCloudSpill> spills = new ArrayDeque<>();
+        private boolean isJoiningSpills;
+        private Object[] current;
+
+        HashEnumerator(Enumerable<Object[]>[] fragments, int[] keys, long memoryBytes) {
+            this.fragments = fragments;
+            this.keys = keys;
+            this.memoryBytes = memoryBytes;
+            this.finished = new boolean[fragments.length];
+        }
+
+        @Override
+        public Object[] current() {
+            return current;
+        }
+
+        @Override
+        public boolean moveNext() {
+            if (fetch == null && !isJoiningSpills) {
+                fetch = new MultiCloudFetch(fragments, keys);
+            }
+
+            while (joined.isEmpty()) {
+                if (isJoiningSpills) {
+                    if (!joinPartition()) {
+                        return false;
+                    }
+                    continue;
+                }
+
+                MultiCloudFetch.Batch batch = fetch.next();
+                if (batch == null) {
+                    if (spills.isEmpty()) {
+                        return false;
+                    }
+                    fetch.close();
+                    fetch = null;
+                    isJoiningSpills = true; // all rows are spilled, so they are joined by partitions
+                    continue;
+                }
+
+                MultiCloudSpill spill = spills.peek();
+                if (batch.rows == null) {
+                    finish(batch.fragment);
+                } else if (spill != null) {
+                    for (int i = 0; i < batch.size(); i++) {
+                        spill.write(spill.partition(batch, i), batch.fragment, batch.rows.get(i));
+                    }
+                } else {
+                    for (int i = 0; i < batch.size(); i++) {
+                        add(batch, i);
+                    }
+                    if (pendingBytes > memoryBytes) {
+                        spill();
+                    }
+                }
+            }
+
+            current = joined.poll();
+            return true;
+        }
+
+        private void add(MultiCloudFetch.Batch batch, int row) {
+            boolean isLong = batch.isLongKey(row);
+            Object[][] parts = isLong ? pendingByLong.get(batch.longKey(row)) : pending.get(batch.key(row));
+            if (parts == null) {
+                for (boolean isFinished : finished) {
+                    if (isFinished) {
+                        return; // some fragment has no part for this key
+                    }
+                }
+                parts = new Object[fragments.length][];
+                if (isLong) {
+                    pendingByLong.put(batch.longKey(row), parts);
+                } else {
+                    pending.put(batch.key(row), parts);
+                }
+            }
+
+            if (parts[batch.fragment] != null) {
+                throw new IllegalStateException("Duplicate key " + batch.key(row) + " in fragment " + batch.fragment);
+            }
+            parts[batch.fragment] = batch.rows.get(row);
+            pendingBytes += MultiCloudFragmentCache.sizeOf(parts[batch.fragment]);
+
+            for (Object[] part : parts) {
+                if (part == null) {
+                    return;
+                }
+            }
+            if (isLong) {
+                pendingByLong.remove(batch.longKey(row));
+            } else {
+                pending.remove(batch.key(row));
+            }
+            pendingBytes -= sizeOf(parts);
+            joined.add(concat(parts));
+        }
+
+        // rows still waiting for the finished fragment will never be joined
+        private void finish(int fragment) {
+            finished[fragment] = true;
+            if (!spills.isEmpty() && !isJoiningSpills) {
+                return; // rows are joined once all partitions are spilled
+            }
+            pendingByLong.removeIf(parts -> {
+                if (parts[fragment] != null) {
+                    return false;
+                }
+                pendingBytes -= sizeOf(parts);
+                return true;
+            });
+            pending.values().removeIf(parts -> {
+                if (parts[fragment] != null) {
+                    return false;
+                }
+                pendingBytes -= sizeOf(parts);
+                return true;
+            });
+        }
+
+        private static long sizeOf(Object[][] parts) {
+            long bytes = 0;
+            for (Object[] part : parts) {
+                if (part != null) {
+                    bytes += MultiCloudFragmentCache.sizeOf(part);
+                }
+            }
+            return bytes;
+        }
+
+        // moves parts waiting for others to partitions, where all rows fetched from now on go too
+        private void spill() {
+            MultiCloudSpill spill = new MultiCloudSpill(fragments.length);
+            spills.push(spill);
+            pendingByLong.forEach((key, parts) -> spill(spill, spill.partition(key), parts));
+            pending.forEach((key, parts) -> spill(spill, spill.partition(key), parts));
+            pendingByLong.clear();
+            pending = new HashMap<>();
+            pendingBytes = 0;
+        }
+
+        private static void spill(MultiCloudSpill spill, int partition, Object[][] parts) {
+            for (int i = 0; i < parts.length; i++) {
+                if (parts[i] != null) {
+                    spill.write(partition, i, parts[i]);
+                }
+            }
+        }
+
+        /**
+         * Joins the next partition which has any rows, reading its fragments one after another, so only parts of
+         * the partition wait in memory. A partition taking more memory than the budget is re-partitioned instead,
+         * and its partitions are joined next. Returns {@code false} if all partitions were joined.
+         */
+        private boolean joinPartition() {
+            MultiCloudSpill spill = spills.peek();
+            if (spill == null) {
+                return false;
+            }
+            int partition = spill.nextPartition();
+            if (partition < 0) {
+                spills.pop().close(); // continues with the partitions of the spill it re-partitioned, if any
+                return true;
+            }
+            if (spill.exceeds(partition, memoryBytes)) {
+                spills.push(spill.repartition(partition, keys));
+                return true;
+            }
+
+            Arrays.fill(finished, false);
+            for (int i = 0; i < fragments.length; i++) {
+                try (MultiCloudSpill.Reader reader = spill.read(partition, i, keys[i])) {
+                    MultiCloudFetch.Batch batch;
+                    while ((batch = reader.next()) != null) {
+                        for (int row = 0; row < batch.size(); row++) {
+                            add(batch, row);
+                        }
+                    }
+                }
+                finish(i);
+            }
+            spill.delete(partition);
+            return true;
+        }
+
+        @Override
+        public void reset() {
+            close();
+            pendingByLong.clear();
+            pending.clear();
+            pendingBytes = 0;
+            joined.clear();
+            Arrays.fill(finished, false);
+            current = null;
+        }
+
+        @Override
+        public void close() {
+            if (fetch != null) {
+                fetch.close();
+                fetch = null;
+            }
+            // spills re-partitioning others are on top, and are closed first
+            while (!spills.isEmpty()) {
+                spills.pop().close();
+            }
+            isJoiningSpills = false;
+        }
+    }
+
+    /**
+     * Concatenation of shards, fed by {@link MultiCloudFetch} on threads of {@link MultiCloudExecutor#shards()}.
+     */
+    private static class UnionEnumerator implements Enumerator<Object[]> {
+        private final Enumerable<Object[]>[] shards;
+
+        private MultiCloudFetch fetch;
+        private Iterator<Object[]> batch = Collections.emptyIterator();
+        private Object[] current;
+
+        UnionEnumerator(Enumerable<Object[]>[] shards) {
+            this.shards = shards;
+        }
+
+        @Override
+        public Object[] current() {
+            return current;
+        }
+
+        @Override
+        public boolean moveNext() {
+            if (fetch == null) {
+                fetch = new MultiCloudFetch(shards, MultiCloudExecutor.shards());
+            }
+
+            while (!batch.hasNext()) {
+                MultiCloudFetch.Batch next = fetch.next();
+                if (next == null) {
+                    return false;
+                }
+                if (next.rows != null) {
+                    batch = next.rows.iterator();
+                }
+            }
+
+            current = batch.next();
+            return true;
+        }
+
+        @Override
+        public void reset() {
+            close();
+            batch = Collections.emptyIterator();
+            current = null;
+        }
+
+        @Override
+        public void close() {
+            if (fetch != null) {
+                fetch.close();
+                fetch = null;
+            }
+        }
+    }
+
+    /**
+     * Lookup join of fragments, driven by one of them.
+     */
+    private static class LookupEnumerator implements Enumerator<Object[]> {
+        private final Enumerable<Object[]> driver;
+        private final int driverFragment;
+        private final Function1<DataContext, Enumerable<Object[]>>[] lookups;
+        private final int[] keys;
+        private final int firstParameter;
+        private final int keyCount;
+        private final DataContext root;
+
+        private final Deque<Object[]> joined = new ArrayDeque<>();
+
+        private MultiCloudFetch fetch;
+        private Iterator<Object[]> batch;
+        private Object[] current;
+
+        LookupEnumerator(Enumerable<Object[]> driver, int driverFragment,
+                         Function1<DataContext, Enumerable<Object[]>>[] lookups,
+                         int[] keys, int firstParameter, int keyCount, DataContext root) {
+            this.driver = driver;
+            this.driverFragment = driverFragment;
+            this.lookups = lookups;
+            this.keys = keys;
+            this.firstParameter = firstParameter;
+            this.keyCount = keyCount;
+            this.root = root;
+        }
+
+        @Override
+        public Object[] current() {
+            return current;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean moveNext() {
+            if (fetch == null) {
+                fetch = new MultiCloudFetch(new Enumerable[]{driver});
+            }
+
+            while (joined.isEmpty()) {
+                // parts of rows of the chunk, in the order of the driver
+                Map<Object, Object[][]> parts = new LinkedHashMap<>();
+                List<Object> values = new ArrayList<>(keyCount);
+                while (values.size() < keyCount) {
+                    Object[] row = nextDriverRow();
+                    if (row == null) {
+                        break;
+                    }
+                    Object value = row[keys[driverFragment]];
+                    if (value == null) {
+                        continue; // never joins
+                    }
+
+                    Object[][] rowParts = new Object[lookups.length][];
+                    rowParts[driverFragment] = row;
+                    if (parts.put(key(value), rowParts) != null) {
+                        throw new IllegalStateException("Duplicate key " + value + " in fragment " + driverFragment);
+                    }
+                    values.add(value);
+                }
+
+                if (values.isEmpty()) {
+                    return false;
+                }
+                lookup(values, parts);
+
+                for (Object[][] rowParts : parts.values()) {
+                    if (isComplete(rowParts)) {
+                        joined.add(concat(rowParts));
+                    }
+                }
+            }
+
+            current = joined.poll();
+            return true;
+        }
+
+        private Object[] nextDriverRow() {
+            while (batch == null || !batch.hasNext()) {
+                MultiCloudFetch.Batch next = fetch.next();
+                if (next == null) {
+                    return null;
+                }
+                batch = next.rows == null ? null : next.rows.iterator();
+            }
+            return batch.next();
+        }
+
+        /**
+         * Looks up the keys in all other fragments at once. Lookups are fetched like fragments, by tasks which never
+         * wait for the driver, so the driver and its lookups cannot starve each other of fetch threads.
+         */
+        @SuppressWarnings("unchecked")
+        private void lookup(List<Object> values, Map<Object, Object[][]> parts) {
+            // unused parameters repeat the last key
+            Object[] parameters = new Object[keyCount];
+            for (int i = 0; i < parameters.length; i++) {
+                parameters[i] = values.get(Math.min(i, values.size() - 1));
+            }
+            DataContext context = new KeyContext(root, firstParameter, parameters);
+
+            // looked up fragments, with their keys and positions among all fragments
+            Enumerable<Object[]>[] fragments = new Enumerable[lookups.length - 1];
+            int[] fragmentKeys = new int[fragments.length];
+            int[] positions = new int[fragments.length];
+            for (int i = 0, j = 0; i < lookups.length; i++) {
+                if (i != driverFragment) {
+                    fragments[j] = lookups[i].apply(context);
+                    fragmentKeys[j] = keys[i];
+                    positions[j++] = i;
+                }
+            }
+
+            try (MultiCloudFetch lookupFetch = new MultiCloudFetch(fragments, fragmentKeys)) {
+                MultiCloudFetch.Batch batch;
+                while ((batch = lookupFetch.next()) != null) {
+                    if (batch.rows == null) {
+                        continue;
+                    }
+                    int fragment = positions[batch.fragment];
+                    for (int row = 0; row < batch.size(); row++) {
+                        Object[][] rowParts = parts.get(batch.key(row));
+                        if (rowParts == null) {
+                            continue;
+                        }
+                        if (rowParts[fragment] != null) {
+                            throw new IllegalStateException("Duplicate key " + batch.key(row) + " in fragment "
+                                    + fragment);
+                        }
+                        rowParts[fragment] = batch.rows.get(row);
+                    }
+                }
+            }
+        }
+
+        private static boolean isComplete(Object[][] parts) {
+            for (Object[] part : parts) {
+                if (part == null) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public void reset() {
+            close();
+            joined.clear();
+            batch = null;
+            current = null;
+        }
+
+        @Override
+        public void close() {
+            if (fetch != null) {
+                fetch.close();
+                fetch = null;
+            }
+        }
+    }
+
+    /**
+     * Returns the context of the query, which is given either directly, or as the context of one of its lookups.
+     */
+    static DataContext queryContext(DataContext context) {
+        return context instanceof KeyContext ? ((KeyContext) context).root : context;
+    }
+
+    /**
+     * Context of a lookup, which holds its keys as dynamic parameters.
+     */
+    private static class KeyContext implements DataContext {
+        private final DataContext root;
+        private final int firstParameter;
+        private final Object[] parameters;
+
+        KeyContext(DataContext root, int firstParameter, Object[] parameters) {
+            this.root = root;
+            this.firstParameter = firstParameter;
+            this.parameters = parameters;
+        }
+
+        @Override
+        public SchemaPlus getRootSchema() {
+            return root.getRootSchema();
+        }
+
+        @Override
+        public JavaTypeFactory getTypeFactory() {
+            return root.getTypeFactory();
+        }
+
+        @Override
+        public QueryProvider getQueryProvider() {
+            return root.getQueryProvider();
+        }
+
+        @Override
+        public Object get(String name) {
+            if (name.startsWith("?")) {
+                int parameter = Integer.parseInt(name.substring(1)) - firstParameter;
+                if (parameter >= 0 && parameter < parameters.length) {
+                    return parameters[parameter];
+                }
+            }
+            return root.get(name);
+        }
+    }
+
+    /**
+     * Merge join of sorted fragments. Each fragment is fed by its own {@link MultiCloudFetch}, so a fragment is
+     * fetched ahead of the consumer by a bounded number of batches, no matter how far behind the others are.
+     * The current row of each fragment is kept as its position in the current batch, whose keys are compared
+     * without boxing.
+     */
+    private static class MergeEnumerator implements Enumerator<Object[]> {
+        private final Enumerable<Object[]>[] fragments;
+        private final int[] keys;
+
+        private final MultiCloudFetch[] fetches;
+        private final MultiCloudFetch.Batch[] batches;
+        private final int[] positions;
+        private final Object[][] rows;
+
+        private Object[] current;
+        private boolean isDone;
+
+        MergeEnumerator(Enumerable<Object[]>[] fragments, int[] keys) {
+            this.fragments = fragments;
+            this.keys = keys;
+            this.fetches = new MultiCloudFetch[fragments.length];
+            this.batches = new MultiCloudFetch.Batch[fragments.length];
+            this.positions = new int[fragments.length];
+            this.rows = new Object[fragments.length][];
+        }
+
+        @Override
+        public Object[] current() {
+            return current;
+        }
+
+        @Override
+        public boolean moveNext() {
+            if (isDone || !next()) {
+                isDone = true;
+                current = null;
+                return false;
+            }
+            return true;
+        }
+
+        private boolean next() {
+            if (fetches[0] == null) {
+                for (int i = 0; i < fragments.length; i++) {
+                    fetches[i] = new MultiCloudFetch(Arrays.copyOfRange(fragments, i, i + 1), new int[]{keys[i]});
+                }
+            }
+
+            // every fragment moves past the key of the current row
+            for (int i = 0; i < fragments.length; i++) {
+                if (!advance(i)) {
+                    return false;
+                }
+            }
+
+            while (true) {
+                // catch up with the greatest key, until all fragments are at it
+                int greatest = 0;
+                boolean isEqual = true;
+                for (int i = 1; i < fragments.length; i++) {
+                    int c = compare(i, greatest);
+                    if (c != 0) {
+                        isEqual = false;
+                    }
+                    if (c > 0) {
+                        greatest = i;
+                    }
+                }
+
+                if (isEqual) {
+                    current = concat(rows);
+                    return true;
+                }
+
+                for (int i = 0; i < fragments.length; i++) {
+                    while (compare(i, greatest) < 0) {
+                        if (!advance(i)) {
+                            return false;
+                        }
+                    }
+                }
+            }
+        }
+
+        private int compare(int fragment0, int fragment1) {
+            return MultiCloudFetch.Batch.compareKeys(batches[fragment0], positions[fragment0],
+                    batches[fragment1], positions[fragment1]);
+        }
+
+        /**
+         * Moves fragment to its next row, returning {@code false} if there is none.
+         * Rows without a key are never handed over by the fetch.
+         */
+        private boolean advance(int fragment) {
+            MultiCloudFetch.Batch previous = batches[fragment];
+            int previousPosition = positions[fragment];
+            while (batches[fragment] == null || ++positions[fragment] >= batches[fragment].size()) {
+                MultiCloudFetch.Batch batch = fetches[fragment].next();
+                if (batch == null) {
+                    return false;
+                }
+                batches[fragment] = batch.rows == null ? null : batch;
+                positions[fragment] = -1;
+            }
+            rows[fragment] = batches[fragment].rows.get(positions[fragment]);
+
+            if (previous != null && MultiCloudFetch.Batch.compareKeys(previous, previousPosition,
+                    batches[fragment], positions[fragment]) >= 0) {
+                throw new IllegalStateException("Fragment " + fragment + " is not sorted by a unique key: "
+                        + batches[fragment].key(positions[fragment]) + " follows " + previous.key(previousPosition));
+            }
+            return true;
+        }
+
+        @Override
+        public void reset() {
+            close();
+            Arrays.fill(batches, null);
+            Arrays.fill(rows, null);
+            current = null;
+            isDone = false;
+        }
+
+        @Override
+        public void close() {
+            for (int i = 0; i < fetches.length; i++) {
+                if (fetches[i] != null) {
+                    fetches[i].close();
+                    fetches[i] = null;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package cloud.sec.core.runtime;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded executor shared by all queries, which runs fragment fetches.
+ * <p>
+ * Size of the executor is set by the {@value #THREADS_PROPERTY} system property. Fetches run on virtual threads
+ * when the JVM supports them, otherwise on daemon platform threads. Tasks of the executor never wait for other
+ * tasks, see {@link MultiCloudFetch}, so any number of fragments can be fetched by any number of threads.
+ */
+public final class MultiCloudExecutor {
+    private static final Logger logger = LoggerFactory.getLogger(MultiCloudExecutor.class);
+
+    public static final String THREADS_PROPERTY = "cloudsec.fetch.threads";
+
+    private MultiCloudExecutor() {
+    }
+
+    /**
+     * Returns the shared executor.
+     */
+    public static ExecutorService get() {
+        return Holder.EXECUTOR;
+    }
+
+    /**
+     * Returns the executor which reads whole shards. Reading a shard waits for fetches of its fragments, so shards
+     * are read by threads of their own, which are not bounded, as there are only as many as shards being read.
+     */
+    public static ExecutorService shards() {
+        return Holder.SHARD_EXECUTOR;
+    }
+
+    /**
+     * Returns the executor which runs queries submitted by {@link MultiCloudQueries}. Queries mostly wait for their
+     * fragments, so they run on virtual threads when the JVM supports them, and the executor is not bounded.
+     */
+    public static ExecutorService queries() {
+        return Holder.QUERY_EXECUTOR;
+    }
+
+    /**
+     * Returns the executor which runs batches of writes of fragments. Rows to write may be read by fetches of
+     * the shared executor meanwhile, so writes have threads of their own, which are not bounded, as there are only
+     * as many as fragments being written.
+     */
+    public static ExecutorService writes() {
+        return Holder.WRITE_EXECUTOR;
+    }
+
+    private static ExecutorService create() {
+        int threads = Integer.getInteger(THREADS_PROPERTY, 4 * Runtime.getRuntime().availableProcessors());
+
+        ThreadFactory threadFactory = virtualThreadFactory("multicloud-fetch-");
+        if (threadFactory == null) {
+            threadFactory = daemonThreadFactory("multicloud-fetch-");
+        }
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), threadFactory);
+        executor.allowCoreThreadTimeOut(true);
+
+        logger.info("Created fetch executor with " + threads + " threads");
+        return executor;
+    }
+
+    private static ExecutorService createUnbounded(String prefix) {
+        ThreadFactory threadFactory = virtualThreadFactory(prefix);
+        if (threadFactory == null) {
+            threadFactory = daemonThreadFactory(prefix);
+        }
+        return Executors.newCachedThreadPool(threadFactory);
+    }
+
+    /**
+     * Returns a factory of virtual threads, or {@code null} if they are not supported.
+     */
+    private static ThreadFactory virtualThreadFactory(String prefix) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+            Method factory = builderClass.getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static ThreadFactory daemonThreadFactory(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    // lazily creates the executors on first use
+    private static class Holder {
+        private static final ExecutorService EXECUTOR = create();
+        private static final ExecutorService SHARD_EXECUTOR = createUnbounded("multicloud-shard-");
+        private static final ExecutorService QUERY_EXECUTOR = createUnbounded("multicloud-query-");
+        private static final ExecutorService WRITE_EXECUTOR = createUnbounded("multicloud-write-");
+    }
+}
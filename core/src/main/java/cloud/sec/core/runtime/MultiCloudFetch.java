@@ -0,0 +1,380 @@
+package cloud.sec.core.runtime;
+
+import org.apache.calcite.linq4j.Enumerable;
+import org.apache.calcite.linq4j.Enumerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Concurrent fetch of fragments. Every fragment is read by its own task on {@link MultiCloudExecutor}, or on
+ * {@link MultiCloudExecutor#shards()} if the fragments are whole shards, which hands rows over in batches through
+ * a bounded queue shared by all fragments, so batches come in the order they arrive.
+ * <p>
+ * A task which finds the queue full does not wait for the consumer on its thread. It keeps its batch and leaves
+ * the executor, and is submitted again once the consumer takes a batch. Threads of the executor are thus only
+ * held by fragments which are being read, so fragments of a reassembly are never starved by their siblings which
+ * wait for the consumer, however few threads there are and however many queries run at once.
+ * <p>
+ * Closing the fetch interrupts tasks which are reading, and cancels statements of providers which they opened
+ * through {@link MultiCloudStatements}, as a provider which has not returned the first row yet does not notice
+ * the interrupt.
+ * <p>
+ * Fragments which are joined on their keys hand over their keys along with their rows, as a vector of whole numbers
+ * if all keys of the batch are, so they are extracted by the fetching task and compared without boxing. Rows without
+ * a key never join, so they are not handed over at all.
+ * <p>
+ * Not thread-safe; batches have to be taken by a single consumer.
+ */
+final class MultiCloudFetch implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(MultiCloudFetch.class);
+
+    static final int BATCH_SIZE = 256;
+
+    // batches each fragment can fetch ahead of the consumer
+    private static final int BATCHES_AHEAD = 8;
+
+    private final int[] keys;
+    private final ExecutorService executor;
+    private final BlockingQueue<Batch> queue;
+    private final Producer[] producers;
+    private int running;
+
+    // tasks waiting for room in the queue, and whether the fetch was closed, guarded by this
+    private final Deque<Producer> waiting = new ArrayDeque<>();
+    private boolean isClosed;
+
+    MultiCloudFetch(Enumerable<Object[]>[] fragments) {
+        this(fragments, null, MultiCloudExecutor.get());
+    }
+
+    /**
+     * Creates a fetch of fragments joined on their keys, at the given positions in rows of each fragment.
+     */
+    MultiCloudFetch(Enumerable<Object[]>[] fragments, int[] keys) {
+        this(fragments, keys, MultiCloudExecutor.get());
+    }
+
+    MultiCloudFetch(Enumerable<Object[]>[] fragments, ExecutorService executor) {
+        this(fragments, null, executor);
+    }
+
+    private MultiCloudFetch(Enumerable<Object[]>[] fragments, int[] keys, ExecutorService executor) {
+        this.keys = keys;
+        this.executor = executor;
+        this.queue = new ArrayBlockingQueue<>(BATCHES_AHEAD * fragments.length);
+        this.producers = new Producer[fragments.length];
+        this.running = fragments.length;
+
+        for (int i = 0; i < fragments.length; i++) {
+            producers[i] = new Producer(i, fragments[i]);
+        }
+        for (Producer producer : producers) {
+            executor.execute(producer);
+        }
+    }
+
+    /**
+     * Returns the next batch, or {@code null} if all fragments are fetched.
+     * The end of each fragment is reported by a batch without rows.
+     */
+    Batch next() {
+        if (running == 0) {
+            return null;
+        }
+
+        Batch batch;
+        try {
+            batch = queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new RuntimeException("Interrupted while fetching fragments", e);
+        }
+        resume();
+
+        if (batch.error != null) {
+            close();
+            if (batch.error instanceof RuntimeException) {
+                throw (RuntimeException) batch.error;
+            }
+            if (batch.error instanceof Error) {
+                throw (Error) batch.error;
+            }
+            throw new RuntimeException("Fetching fragment " + batch.fragment + " failed", batch.error);
+        }
+
+        if (batch.rows == null) {
+            running--;
+        }
+        return batch;
+    }
+
+    // a batch was taken, so the task which waits the longest for room in the queue continues
+    private void resume() {
+        Producer producer;
+        synchronized (this) {
+            producer = waiting.poll();
+        }
+        if (producer != null) {
+            executor.execute(producer);
+        }
+    }
+
+    /**
+     * Stops fetching. Fragments which are still being read are interrupted and their statements are cancelled,
+     * and all of them are closed.
+     */
+    @Override
+    public void close() {
+        running = 0;
+        List<Producer> idle;
+        List<Statement> statements = new ArrayList<>();
+        synchronized (this) {
+            if (isClosed) {
+                return;
+            }
+            isClosed = true;
+            for (Producer producer : producers) {
+                if (producer.thread != null) {
+                    producer.thread.interrupt();
+                    statements.addAll(producer.statements);
+                }
+            }
+            idle = new ArrayList<>(waiting);
+            waiting.clear();
+        }
+        queue.clear();
+        // cancelling may wait for the provider, so it is done without the lock
+        for (Statement statement : statements) {
+            cancel(statement);
+        }
+        // tasks which are being read or are about to be close their fragments themselves
+        for (Producer producer : idle) {
+            producer.closeEnumerator();
+        }
+    }
+
+    /**
+     * Task reading a fragment, which runs until the queue is full or the fragment is read.
+     */
+    private final class Producer implements Runnable {
+        private final int fragment;
+        private final Enumerable<Object[]> enumerable;
+        private final int key;
+
+        // accessed by one run of the task at a time
+        private Enumerator<Object[]> enumerator;
+        private boolean isRead;
+        private Batch batch; // read, but not handed over yet
+
+        // thread running the task, and statements of providers opened by it, guarded by the fetch
+        private Thread thread;
+        private final List<Statement> statements = new ArrayList<>(1);
+
+        Producer(int fragment, Enumerable<Object[]> enumerable) {
+            this.fragment = fragment;
+            this.enumerable = enumerable;
+            this.key = keys == null ? -1 : keys[fragment];
+        }
+
+        @Override
+        public void run() {
+            synchronized (MultiCloudFetch.this) {
+                if (isClosed) {
+                    closeEnumerator();
+                    return;
+                }
+                thread = Thread.currentThread();
+            }
+            try {
+                while (true) {
+                    if (batch == null) {
+                        batch = read();
+                    }
+                    if (!offer()) {
+                        return;
+                    }
+                    if (batch.rows == null) {
+                        closeEnumerator(); // the end, or an error
+                        return;
+                    }
+                    batch = null;
+                }
+            } finally {
+                synchronized (MultiCloudFetch.this) {
+                    thread = null;
+                    // an interrupt of a close which came too late must not reach the next task of the thread
+                    Thread.interrupted();
+                }
+            }
+        }
+
+        // reads the next batch, the end of the fragment, or its error
+        private Batch read() {
+            if (isRead) {
+                return new Batch(fragment, null, null);
+            }
+            try {
+                if (enumerator == null) {
+                    enumerator = MultiCloudStatements.opening(this::opened, enumerable::enumerator);
+                }
+                List<Object[]> rows = new ArrayList<>(BATCH_SIZE);
+                while (rows.size() < BATCH_SIZE) {
+                    if (!enumerator.moveNext()) {
+                        isRead = true;
+                        break;
+                    }
+                    Object[] row = enumerator.current();
+                    if (key >= 0 && row[key] == null) {
+                        continue; // never joins
+                    }
+                    rows.add(row);
+                }
+                return rows.isEmpty() ? new Batch(fragment, null, null) : Batch.of(fragment, rows, key);
+            } catch (Throwable e) {
+                return new Batch(fragment, null, e);
+            }
+        }
+
+        /**
+         * Hands the batch over, returning {@code false} if there is no room in the queue, in which case the task is
+         * resumed by the consumer, or if the fetch was closed, in which case the fragment is closed.
+         */
+        private boolean offer() {
+            synchronized (MultiCloudFetch.this) {
+                if (!isClosed) {
+                    if (queue.offer(batch)) {
+                        return true;
+                    }
+                    waiting.add(this);
+                    return false;
+                }
+            }
+            closeEnumerator();
+            return false;
+        }
+
+        // a statement which is opened after the fetch was closed is not executed at all
+        private void opened(Statement statement) {
+            synchronized (MultiCloudFetch.this) {
+                if (isClosed) {
+                    throw new CancellationException("Fetch of fragment " + fragment + " was closed");
+                }
+                statements.add(statement);
+            }
+        }
+
+        void closeEnumerator() {
+            synchronized (MultiCloudFetch.this) {
+                statements.clear();
+            }
+            if (enumerator == null) {
+                return;
+            }
+            try {
+                enumerator.close();
+            } catch (RuntimeException e) {
+                logger.warn("Closing fragment " + fragment + " failed", e);
+            }
+            enumerator = null;
+        }
+    }
+
+    private static void cancel(Statement statement) {
+        try {
+            statement.cancel();
+        } catch (SQLException e) {
+            // the statement was closed meanwhile
+            logger.debug("Cancelling a statement of a fragment failed", e);
+        }
+    }
+
+    /**
+     * Rows of a fragment, with their keys if the fragment is joined on them.
+     */
+    static final class Batch {
+        final int fragment;
+        final List<Object[]> rows;
+        final Throwable error;
+
+        // keys as whole numbers, if all of them are, or else as given by MultiCloudEnumerables.key
+        private final long[] longKeys;
+        private final Object[] keys;
+
+        Batch(int fragment, List<Object[]> rows, Throwable error) {
+            this(fragment, rows, error, null, null);
+        }
+
+        private Batch(int fragment, List<Object[]> rows, Throwable error, long[] longKeys, Object[] keys) {
+            this.fragment = fragment;
+            this.rows = rows;
+            this.error = error;
+            this.longKeys = longKeys;
+            this.keys = keys;
+        }
+
+        /**
+         * Returns a batch of rows with keys at the given position, or without keys if the position is negative.
+         */
+        static Batch of(int fragment, List<Object[]> rows, int key) {
+            if (key < 0) {
+                return new Batch(fragment, rows, null);
+            }
+
+            long[] longKeys = new long[rows.size()];
+            for (int i = 0; i < longKeys.length; i++) {
+                Object value = rows.get(i)[key];
+                if (!(value instanceof Integer || value instanceof Long
+                        || value instanceof Short || value instanceof Byte)) {
+                    Object[] keys = new Object[rows.size()];
+                    for (int j = 0; j < keys.length; j++) {
+                        keys[j] = MultiCloudEnumerables.key(rows.get(j)[key]);
+                    }
+                    return new Batch(fragment, rows, null, null, keys);
+                }
+                longKeys[i] = ((Number) value).longValue();
+            }
+            return new Batch(fragment, rows, null, longKeys, null);
+        }
+
+        int size() {
+            return rows.size();
+        }
+
+        /**
+         * Returns whether the key of a row is a whole number, as given by {@link #longKey}.
+         */
+        boolean isLongKey(int row) {
+            return longKeys != null || keys[row] instanceof Long;
+        }
+
+        long longKey(int row) {
+            return longKeys != null ? longKeys[row] : (Long) keys[row];
+        }
+
+        Object key(int row) {
+            return longKeys != null ? longKeys[row] : keys[row];
+        }
+
+        /**
+         * Compares keys of rows of two batches.
+         */
+        static int compareKeys(Batch batch0, int row0, Batch batch1, int row1) {
+            if (batch0.isLongKey(row0) && batch1.isLongKey(row1)) {
+                return Long.compare(batch0.longKey(row0), batch1.longKey(row1));
+            }
+            return MultiCloudEnumerables.compare(batch0.key(row0), batch1.key(row1));
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package cloud.sec.core.runtime;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import org.apache.calcite.DataContext;
+import org.apache.calcite.linq4j.AbstractEnumerable;
+import org.apache.calcite.linq4j.Enumerable;
+import org.apache.calcite.linq4j.Enumerator;
+import org.apache.calcite.linq4j.Linq4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache of rows read from providers, shared by all connections, called by generated code.
+ * <p>
+ * Rows are keyed by the SQL sent to the provider together with values of its parameters, so every pushed-down
+ * projection and filter is cached separately, and by the tables it reads. Tables are identified by their providers
+ * and their names in the providers, so models which give the same schema names to other providers never share rows. The cache holds at most {@value #BYTES_PROPERTY} bytes of rows,
+ * as estimated from their values; 0, the default, disables caching. Rows expire {@value #TTL_PROPERTY} seconds
+ * after they were read (60 by default), and results larger than an eighth of the cache are not cached at all.
+ * <p>
+ * Every modification of a table through a Calcite connection invalidates rows of the table, both before and after
+ * it is written, so rows read while a table is being written are not cached. Modifications made by other clients
+ * are only seen once rows expire.
+ */
+public final class MultiCloudFragmentCache {
+    private static final Logger logger = LoggerFactory.getLogger(MultiCloudFragmentCache.class);
+
+    public static final String BYTES_PROPERTY = "cloudsec.fragment.cache.bytes";
+    public static final String TTL_PROPERTY = "cloudsec.fragment.cache.ttl";
+
+    private static final long MAX_BYTES = Long.getLong(BYTES_PROPERTY, 0);
+    private static final long MAX_ENTRY_BYTES = MAX_BYTES / 8;
+
+    private static final Cache<Key, Entry> ENTRIES = CacheBuilder.newBuilder()
+            .maximumWeight(MAX_BYTES)
+            .<Key, Entry>weigher((key, entry) -> (int) Math.min(entry.bytes, Integer.MAX_VALUE))
+            .expireAfterWrite(Long.getLong(TTL_PROPERTY, 60), TimeUnit.SECONDS)
+            .recordStats()
+            .build();
+
+    // version of each table, by its identity, which changes every time the table is modified
+    private static final Map<String, AtomicLong> VERSIONS = new ConcurrentHashMap<>();
+
+    private MultiCloudFragmentCache() {
+    }
+
+    /**
+     * Returns whether rows are cached at all.
+     */
+    public static boolean isEnabled() {
+        return MAX_BYTES > 0;
+    }
+
+    /**
+     * Returns rows from the cache if they are there, otherwise reads them and caches them once they are all read.
+     *
+     * @param rows           rows read from the provider
+     * @param sql            SQL which reads the rows, qualified by the provider
+     * @param tables         tables read by the SQL, identified by their providers
+     * @param root           context holding values of the parameters
+     * @param parameterCount number of parameters the SQL may use
+     */
+    public static <T> Enumerable<T> cached(final Enumerable<T> rows, final String sql, final String[] tables,
+                                           final DataContext root, final int parameterCount) {
+        return new AbstractEnumerable<T>() {
+            @Override
+            public Enumerator<T> enumerator() {
+                Object[] parameters = new Object[parameterCount];
+                for (int i = 0; i < parameterCount; i++) {
+                    parameters[i] = root.get("?" + i);
+                }
+                Key key = new Key(sql, tables, parameters);
+
+                long[] versions = versions(tables);
+                Entry entry = ENTRIES.getIfPresent(key);
+                if (entry != null && Arrays.equals(entry.versions, versions)) {
+                    @SuppressWarnings("unchecked")
+                    List<T> cachedRows = (List<T>) entry.rows;
+                    return Linq4j.enumerator(cachedRows);
+                }
+                logger.debug("Reading rows not in fragment cache: " + sql);
+                return new CachingEnumerator<>(rows.enumerator(), key, tables, versions);
+            }
+        };
+    }
+
+    /**
+     * Returns the result of a modification, which invalidates rows of the modified tables before it is enumerated,
+     * and again after every row of the result, i.e. once the tables are written.
+     */
+    public static <T> Enumerable<T> invalidating(final Enumerable<T> result, final String[] tables) {
+        return new AbstractEnumerable<T>() {
+            @Override
+            public Enumerator<T> enumerator() {
+                invalidate(tables);
+                return new Enumerator<T>() {
+                    private final Enumerator<T> enumerator = result.enumerator();
+
+                    public T current() {
+                        return enumerator.current();
+                    }
+
+                    public boolean moveNext() {
+                        try {
+                            return enumerator.moveNext();
+                        } finally {
+                            invalidate(tables);
+                        }
+                    }
+
+                    public void reset() {
+                        enumerator.reset();
+                    }
+
+                    public void close() {
+                        enumerator.close();
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Discards cached rows of the given tables, identified by their providers.
+     */
+    public static void invalidate(String... tables) {
+        for (String table : tables) {
+            VERSIONS.computeIfAbsent(table, name -> new AtomicLong()).incrementAndGet();
+        }
+        ENTRIES.asMap().values().removeIf(entry -> {
+            for (String table : tables) {
+                if (Arrays.asList(entry.tables).contains(table)) {
+                    return true;
+                }
+            }
+            return false;
+        });
+        logger.debug("Invalidated cached rows of " + Arrays.toString(tables));
+    }
+
+    /**
+     * Discards all cached rows.
+     */
+    public static void invalidateAll() {
+        ENTRIES.invalidateAll();
+    }
+
+    /**
+     * Returns hit and miss statistics of the cache.
+     */
+    public static CacheStats stats() {
+        return ENTRIES.stats();
+    }
+
+    /**
+     * Returns the estimated number of cached bytes.
+     */
+    public static long bytes() {
+        long bytes = 0;
+        for (Entry entry : ENTRIES.asMap().values()) {
+            bytes += entry.bytes;
+        }
+        return bytes;
+    }
+
+    private static long[] versions(String[] tables) {
+        long[] versions = new long[tables.length];
+        for (int i = 0; i < tables.length; i++) {
+            AtomicLong version = VERSIONS.get(tables[i]);
+            versions[i] = version == null ? 0 : version.get();
+        }
+        return versions;
+    }
+
+    /**
+     * Estimates the memory taken by a row, either an array of values or a single value.
+     */
+    public static long sizeOf(Object row) {
+        if (!(row instanceof Object[])) {
+            return bytesOfValue(row);
+        }
+        Object[] values = (Object[]) row;
+        long bytes = 16 + 8L * values.length;
+        for (Object value : values) {
+            bytes += bytesOfValue(value);
+        }
+        return bytes;
+    }
+
+    private static long bytesOfValue(Object value) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof String) {
+            return 40 + 2L * ((String) value).length();
+        }
+        return 24; // boxed numbers, booleans and dates
+    }
+
+    /**
+     * Reads rows from the provider and caches them if all of them fit into an entry.
+     */
+    private static class CachingEnumerator<T> implements Enumerator<T> {
+        private final Enumerator<T> enumerator;
+        private final Key key;
+        private final String[] tables;
+        private final long[] versions;
+
+        private List<Object> rows = new ArrayList<>();
+        private long bytes = 0;
+
+        CachingEnumerator(Enumerator<T> enumerator, Key key, String[] tables, long[] versions) {
+            this.enumerator = enumerator;
+            this.key = key;
+            this.tables = tables;
+            this.versions = versions;
+        }
+
+        public T current() {
+            return enumerator.current();
+        }
+
+        public boolean moveNext() {
+            if (!enumerator.moveNext()) {
+                if (rows != null && Arrays.equals(versions, versions(tables))) {
+                    ENTRIES.put(key, new Entry(rows, bytes, tables, versions));
+                }
+                rows = null;
+                return false;
+            }
+
+            if (rows != null) {
+                T row = enumerator.current();
+                rows.add(row);
+                bytes += sizeOf(row);
+                if (bytes > MAX_ENTRY_BYTES) {
+                    rows = null; // too large to cache
+                }
+            }
+            return true;
+        }
+
+        public void reset() {
+            enumerator.reset();
+            rows = new ArrayList<>();
+            bytes = 0;
+        }
+
+        public void close() {
+            enumerator.close();
+        }
+    }
+
+    private static class Key {
+        private final String sql;
+        private final String[] tables;
+        private final Object[] parameters;
+
+        Key(String sql, String[] tables, Object[] parameters) {
+            this.sql = sql;
+            this.tables = tables;
+            this.parameters = parameters;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * sql.hashCode() + Arrays.hashCode(tables)) + Arrays.hashCode(parameters);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj == this
+                    || obj instanceof Key
+                    && sql.equals(((Key) obj).sql)
+                    && Arrays.equals(tables, ((Key) obj).tables)
+                    && Arrays.equals(parameters, ((Key) obj).parameters);
+        }
+    }
+
+    private static class Entry {
+        private final List<Object> rows;
+        private final long bytes;
+        private final String[] tables;
+        private final long[] versions;
+
+        Entry(List<Object> rows, long bytes, String[] tables, long[] versions) {
+            this.rows = rows;
+            this.bytes = bytes;
+            this.tables = tables;
+            this.versions = versions;
+        }
+    }
+}
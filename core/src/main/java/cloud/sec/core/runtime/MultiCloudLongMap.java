@@ -0,0 +1,155 @@
+package cloud.sec.core.runtime;
+
+import java.util.function.Predicate;
+
+/**
+ * A hash map with primitive {@code long} keys and non-null values, so keys are neither boxed nor wrapped by entries.
+ * Keys are probed linearly, and removed entries are shifted back, so the map does not fill up with deleted slots
+ * while rows keep arriving and leaving.
+ * <p>
+ * Not thread-safe.
+ */
+final class MultiCloudLongMap<V> {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private long[] keys;
+    // null marks a free slot
+    private V[] values;
+    private int mask;
+    private int size;
+
+    MultiCloudLongMap() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    int size() {
+        return size;
+    }
+
+    V get(long key) {
+        for (int i = slot(key); values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return values[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Maps a key to a value, returning the value it was mapped to before, if any.
+     */
+    V put(long key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Value of key " + key + " is null");
+        }
+
+        int i = slot(key);
+        for (; values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                V previous = values[i];
+                values[i] = value;
+                return previous;
+            }
+        }
+        keys[i] = key;
+        values[i] = value;
+
+        // at most half of the slots are taken, so probes stay short
+        if (++size > values.length / 2) {
+            rehash(values.length * 2);
+        }
+        return null;
+    }
+
+    V remove(long key) {
+        for (int i = slot(key); values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                V previous = values[i];
+                delete(i);
+                return previous;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Removes all entries whose values match the given predicate.
+     */
+    void removeIf(Predicate<? super V> predicate) {
+        long[] removed = new long[size];
+        int count = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null && predicate.test(values[i])) {
+                removed[count++] = keys[i];
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            remove(removed[i]);
+        }
+    }
+
+    void forEach(EntryConsumer<? super V> consumer) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                consumer.accept(keys[i], values[i]);
+            }
+        }
+    }
+
+    /**
+     * Removes all entries, releasing the slots taken by them.
+     */
+    void clear() {
+        allocate(INITIAL_CAPACITY);
+        size = 0;
+    }
+
+    // entries which follow the deleted one in its probe sequence are moved back, unless their slot comes after it
+    private void delete(int free) {
+        for (int i = (free + 1) & mask; values[i] != null; i = (i + 1) & mask) {
+            if (((i - slot(keys[i])) & mask) >= ((i - free) & mask)) {
+                keys[free] = keys[i];
+                values[free] = values[i];
+                free = i;
+            }
+        }
+        values[free] = null;
+        size--;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        V[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null) {
+                int slot = slot(oldKeys[i]);
+                while (values[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = (V[]) new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * Consumer of entries, which takes their keys unboxed.
+     */
+    interface EntryConsumer<V> {
+        void accept(long key, V value);
+    }
+
+    // keys are often multiples of a step, so they are spread by a multiplicative hash
+    private int slot(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
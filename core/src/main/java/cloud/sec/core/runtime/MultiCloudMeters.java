@@ -0,0 +1,150 @@
+package cloud.sec.core.runtime;
+
+import cloud.sec.core.metrics.MultiCloudMetrics;
+import cloud.sec.core.metrics.MultiCloudProviderMetrics;
+import cloud.sec.core.metrics.MultiCloudTrace;
+import org.apache.calcite.DataContext;
+import org.apache.calcite.linq4j.AbstractEnumerable;
+import org.apache.calcite.linq4j.Enumerable;
+import org.apache.calcite.linq4j.Enumerator;
+
+/**
+ * Measures rows as they are read, called by generated code. Results are recorded into {@link MultiCloudMetrics},
+ * and into the {@link MultiCloudTrace} of the query if it is traced, once the rows are read to the end, fail,
+ * or are closed.
+ */
+public final class MultiCloudMeters {
+
+    private MultiCloudMeters() {
+    }
+
+    /**
+     * Measures execution of the query, from the moment its result is opened.
+     *
+     * @param rows    result of the query
+     * @param root    context of the query
+     * @param planned trace of planning of the query, or {@code null} if it was not traced
+     */
+    public static <T> Enumerable<T> executed(final Enumerable<T> rows, final DataContext root,
+                                             final MultiCloudTrace planned) {
+        return new AbstractEnumerable<T>() {
+            @Override
+            public Enumerator<T> enumerator() {
+                final MultiCloudTrace trace = MultiCloudTrace.start(root, planned);
+                return new MeteringEnumerator<T>(rows, false) {
+                    @Override
+                    void record(long rowCount, long byteCount, long latencyNanos, long fetchNanos, boolean failed) {
+                        MultiCloudMetrics.INSTANCE.getTimer(MultiCloudMetrics.Phase.EXECUTION).record(fetchNanos);
+                        if (trace != null) {
+                            trace.finish(root, rowCount, fetchNanos, failed);
+                        }
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Measures a fragment fetched from a provider: latency until the first row, number and estimated size
+     * of the rows, and time until the last row.
+     *
+     * @param rows     rows of the fragment
+     * @param provider name of the provider
+     * @param sql      SQL which reads the rows, qualified by the provider
+     * @param context  context of the query, or of one of its lookups
+     */
+    public static <T> Enumerable<T> fetched(final Enumerable<T> rows, final String provider, final String sql,
+                                            final DataContext context) {
+        return new AbstractEnumerable<T>() {
+            @Override
+            public Enumerator<T> enumerator() {
+                final MultiCloudProviderMetrics metrics = MultiCloudMetrics.INSTANCE.getProvider(provider);
+                final MultiCloudTrace trace = MultiCloudTrace.of(MultiCloudEnumerables.queryContext(context));
+                return new MeteringEnumerator<T>(rows, true) {
+                    @Override
+                    void record(long rowCount, long byteCount, long latencyNanos, long fetchNanos, boolean failed) {
+                        metrics.record(rowCount, byteCount, latencyNanos, fetchNanos, failed);
+                        if (trace != null) {
+                            trace.addFragment(provider, sql, rowCount, byteCount, latencyNanos, fetchNanos, failed);
+                        }
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Counts rows, and records them only once. Rows are opened when the enumerator is created, as providers execute
+     * their fragments at that point.
+     */
+    private abstract static class MeteringEnumerator<T> implements Enumerator<T> {
+        private final Enumerator<T> enumerator;
+        private final boolean isSized;
+        private final long start = System.nanoTime();
+
+        private long latencyNanos = -1;
+        private long rowCount = 0;
+        private long byteCount = 0;
+        private boolean isRecorded = false;
+
+        MeteringEnumerator(Enumerable<T> rows, boolean isSized) {
+            this.isSized = isSized;
+            try {
+                this.enumerator = rows.enumerator();
+            } catch (RuntimeException | Error e) {
+                end(true);
+                throw e;
+            }
+        }
+
+        abstract void record(long rowCount, long byteCount, long latencyNanos, long fetchNanos, boolean failed);
+
+        public T current() {
+            return enumerator.current();
+        }
+
+        public boolean moveNext() {
+            boolean hasNext;
+            try {
+                hasNext = enumerator.moveNext();
+            } catch (RuntimeException | Error e) {
+                end(true);
+                throw e;
+            }
+
+            if (!hasNext) {
+                end(false);
+                return false;
+            }
+            if (latencyNanos < 0) {
+                latencyNanos = System.nanoTime() - start;
+            }
+            rowCount++;
+            if (isSized) {
+                byteCount += MultiCloudFragmentCache.sizeOf(enumerator.current());
+            }
+            return true;
+        }
+
+        public void reset() {
+            enumerator.reset();
+        }
+
+        public void close() {
+            try {
+                enumerator.close();
+            } finally {
+                end(false);
+            }
+        }
+
+        private void end(boolean failed) {
+            if (isRecorded) {
+                return;
+            }
+            isRecorded = true;
+            long fetchNanos = System.nanoTime() - start;
+            record(rowCount, byteCount, latencyNanos < 0 ? fetchNanos : latencyNanos, fetchNanos, failed);
+        }
+    }
+}
@@ -0,0 +1,347 @@
+package cloud.sec.core.runtime;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Asynchronous execution of queries on a Calcite connection with multi-cloud schemas.
+ * <p>
+ * Queries are submitted with their parameters and run on an executor, by default {@link MultiCloudExecutor#queries()},
+ * which uses virtual threads when the JVM supports them, so queries waiting for their providers do not hold platform
+ * threads. Results are either whole, by a {@link CompletableFuture}, or streamed in batches of rows by
+ * a {@link Publisher}, which reads the next batch only once the subscriber requests it, and does not hold any thread
+ * while there is no demand.
+ * <p>
+ * Cancelling the future or the subscription cancels the statement and interrupts its thread, which stops fetches of
+ * the fragments; statements of the providers are cancelled by {@link java.sql.Statement#cancel}, including those which
+ * have not returned their first row yet, and closed once their fetch stops. Providers whose schema names its own
+ * {@code dataSource} do not report their statements, so theirs are only closed once they return their first row,
+ * unless a query timeout is set on the statement, which providers get as well.
+ * <p>
+ * A connection can run several queries at once, but statements of a connection are not isolated from each other,
+ * so connections are usually taken from a pool, one per query.
+ */
+public final class MultiCloudQueries {
+    private static final Logger logger = LoggerFactory.getLogger(MultiCloudQueries.class);
+
+    private final Executor executor;
+
+    public MultiCloudQueries() {
+        this(MultiCloudExecutor.queries());
+    }
+
+    public MultiCloudQueries(Executor executor) {
+        this.executor = Objects.requireNonNull(executor, "executor");
+    }
+
+    /**
+     * Runs a query, completing with all its rows. Cancelling the returned future cancels the query.
+     */
+    public CompletableFuture<List<Object[]>> query(Connection connection, String sql, Object... parameters) {
+        return submit(connection, sql, parameters, statement -> {
+            List<Object[]> rows = new ArrayList<>();
+            try (ResultSet results = statement.executeQuery()) {
+                int columns = results.getMetaData().getColumnCount();
+                while (results.next()) {
+                    rows.add(row(results, columns));
+                }
+            }
+            return rows;
+        });
+    }
+
+    /**
+     * Runs a modification, completing with the number of affected rows. Cancelling the returned future cancels
+     * the modification, but fragments which were already written stay written.
+     */
+    public CompletableFuture<Long> update(Connection connection, String sql, Object... parameters) {
+        return submit(connection, sql, parameters, statement -> (long) statement.executeUpdate());
+    }
+
+    /**
+     * Returns a publisher of rows of a query, in batches of up to the given number of rows. The query runs once
+     * a subscriber subscribes, and every subscriber runs it again.
+     */
+    public Publisher<List<Object[]>> publish(Connection connection, String sql, int batchSize, Object... parameters) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size " + batchSize + " is not positive");
+        }
+        return subscriber -> new BatchSubscription(connection, sql, parameters, batchSize,
+                Objects.requireNonNull(subscriber, "subscriber")).start();
+    }
+
+    private <T> CompletableFuture<T> submit(Connection connection, String sql, Object[] parameters,
+                                            StatementFunction<T> function) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Execution execution = new Execution();
+        future.whenComplete((result, error) -> {
+            if (error instanceof CancellationException) {
+                execution.cancel();
+            }
+        });
+
+        executor.execute(() -> {
+            if (!execution.enter()) {
+                return;
+            }
+            try {
+                future.complete(function.apply(execution.prepare(connection, sql, parameters)));
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            } finally {
+                execution.close();
+                execution.exit();
+            }
+        });
+        return future;
+    }
+
+    private static Object[] row(ResultSet results, int columns) throws SQLException {
+        Object[] row = new Object[columns];
+        for (int i = 0; i < columns; i++) {
+            row[i] = results.getObject(i + 1);
+        }
+        return row;
+    }
+
+    private interface StatementFunction<T> {
+        T apply(PreparedStatement statement) throws SQLException;
+    }
+
+    /**
+     * The statement of a query and the thread running it, if any, so the query can be cancelled from any thread.
+     */
+    private static class Execution {
+        private PreparedStatement statement;
+        private Thread thread;
+        private boolean isCancelled;
+
+        /**
+         * Marks the current thread as the one running the query. Returns {@code false} if it was cancelled.
+         */
+        synchronized boolean enter() {
+            if (isCancelled) {
+                return false;
+            }
+            thread = Thread.currentThread();
+            return true;
+        }
+
+        /**
+         * Marks the query as no longer run by the current thread, unless another thread runs it meanwhile.
+         */
+        synchronized void exit() {
+            if (thread != Thread.currentThread()) {
+                return;
+            }
+            thread = null;
+            // an interrupt of a cancel which came too late must not reach the next task of the thread
+            Thread.interrupted();
+        }
+
+        PreparedStatement prepare(Connection connection, String sql, Object[] parameters) throws SQLException {
+            // the query is planned without the lock, so it can be cancelled meanwhile
+            PreparedStatement prepared = connection.prepareStatement(sql);
+            synchronized (this) {
+                if (isCancelled) {
+                    prepared.close();
+                    throw new CancellationException("Query was cancelled");
+                }
+                statement = prepared;
+            }
+            for (int i = 0; i < parameters.length; i++) {
+                prepared.setObject(i + 1, parameters[i]);
+            }
+            return prepared;
+        }
+
+        synchronized boolean isCancelled() {
+            return isCancelled;
+        }
+
+        synchronized void cancel() {
+            if (isCancelled) {
+                return;
+            }
+            isCancelled = true;
+            if (thread == null) {
+                close(); // nobody is reading the statement
+                return;
+            }
+            if (statement != null) {
+                try {
+                    statement.cancel();
+                } catch (SQLException e) {
+                    logger.warn("Cannot cancel statement", e);
+                }
+            }
+            thread.interrupt();
+        }
+
+        synchronized void close() {
+            if (statement == null) {
+                return;
+            }
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                logger.warn("Cannot close statement", e);
+            }
+            statement = null;
+        }
+    }
+
+    /**
+     * Subscription to batches of rows, which reads the next batch on the executor only while the subscriber demands
+     * one. Batches are read one at a time, so the subscriber is called by one thread at a time.
+     */
+    private class BatchSubscription implements Subscription {
+        private final Connection connection;
+        private final String sql;
+        private final Object[] parameters;
+        private final int batchSize;
+        private final Subscriber<? super List<Object[]>> subscriber;
+
+        private final Execution execution = new Execution();
+        private final AtomicLong demand = new AtomicLong();
+
+        // accessed by the thread reading batches only
+        private ResultSet results;
+        private int columns;
+        private boolean isDone;
+
+        BatchSubscription(Connection connection, String sql, Object[] parameters, int batchSize,
+                          Subscriber<? super List<Object[]>> subscriber) {
+            this.connection = connection;
+            this.sql = sql;
+            this.parameters = parameters;
+            this.batchSize = batchSize;
+            this.subscriber = subscriber;
+        }
+
+        void start() {
+            subscriber.onSubscribe(this);
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                cancel();
+                subscriber.onError(new IllegalArgumentException("Requested " + n + " batches"));
+                return;
+            }
+            // only the request which creates demand starts reading, and reading stops when there is none
+            if (demand.getAndUpdate(d -> d + n < 0 ? Long.MAX_VALUE : d + n) == 0) {
+                executor.execute(this::read);
+            }
+        }
+
+        @Override
+        public void cancel() {
+            execution.cancel();
+        }
+
+        private void read() {
+            if (!execution.enter()) {
+                return;
+            }
+            try {
+                long requested = demand.get();
+                while (!isDone) {
+                    long emitted = 0;
+                    while (emitted < requested && !isDone) {
+                        next();
+                        emitted++;
+                    }
+                    requested = demand.addAndGet(-emitted);
+                    if (requested == 0) {
+                        break;
+                    }
+                }
+            } finally {
+                execution.exit();
+            }
+        }
+
+        // hands over the next batch, or the end of rows
+        private void next() {
+            List<Object[]> batch = new ArrayList<>(batchSize);
+            try {
+                if (results == null) {
+                    results = execution.prepare(connection, sql, parameters).executeQuery();
+                    columns = results.getMetaData().getColumnCount();
+                }
+                while (batch.size() < batchSize && results.next()) {
+                    batch.add(row(results, columns));
+                }
+            } catch (Throwable e) {
+                finish();
+                if (!execution.isCancelled()) {
+                    subscriber.onError(e);
+                }
+                return;
+            }
+
+            if (execution.isCancelled()) {
+                finish();
+                return;
+            }
+            if (!batch.isEmpty()) {
+                subscriber.onNext(batch);
+            }
+            if (batch.size() < batchSize) {
+                finish();
+                subscriber.onComplete();
+            }
+        }
+
+        private void finish() {
+            isDone = true;
+            execution.close();
+        }
+    }
+
+    //~ Reactive streams ---------------------------------------------
+
+    /**
+     * A publisher of items, with the contract of {@code java.util.concurrent.Flow.Publisher}, which is not
+     * available in Java 8, so it is adapted to any reactive streams library by a method reference.
+     */
+    public interface Publisher<T> {
+        void subscribe(Subscriber<? super T> subscriber);
+    }
+
+    /**
+     * A subscriber of items, with the contract of {@code java.util.concurrent.Flow.Subscriber}.
+     */
+    public interface Subscriber<T> {
+        void onSubscribe(Subscription subscription);
+
+        void onNext(T item);
+
+        void onError(Throwable error);
+
+        void onComplete();
+    }
+
+    /**
+     * A subscription, with the contract of {@code java.util.concurrent.Flow.Subscription}.
+     */
+    public interface Subscription {
+        void request(long n);
+
+        void cancel();
+    }
+}
@@ -0,0 +1,415 @@
+package cloud.sec.core.runtime;
+
+import org.apache.calcite.DataContext;
+import org.apache.calcite.jdbc.CalciteConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rows of fragments partitioned by hashes of their keys into temporary files, so fragments which do not fit into
+ * memory are joined one partition at a time (grace hash join). Every partition of every fragment is written to its
+ * own file, sequentially, and read back once.
+ * <p>
+ * Hash reassembly spills its rows once the rows waiting for their parts take more than
+ * {@value #MEMORY_BYTES_PROPERTY} bytes, as estimated by {@link MultiCloudFragmentCache#sizeOf}, a quarter of the
+ * heap by default. The budget is a property of the connection running the query, or else of the JVM. A partition
+ * which takes more than the budget itself is re-partitioned before it is joined, by another hash of its keys, and so
+ * on, up to {@value #MAX_DEPTH} times. Files are created in {@value #DIRECTORY_PROPERTY}, the temporary directory by
+ * default, and deleted once the reassembly is closed.
+ * <p>
+ * Not thread-safe.
+ */
+final class MultiCloudSpill implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(MultiCloudSpill.class);
+
+    static final String MEMORY_BYTES_PROPERTY = "cloudsec.reassembly.memory.bytes";
+    static final String DIRECTORY_PROPERTY = "cloudsec.reassembly.spill.dir";
+
+    static final int PARTITIONS = 64;
+
+    // times a partition is re-partitioned at most, as keys whose hashes collide in every hash are not split anyway
+    static final int MAX_DEPTH = 4;
+
+    // type tags of values
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte INTEGER = 2;
+    private static final byte LONG = 3;
+    private static final byte SHORT = 4;
+    private static final byte BYTE = 5;
+    private static final byte DOUBLE = 6;
+    private static final byte FLOAT = 7;
+    private static final byte BOOLEAN = 8;
+    private static final byte DECIMAL = 9;
+    private static final byte BYTES = 10;
+    private static final byte SERIALIZED = 11;
+
+    private final File directory;
+    private final String prefix; // of files of this spill, which re-partitions are nested in
+    private final int depth;
+    private final long seed;
+    private final DataOutputStream[][] outputs;
+    private final long[] rows = new long[PARTITIONS];
+    private final long[] bytes = new long[PARTITIONS];
+    private int nextPartition;
+
+    MultiCloudSpill(int fragments) {
+        this(createDirectory(), "", 0, fragments);
+        logger.debug("Spilling fragments to {}", directory);
+    }
+
+    private MultiCloudSpill(File directory, String prefix, int depth, int fragments) {
+        this.directory = directory;
+        this.prefix = prefix;
+        this.depth = depth;
+        this.seed = depth * 0x9E3779B97F4A7C15L;
+        this.outputs = new DataOutputStream[PARTITIONS][fragments];
+    }
+
+    private static File createDirectory() {
+        String parent = System.getProperty(DIRECTORY_PROPERTY);
+        try {
+            return (parent == null ? Files.createTempDirectory("multicloud-spill")
+                    : Files.createTempDirectory(new File(parent).toPath(), "multicloud-spill")).toFile();
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot create directory for spilled fragments", e);
+        }
+    }
+
+    /**
+     * Returns the memory budget of a reassembly of a query, from the {@value #MEMORY_BYTES_PROPERTY} property of
+     * the connection running it, or of the JVM.
+     */
+    static long memoryBytes(DataContext root) {
+        String memoryBytes = null;
+        if (root != null && root.getQueryProvider() instanceof CalciteConnection) {
+            memoryBytes = ((CalciteConnection) root.getQueryProvider()).getProperties()
+                    .getProperty(MEMORY_BYTES_PROPERTY);
+        }
+        if (memoryBytes == null) {
+            memoryBytes = System.getProperty(MEMORY_BYTES_PROPERTY);
+        }
+        if (memoryBytes == null) {
+            return Runtime.getRuntime().maxMemory() / 4;
+        }
+        try {
+            return Long.parseLong(memoryBytes.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + MEMORY_BYTES_PROPERTY + ": " + memoryBytes, e);
+        }
+    }
+
+    /**
+     * Returns the partition of a row of a batch.
+     */
+    int partition(MultiCloudFetch.Batch batch, int row) {
+        return batch.isLongKey(row) ? partition(batch.longKey(row)) : partition(batch.key(row));
+    }
+
+    int partition(long key) {
+        // top bits of a hash seeded by the depth, so keys of a re-partitioned partition do not collide again
+        long hash = key + seed;
+        hash = (hash ^ (hash >>> 33)) * 0xFF51AFD7ED558CCDL;
+        hash = (hash ^ (hash >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return (int) ((hash ^ (hash >>> 33)) >>> 58);
+    }
+
+    int partition(Object key) {
+        return key instanceof Long ? partition((long) (Long) key) : partition((long) key.hashCode());
+    }
+
+    /**
+     * Writes a row of a fragment to a partition.
+     */
+    void write(int partition, int fragment, Object[] row) {
+        try {
+            DataOutputStream output = outputs[partition][fragment];
+            if (output == null) {
+                output = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(file(partition, fragment))));
+                outputs[partition][fragment] = output;
+            }
+            output.writeInt(row.length);
+            for (Object value : row) {
+                writeValue(output, value);
+            }
+            rows[partition]++;
+            bytes[partition] += MultiCloudFragmentCache.sizeOf(row);
+        } catch (IOException e) {
+            throw new RuntimeException("Spilling fragment " + fragment + " failed", e);
+        }
+    }
+
+    /**
+     * Returns the next partition which has any rows, or -1 if all of them were returned.
+     */
+    int nextPartition() {
+        while (nextPartition < PARTITIONS && rows[nextPartition] == 0) {
+            nextPartition++;
+        }
+        return nextPartition < PARTITIONS ? nextPartition++ : -1;
+    }
+
+    /**
+     * Returns whether rows of a partition take more memory than the budget, and should be re-partitioned before
+     * they are joined. A partition with no more rows than fragments may hold a single key, so it is never split.
+     */
+    boolean exceeds(int partition, long memoryBytes) {
+        return bytes[partition] > memoryBytes && rows[partition] > outputs[partition].length && depth < MAX_DEPTH;
+    }
+
+    /**
+     * Moves rows of a partition, whose fragments have keys at the given positions, to partitions of a new spill,
+     * by another hash of their keys.
+     */
+    MultiCloudSpill repartition(int partition, int[] keys) {
+        MultiCloudSpill spill = new MultiCloudSpill(directory, prefix + partition + ".", depth + 1,
+                outputs[partition].length);
+        logger.debug("Re-partitioning partition {}{} of {} bytes", prefix, partition, bytes[partition]);
+        for (int fragment = 0; fragment < keys.length; fragment++) {
+            try (Reader reader = read(partition, fragment, keys[fragment])) {
+                MultiCloudFetch.Batch batch;
+                while ((batch = reader.next()) != null) {
+                    for (int row = 0; row < batch.size(); row++) {
+                        spill.write(spill.partition(batch, row), fragment, batch.rows.get(row));
+                    }
+                }
+            }
+        }
+        delete(partition);
+        return spill;
+    }
+
+    /**
+     * Reads rows of a fragment written to a partition, in batches with keys at the given position.
+     * Writing has to be finished by then.
+     */
+    Reader read(int partition, int fragment, int key) {
+        try {
+            DataOutputStream output = outputs[partition][fragment];
+            if (output != null) {
+                output.close();
+                outputs[partition][fragment] = null;
+            }
+            File file = file(partition, fragment);
+            return new Reader(fragment, key, file.exists()
+                    ? new DataInputStream(new BufferedInputStream(new FileInputStream(file))) : null);
+        } catch (IOException e) {
+            throw new RuntimeException("Reading spilled fragment " + fragment + " failed", e);
+        }
+    }
+
+    /**
+     * Deletes files of a partition once it is joined.
+     */
+    void delete(int partition) {
+        for (int fragment = 0; fragment < outputs[partition].length; fragment++) {
+            closeQuietly(outputs[partition][fragment]);
+            outputs[partition][fragment] = null;
+            if (!file(partition, fragment).delete() && file(partition, fragment).exists()) {
+                logger.warn("Cannot delete spilled fragment {}", file(partition, fragment));
+            }
+        }
+    }
+
+    /**
+     * Deletes files of all partitions, and the directory unless the spill re-partitions another one, in which case
+     * it has to be closed before that one.
+     */
+    @Override
+    public void close() {
+        for (int partition = 0; partition < PARTITIONS; partition++) {
+            delete(partition);
+        }
+        if (depth == 0 && !directory.delete()) {
+            logger.warn("Cannot delete directory of spilled fragments {}", directory);
+        }
+    }
+
+    private File file(int partition, int fragment) {
+        return new File(directory, prefix + partition + "-" + fragment);
+    }
+
+    private static void closeQuietly(DataOutputStream output) {
+        if (output != null) {
+            try {
+                output.close();
+            } catch (IOException e) {
+                logger.warn("Cannot close spilled fragment", e);
+            }
+        }
+    }
+
+    // values are written with tags of their types, which covers what JDBC enumerables return, and are serialized
+    // otherwise
+    private static void writeValue(DataOutputStream output, Object value) throws IOException {
+        if (value == null) {
+            output.writeByte(NULL);
+        } else if (value instanceof String) {
+            byte[] bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+            output.writeByte(STRING);
+            output.writeInt(bytes.length);
+            output.write(bytes);
+        } else if (value instanceof Integer) {
+            output.writeByte(INTEGER);
+            output.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            output.writeByte(LONG);
+            output.writeLong((Long) value);
+        } else if (value instanceof Short) {
+            output.writeByte(SHORT);
+            output.writeShort((Short) value);
+        } else if (value instanceof Byte) {
+            output.writeByte(BYTE);
+            output.writeByte((Byte) value);
+        } else if (value instanceof Double) {
+            output.writeByte(DOUBLE);
+            output.writeDouble((Double) value);
+        } else if (value instanceof Float) {
+            output.writeByte(FLOAT);
+            output.writeFloat((Float) value);
+        } else if (value instanceof Boolean) {
+            output.writeByte(BOOLEAN);
+            output.writeBoolean((Boolean) value);
+        } else if (value instanceof BigDecimal) {
+            byte[] unscaled = ((BigDecimal) value).unscaledValue().toByteArray();
+            output.writeByte(DECIMAL);
+            output.writeInt(((BigDecimal) value).scale());
+            output.writeInt(unscaled.length);
+            output.write(unscaled);
+        } else if (value instanceof byte[]) {
+            output.writeByte(BYTES);
+            output.writeInt(((byte[]) value).length);
+            output.write((byte[]) value);
+        } else {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream objects = new ObjectOutputStream(bytes)) {
+                objects.writeObject(value);
+            }
+            output.writeByte(SERIALIZED);
+            output.writeInt(bytes.size());
+            bytes.writeTo(output);
+        }
+    }
+
+    private static Object readValue(DataInputStream input) throws IOException {
+        byte tag = input.readByte();
+        switch (tag) {
+        case NULL:
+            return null;
+        case STRING:
+            return new String(readBytes(input), StandardCharsets.UTF_8);
+        case INTEGER:
+            return input.readInt();
+        case LONG:
+            return input.readLong();
+        case SHORT:
+            return input.readShort();
+        case BYTE:
+            return input.readByte();
+        case DOUBLE:
+            return input.readDouble();
+        case FLOAT:
+            return input.readFloat();
+        case BOOLEAN:
+            return input.readBoolean();
+        case DECIMAL:
+            int scale = input.readInt();
+            return new BigDecimal(new BigInteger(readBytes(input)), scale);
+        case BYTES:
+            return readBytes(input);
+        case SERIALIZED:
+            try (ObjectInputStream objects = new ObjectInputStream(new ByteArrayInputStream(readBytes(input)))) {
+                return objects.readObject();
+            } catch (ClassNotFoundException e) {
+                throw new IOException("Cannot read spilled value", e);
+            }
+        default:
+            throw new IOException("Unknown type of spilled value " + tag);
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream input) throws IOException {
+        byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * Rows of a partition of a fragment, read back in batches.
+     */
+    static final class Reader implements AutoCloseable {
+        private final int fragment;
+        private final int key;
+        private DataInputStream input;
+
+        private Reader(int fragment, int key, DataInputStream input) {
+            this.fragment = fragment;
+            this.key = key;
+            this.input = input;
+        }
+
+        /**
+         * Returns the next batch, or {@code null} if all rows were read.
+         */
+        MultiCloudFetch.Batch next() {
+            if (input == null) {
+                return null;
+            }
+
+            List<Object[]> rows = new ArrayList<>(MultiCloudFetch.BATCH_SIZE);
+            try {
+                while (rows.size() < MultiCloudFetch.BATCH_SIZE) {
+                    int width;
+                    try {
+                        width = input.readInt();
+                    } catch (EOFException e) {
+                        close();
+                        break;
+                    }
+                    Object[] row = new Object[width];
+                    for (int i = 0; i < width; i++) {
+                        row[i] = readValue(input);
+                    }
+                    rows.add(row);
+                }
+            } catch (IOException e) {
+                close();
+                throw new RuntimeException("Reading spilled fragment " + fragment + " failed", e);
+            }
+            return rows.isEmpty() ? null : MultiCloudFetch.Batch.of(fragment, rows, key);
+        }
+
+        @Override
+        public void close() {
+            if (input != null) {
+                try {
+                    input.close();
+                } catch (IOException e) {
+                    logger.warn("Cannot close spilled fragment", e);
+                }
+                input = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package cloud.sec.core.runtime;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Statements of providers created while fragments are opened, so a fetch which is closed can cancel statements
+ * which have not returned their first row yet, and which thus do not notice an interrupt of their thread.
+ * <p>
+ * Data sources of providers pass their connections through {@link #watch}, which reports statements created on
+ * a thread opening a fragment, and leaves connections of any other thread as they are.
+ */
+public final class MultiCloudStatements {
+    private static final ThreadLocal<Consumer<Statement>> LISTENER = new ThreadLocal<>();
+
+    private MultiCloudStatements() {
+    }
+
+    /**
+     * Returns the connection, reporting statements it creates if the current thread is opening a fragment.
+     */
+    public static Connection watch(Connection connection) {
+        Consumer<Statement> listener = LISTENER.get();
+        if (listener == null) {
+            return connection;
+        }
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, arguments) -> {
+                    Object result;
+                    try {
+                        result = method.invoke(connection, arguments);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                    if (result instanceof Statement) {
+                        listener.accept((Statement) result);
+                    }
+                    return result;
+                });
+    }
+
+    /**
+     * Opens a fragment on the current thread, reporting statements of providers it creates to the listener.
+     */
+    static <T> T opening(Consumer<Statement> listener, Supplier<T> fragment) {
+        Consumer<Statement> previous = LISTENER.get();
+        LISTENER.set(listener);
+        try {
+            return fragment.get();
+        } finally {
+            if (previous == null) {
+                LISTENER.remove();
+            } else {
+                LISTENER.set(previous);
+            }
+        }
+    }
+}
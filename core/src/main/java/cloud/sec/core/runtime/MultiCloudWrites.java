@@ -0,0 +1,370 @@
+package cloud.sec.core.runtime;
+
+import cloud.sec.core.catalog.MultiCloudTable;
+import org.apache.calcite.linq4j.AbstractEnumerable;
+import org.apache.calcite.linq4j.Enumerable;
+import org.apache.calcite.linq4j.Enumerator;
+import org.apache.calcite.linq4j.Linq4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Writes of rows of a logical table into its fragments, called by generated code.
+ * <p>
+ * Every fragment is written through its own connection by a prepared statement, whose parameters are taken from
+ * fields of each row. Rows are sent in JDBC batches of {@value #BATCH_SIZE_PROPERTY} rows (1000 by default),
+ * and batches of all fragments are executed concurrently on {@link MultiCloudExecutor#writes()}. Rows of a sharded
+ * table are written only into fragments of their shard.
+ * <p>
+ * Keys of inserted rows are reserved in blocks of {@value #KEY_BLOCK_SIZE_PROPERTY} keys (1000 by default) from
+ * the {@value #KEYS_TABLE} table next to the first fragment, in the same catalog and schema of its provider, which is
+ * created if it does not exist, and which holds the last reserved key of every logical table. Blocks are reserved in
+ * transactions of the provider, so processes writing the same table never get the same keys. The first block of
+ * a table continues from the greatest key found in any of its fragments. Keys of a block which are not used by
+ * the time the process ends are never used.
+ * <p>
+ * Fragments are committed once all of them are written, and rolled back if any of them fails, once batches of all of
+ * them have finished. Providers do not share a transaction though, so a failure while committing may leave fragments
+ * out of sync.
+ */
+public final class MultiCloudWrites {
+    private static final Logger logger = LoggerFactory.getLogger(MultiCloudWrites.class);
+
+    public static final String BATCH_SIZE_PROPERTY = "cloudsec.write.batch.size";
+
+    public static final String KEY_BLOCK_SIZE_PROPERTY = "cloudsec.write.key.block.size";
+
+    /**
+     * Table next to the first fragment of every logical table, which holds the last reserved key of it.
+     */
+    public static final String KEYS_TABLE = "multicloud_keys";
+
+    private static final int BATCH_SIZE = Integer.getInteger(BATCH_SIZE_PROPERTY, 1000);
+    private static final int KEY_BLOCK_SIZE = Integer.getInteger(KEY_BLOCK_SIZE_PROPERTY, 1000);
+
+    // keys reserved for rows of each logical table, by the provider and the table they are reserved in as well,
+    // as models of other connections may fragment a table of the same name differently
+    private static final Map<List<Object>, Keys> KEYS = new ConcurrentHashMap<>();
+
+    private MultiCloudWrites() {
+    }
+
+    /**
+     * Forgets keys reserved by this process, so the next insert reserves a new block. Keys which were reserved are
+     * never used; this is only needed once providers are created anew, as by benchmarks and tests.
+     */
+    public static void forgetKeys() {
+        KEYS.clear();
+    }
+
+    /**
+     * Writes rows into fragments when enumerated, and returns the number of written rows.
+     *
+     * @param rows        rows to write
+     * @param dataSources data sources of the providers of the fragments
+     * @param sqls        statement writing each fragment
+     * @param parameters  fields of a row which are set as parameters of the statement of each fragment
+     * @param table       name of the table whose keys are generated, in which case the key is appended to every
+     *                    row, or {@code null} if rows hold their keys
+     * @param keysTable   name of the {@value #KEYS_TABLE} table in the provider of the first fragment, as the
+     *                    provider expects it, if keys are generated
+     * @param maxKeySqls  statements selecting the greatest key of each fragment, if keys are generated
+     */
+    public static Enumerable<Long> write(final Enumerable<Object[]> rows, final DataSource[] dataSources,
+                                         final String[] sqls, final int[][] parameters, final String table,
+                                         final String keysTable, final String[] maxKeySqls) {
+        return write(rows, dataSources, sqls, parameters, table, keysTable, maxKeySqls, null, -1, null, null);
+    }
+
+    /**
+     * Writes rows into fragments of a sharded table when enumerated, each row only into fragments of the shard
+     * which holds it, and returns the number of written rows.
+     *
+     * @param shards      shard of each fragment, or {@code null} if every row is written into all fragments
+     * @param shardKey    field of a row holding its shard key
+     * @param sharding    how rows are divided into shards
+     * @param upperBounds upper bounds of range shards
+     * @see #write(Enumerable, DataSource[], String[], int[][], String, String, String[])
+     */
+    public static Enumerable<Long> write(final Enumerable<Object[]> rows, final DataSource[] dataSources,
+                                         final String[] sqls, final int[][] parameters, final String table,
+                                         final String keysTable, final String[] maxKeySqls, final int[] shards,
+                                         final int shardKey, final MultiCloudTable.Sharding sharding,
+                                         final long[] upperBounds) {
+        return new AbstractEnumerable<Long>() {
+            public Enumerator<Long> enumerator() {
+                Keys keys = table == null ? null : KEYS.computeIfAbsent(
+                        Arrays.asList(table, dataSources[0], keysTable),
+                        key -> new Keys(table, keysTable, dataSources, maxKeySqls));
+                return Linq4j.singletonEnumerator(write(rows, dataSources, sqls, parameters, keys,
+                        shards, shardKey, sharding, upperBounds));
+            }
+        };
+    }
+
+    private static long write(Enumerable<Object[]> rows, DataSource[] dataSources, String[] sqls,
+                              int[][] parameters, Keys keys, int[] shards, int shardKey,
+                              MultiCloudTable.Sharding sharding, long[] upperBounds) {
+        int shardCount = 0;
+        if (shards != null) {
+            for (int shard : shards) {
+                shardCount = Math.max(shardCount, shard + 1);
+            }
+        }
+
+        Connection[] connections = new Connection[dataSources.length];
+        PreparedStatement[] statements = new PreparedStatement[dataSources.length];
+        try {
+            for (int i = 0; i < dataSources.length; i++) {
+                connections[i] = dataSources[i].getConnection();
+                connections[i].setAutoCommit(false);
+                statements[i] = connections[i].prepareStatement(sqls[i]);
+            }
+
+            long rowCount = 0;
+            int batchSize = 0;
+            try (Enumerator<Object[]> enumerator = rows.enumerator()) {
+                while (enumerator.moveNext()) {
+                    Object[] row = enumerator.current();
+                    if (keys != null) {
+                        row = Arrays.copyOf(row, row.length + 1);
+                        row[row.length - 1] = keys.next();
+                    }
+
+                    int shard = shards == null ? -1
+                            : MultiCloudTable.shardOf(row[shardKey], sharding, upperBounds, shardCount);
+                    for (int i = 0; i < statements.length; i++) {
+                        if (shards != null && shards[i] != shard) {
+                            continue;
+                        }
+                        for (int j = 0; j < parameters[i].length; j++) {
+                            statements[i].setObject(j + 1, row[parameters[i][j]]);
+                        }
+                        statements[i].addBatch();
+                    }
+
+                    rowCount++;
+                    if (++batchSize == BATCH_SIZE) {
+                        executeBatches(statements);
+                        batchSize = 0;
+                    }
+                }
+            }
+            if (batchSize > 0) {
+                executeBatches(statements);
+            }
+
+            for (Connection connection : connections) {
+                connection.commit();
+            }
+            return rowCount;
+        } catch (SQLException | RuntimeException e) {
+            rollback(connections);
+            if (e instanceof RuntimeException) {
+                throw (RuntimeException) e;
+            }
+            throw new RuntimeException("Writing fragments failed", e);
+        } finally {
+            close(connections);
+        }
+    }
+
+    /**
+     * Executes batches of all fragments concurrently, on threads of their own, as rows to write may be read by
+     * fetches on the fetch executor meanwhile.
+     * <p>
+     * Connections of the fragments are rolled back and closed once a batch fails, so batches of all fragments are
+     * waited for before the first failure is thrown, even if the thread is interrupted meanwhile.
+     */
+    static void executeBatches(PreparedStatement[] statements) {
+        List<Future<int[]>> results = new ArrayList<>();
+        for (PreparedStatement statement : statements) {
+            results.add(MultiCloudExecutor.writes().submit(statement::executeBatch));
+        }
+
+        Throwable failure = null;
+        boolean isInterrupted = false;
+        for (int i = 0; i < results.size(); i++) {
+            while (true) {
+                try {
+                    results.get(i).get();
+                    break;
+                } catch (InterruptedException e) {
+                    if (!isInterrupted && failure == null) {
+                        failure = new RuntimeException("Interrupted while writing fragment " + i, e);
+                    }
+                    isInterrupted = true;
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        Throwable cause = e.getCause();
+                        failure = cause instanceof RuntimeException || cause instanceof Error
+                                ? cause : new RuntimeException("Writing fragment " + i + " failed", cause);
+                    }
+                    break;
+                }
+            }
+        }
+
+        if (isInterrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        if (failure != null) {
+            throw (RuntimeException) failure;
+        }
+    }
+
+    private static void rollback(Connection[] connections) {
+        for (Connection connection : connections) {
+            if (connection != null) {
+                try {
+                    connection.rollback();
+                } catch (SQLException e) {
+                    logger.warn("Rolling back a fragment failed", e);
+                }
+            }
+        }
+    }
+
+    private static void close(Connection[] connections) {
+        for (Connection connection : connections) {
+            if (connection != null) {
+                try {
+                    connection.close(); // closes its statements as well
+                } catch (SQLException e) {
+                    logger.warn("Closing a fragment connection failed", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Keys of a logical table, reserved in blocks from {@value #KEYS_TABLE}.
+     */
+    private static class Keys {
+        private final String table;
+        private final String keysTable;
+        private final DataSource dataSource;
+        private final DataSource[] dataSources;
+        private final String[] maxKeySqls;
+
+        // next key to give, and the last key of the reserved block, guarded by this
+        private long next = 1;
+        private long last = 0;
+
+        Keys(String table, String keysTable, DataSource[] dataSources, String[] maxKeySqls) {
+            this.table = table;
+            this.keysTable = keysTable;
+            this.dataSource = dataSources[0];
+            this.dataSources = dataSources;
+            this.maxKeySqls = maxKeySqls;
+        }
+
+        synchronized long next() {
+            if (next > last) {
+                last = reserve();
+                next = last - KEY_BLOCK_SIZE + 1;
+            }
+            return next++;
+        }
+
+        /**
+         * Reserves the next block of keys, returning its last key. The row of the table is locked by the update
+         * until the transaction ends, so other processes reserve their blocks after this one.
+         */
+        private long reserve() {
+            try (Connection connection = dataSource.getConnection()) {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("CREATE TABLE IF NOT EXISTS " + keysTable
+                            + " (logical_table VARCHAR(255) NOT NULL PRIMARY KEY, last_key BIGINT NOT NULL)");
+                }
+
+                connection.setAutoCommit(false);
+                try {
+                    long lastKey = update(connection);
+                    if (lastKey < 0) {
+                        SQLException error = insert(connection);
+                        lastKey = update(connection);
+                        if (lastKey < 0) {
+                            throw error != null ? error : new SQLException("No keys of " + table + " in " + keysTable);
+                        }
+                    }
+                    connection.commit();
+                    logger.debug("Reserved keys of " + table + " up to " + lastKey);
+                    return lastKey;
+                } catch (SQLException | RuntimeException e) {
+                    connection.rollback();
+                    throw e;
+                }
+            } catch (SQLException e) {
+                throw new RuntimeException("Reserving keys of " + table + " failed", e);
+            }
+        }
+
+        // moves the last key of the table by a block, returning it, or -1 if the table has no row yet
+        private long update(Connection connection) throws SQLException {
+            try (PreparedStatement update = connection.prepareStatement("UPDATE " + keysTable
+                    + " SET last_key = last_key + ? WHERE logical_table = ?")) {
+                update.setLong(1, KEY_BLOCK_SIZE);
+                update.setString(2, table);
+                if (update.executeUpdate() == 0) {
+                    return -1;
+                }
+            }
+            try (PreparedStatement select = connection.prepareStatement("SELECT last_key FROM " + keysTable
+                    + " WHERE logical_table = ?")) {
+                select.setString(1, table);
+                try (ResultSet resultSet = select.executeQuery()) {
+                    resultSet.next();
+                    return resultSet.getLong(1);
+                }
+            }
+        }
+
+        /**
+         * Adds the row of the table, continuing from the greatest key in any of its fragments. Returns the error of
+         * adding it, as another process may have added it meanwhile, which the update then finds.
+         */
+        private SQLException insert(Connection connection) throws SQLException {
+            long maxKey = 0;
+            for (int i = 0; i < dataSources.length; i++) {
+                try (Connection fragment = dataSources[i].getConnection();
+                     Statement statement = fragment.createStatement();
+                     ResultSet resultSet = statement.executeQuery(maxKeySqls[i])) {
+                    if (resultSet.next()) {
+                        maxKey = Math.max(maxKey, resultSet.getLong(1));
+                    }
+                }
+            }
+
+            Savepoint savepoint = connection.setSavepoint();
+            try (PreparedStatement insert = connection.prepareStatement("INSERT INTO " + keysTable
+                    + " (logical_table, last_key) VALUES (?, ?)")) {
+                insert.setString(1, table);
+                insert.setLong(2, maxKey);
+                insert.executeUpdate();
+                return null;
+            } catch (SQLException e) {
+                connection.rollback(savepoint);
+                return e;
+            }
+        }
+    }
+}
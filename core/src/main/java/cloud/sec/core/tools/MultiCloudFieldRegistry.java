@@ -0,0 +1,107 @@
+package cloud.sec.core.tools;
+
+import cloud.sec.core.adapter.jdbc.MultiCloudField;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry which interns fields into dense integer ids, so sets of fields can be kept as bitsets.
+ * <p>
+ * Fields of tables declared in {@link cloud.sec.core.catalog.MultiCloudCatalog} are interned when the tables are
+ * registered, fields of any other table the first time the table is scanned. Ids are never reused, and every id
+ * stands for a single {@link MultiCloudField} instance shared by all queries.
+ * Lookups are lock-free; interning new fields is synchronized.
+ */
+public final class MultiCloudFieldRegistry {
+    public static final MultiCloudFieldRegistry INSTANCE = new MultiCloudFieldRegistry();
+
+    // ids of fields of every table, by qualified name of the table
+    private final Map<List<String>, Map<String, Integer>> ids = new ConcurrentHashMap<>();
+
+    // fields by id; the array is replaced when it grows, so readers never see it partially copied
+    private volatile MultiCloudField<String, String, String>[] fields = newArray(64);
+    private int size = 0;
+
+    private MultiCloudFieldRegistry() {
+    }
+
+    /**
+     * Returns id of the field, or -1 if the field is not interned.
+     */
+    public int id(String schema, String table, String field) {
+        Map<String, Integer> tableIds = ids.get(Arrays.asList(schema, table));
+        Integer id = tableIds == null ? null : tableIds.get(field);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Returns id of the field, interning it if needed.
+     */
+    public int intern(String schema, String table, String field) {
+        int id = id(schema, table, field);
+        return id >= 0 ? id : add(schema, table, field);
+    }
+
+    /**
+     * Returns ids of given fields of a table, in the same order, interning them if needed.
+     */
+    public int[] intern(List<String> qualifiedName, List<String> fieldNames) {
+        String schema = qualifiedName.get(0);
+        String table = qualifiedName.get(1);
+        Map<String, Integer> tableIds = ids.get(qualifiedName);
+
+        int[] result = new int[fieldNames.size()];
+        for (int i = 0; i < result.length; i++) {
+            Integer id = tableIds == null ? null : tableIds.get(fieldNames.get(i));
+            result[i] = id != null ? id : add(schema, table, fieldNames.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the field with a given id.
+     *
+     * @throws IllegalArgumentException if no field has the id
+     */
+    public MultiCloudField<String, String, String> field(int id) {
+        MultiCloudField<String, String, String>[] fields = this.fields;
+        if (id < 0 || id >= fields.length || fields[id] == null) {
+            throw new IllegalArgumentException("No field with id " + id);
+        }
+        return fields[id];
+    }
+
+    /**
+     * Returns number of interned fields, i.e. the id the next field will get.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    private synchronized int add(String schema, String table, String field) {
+        Map<String, Integer> tableIds = ids.computeIfAbsent(Arrays.asList(schema, table),
+                name -> new ConcurrentHashMap<>());
+        Integer id = tableIds.get(field);
+        if (id != null) {
+            return id; // interned concurrently
+        }
+
+        if (size == fields.length) {
+            MultiCloudField<String, String, String>[] newFields = newArray(size * 2);
+            System.arraycopy(fields, 0, newFields, 0, size);
+            fields = newFields;
+        }
+        fields[size] = MultiCloudField.of(schema, table, field);
+        // the field is stored before its id is published
+        tableIds.put(field, size);
+        return size++;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static MultiCloudField<String, String, String>[] newArray(int length) {
+        return new MultiCloudField[length];
+    }
+}
@@ -3,5 +3,17 @@ package cloud.sec.core.tools;
 import cloud.sec.core.adapter.jdbc.MultiCloudField;
 
 // following the RuleSet principle
-public interface MultiCloudFieldSet extends Iterable<MultiCloudField>{
+public interface MultiCloudFieldSet extends Iterable<MultiCloudField> {
+
+    /**
+     * Returns whether the set contains the field.
+     */
+    default boolean contains(MultiCloudField field) {
+        for (MultiCloudField other : this) {
+            if (other.equals(field)) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
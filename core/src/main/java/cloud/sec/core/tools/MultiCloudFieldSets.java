@@ -1,57 +1,146 @@
 package cloud.sec.core.tools;
 
 import cloud.sec.core.adapter.jdbc.MultiCloudField;
-import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterators;
+import org.apache.calcite.plan.RelOptTable;
+import org.apache.calcite.util.ImmutableBitSet;
 
 import java.util.Iterator;
+import java.util.Map;
 
 /**
  * Utilities for creating and composing field sets.
+ * <p>
+ * Field sets are bitsets of ids given to fields by {@link MultiCloudFieldRegistry}, so membership checks, unions
+ * and intersections take constant time per word regardless of names of the fields.
  *
  * @see cloud.sec.core.adapter.jdbc.MultiCloudField
  */
 public class MultiCloudFieldSets {
+    private static final MultiCloudFieldSet EMPTY = new BitSetFieldSet(ImmutableBitSet.of());
+
     private MultiCloudFieldSets() {
     }
 
+    /**
+     * Returns an empty field set.
+     */
+    public static MultiCloudFieldSet of() {
+        return EMPTY;
+    }
+
     /**
      * Creates a field set with a given array of fields.
      */
     public static MultiCloudFieldSet ofList(MultiCloudField... fields) {
-        return new ListFieldSet(ImmutableList.copyOf(fields));
+        ImmutableBitSet.Builder ids = ImmutableBitSet.builder();
+        for (MultiCloudField field : fields) {
+            ids.set(intern(field));
+        }
+        return ofIds(ids.build());
     }
 
     /**
      * Creates a field set with a given collection of fields.
      */
     public static MultiCloudFieldSet ofList(Iterable<? extends MultiCloudField> fields) {
-        return new ListFieldSet(ImmutableList.copyOf(fields));
+        if (fields instanceof BitSetFieldSet) {
+            return (BitSetFieldSet) fields;
+        }
+        ImmutableBitSet.Builder ids = ImmutableBitSet.builder();
+        for (MultiCloudField field : fields) {
+            ids.set(intern(field));
+        }
+        return ofIds(ids.build());
     }
 
     /**
-     * Field set that consists of a list of fields.
+     * Creates a field set with given fields of each table, as ordinals of the fields in the row type of the table.
      */
-    private static class ListFieldSet implements MultiCloudFieldSet {
-        private final ImmutableList<MultiCloudField> fields;
+    public static MultiCloudFieldSet ofOrdinals(Map<RelOptTable, ImmutableBitSet> tables) {
+        ImmutableBitSet.Builder ids = ImmutableBitSet.builder();
+        for (Map.Entry<RelOptTable, ImmutableBitSet> table : tables.entrySet()) {
+            int[] tableIds = MultiCloudFieldRegistry.INSTANCE.intern(table.getKey().getQualifiedName(),
+                    table.getKey().getRowType().getFieldNames());
+            for (int ordinal : table.getValue()) {
+                ids.set(tableIds[ordinal]);
+            }
+        }
+        return ofIds(ids.build());
+    }
 
-        ListFieldSet(ImmutableList<MultiCloudField> fields) {
-            this.fields = fields;
+    /**
+     * Creates a field set with fields of given ids.
+     *
+     * @see MultiCloudFieldRegistry
+     */
+    public static MultiCloudFieldSet ofIds(ImmutableBitSet ids) {
+        return ids.isEmpty() ? EMPTY : new BitSetFieldSet(ids);
+    }
+
+    /**
+     * Returns ids of fields in the set.
+     *
+     * @see MultiCloudFieldRegistry
+     */
+    public static ImmutableBitSet ids(MultiCloudFieldSet fields) {
+        return ((BitSetFieldSet) ofList(fields)).ids;
+    }
+
+    /**
+     * Returns fields which are in any of the sets.
+     */
+    public static MultiCloudFieldSet union(MultiCloudFieldSet fields, MultiCloudFieldSet otherFields) {
+        return ofIds(ids(fields).union(ids(otherFields)));
+    }
+
+    /**
+     * Returns fields which are in both sets.
+     */
+    public static MultiCloudFieldSet intersection(MultiCloudFieldSet fields, MultiCloudFieldSet otherFields) {
+        return ofIds(ids(fields).intersect(ids(otherFields)));
+    }
+
+    private static int intern(MultiCloudField field) {
+        return MultiCloudFieldRegistry.INSTANCE.intern(
+                (String) field.schema, (String) field.table, (String) field.field);
+    }
+
+    /**
+     * Field set that consists of ids of fields.
+     */
+    private static class BitSetFieldSet implements MultiCloudFieldSet {
+        private final ImmutableBitSet ids;
+
+        BitSetFieldSet(ImmutableBitSet ids) {
+            this.ids = ids;
+        }
+
+        @Override
+        public boolean contains(MultiCloudField field) {
+            int id = MultiCloudFieldRegistry.INSTANCE.id((String) field.schema, (String) field.table, (String) field.field);
+            return id >= 0 && ids.get(id);
         }
 
         @Override
         public int hashCode() {
-            return fields.hashCode();
+            return ids.hashCode();
         }
 
         @Override
         public boolean equals(Object obj) {
             return obj == this
-                    || obj instanceof ListFieldSet
-                    && fields.equals(((ListFieldSet) obj).fields);
+                    || obj instanceof BitSetFieldSet
+                    && ids.equals(((BitSetFieldSet) obj).ids);
         }
 
         public Iterator<MultiCloudField> iterator() {
-            return fields.iterator();
+            return Iterators.transform(ids.iterator(), MultiCloudFieldRegistry.INSTANCE::field);
+        }
+
+        @Override
+        public String toString() {
+            return Iterators.toString(iterator());
         }
     }
 }
@@ -0,0 +1,40 @@
+package cloud.sec.core;
+
+/**
+ * Statements run by {@link MultiCloudRegressionTest}, covering the query shapes of {@code Main} of the application.
+ * <p>
+ * Statements run in this order, so the modifications insert, update and delete the same row, and leave the tables
+ * as they found them. Modified tables are not qualified, as the original tables are in a schema of another name.
+ */
+public enum MultiCloudRegressionStatement {
+    SCAN_PROJECT_ALL("SELECT * FROM cities"),
+    SCAN_JOIN_FILTER_PROJECT_ALL("SELECT * FROM cities, employees WHERE employees.city_id = cities.id"),
+    SCAN_PROJECT_ONE("SELECT `age` FROM employees"),
+    SCAN_FILTER_PROJECT_ALL("SELECT * FROM employees WHERE `id` IN (100, 2, 3, 4)"),
+    SCAN_FILTER_PROJECT_ONE("SELECT `age` FROM employees WHERE `age` < 30"),
+    SCAN_FILTER_PROJECT_TWO("SELECT `first`, `age` FROM employees WHERE `age` < 30"),
+    SCAN_AGGREGATE("SELECT `city_id`, count(*), avg(`age`) FROM employees GROUP BY `city_id`"),
+    TABLE_MODIFY_INSERT("INSERT INTO `employees` (`id`, `age`, `first`, `last`, `city_id`)"
+            + " VALUES (0, 20, 'Ivan', 'Grgurina', 1)"),
+    TABLE_MODIFY_UPDATE("UPDATE `employees` SET `age` = 17, `first` = 'Ivan', `last` = 'Grgurina', `city_id` = 2"
+            + " WHERE `id` = 0"),
+    TABLE_MODIFY_UPDATE_PARTIAL("UPDATE `employees` SET `age` = 25 WHERE `id` = 0"),
+    TABLE_MODIFY_DELETE("DELETE FROM `employees` WHERE `id` = 0");
+
+    private final String sql;
+
+    MultiCloudRegressionStatement(String sql) {
+        this.sql = sql;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * Returns whether the statement is a query, rather than a modification.
+     */
+    public boolean isQuery() {
+        return sql.startsWith("SELECT");
+    }
+}
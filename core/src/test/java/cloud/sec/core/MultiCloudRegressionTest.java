@@ -0,0 +1,322 @@
+package cloud.sec.core;
+
+import cloud.sec.core.runtime.MultiCloudFragmentCache;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Regression suite of the rewrite, over every {@link Model} of {@link MultiCloudTestDatabase}.
+ * <p>
+ * Every {@link MultiCloudRegressionStatement} is run both against the original tables and through the rewriter,
+ * which must return the same rows, in any order, and leave the same rows in the modified tables. Queries are also
+ * run by concurrent clients, each with its own connection. When the module runs the suite again with the fragment
+ * cache enabled, queries run a second time must be read from the cache. Latencies are measured by the benchmarks
+ * module, not by this suite.
+ */
+@RunWith(Parameterized.class)
+public class MultiCloudRegressionTest {
+    private static final int EMPLOYEES = 1000;
+    private static final int CLIENTS = 4;
+
+    // rows of the queries against the original tables
+    private static final Map<MultiCloudRegressionStatement, List<String>> ORIGINAL_ROWS =
+            new EnumMap<>(MultiCloudRegressionStatement.class);
+
+    private static Connection original;
+
+    @Parameterized.Parameter
+    public Model model;
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Object[] models() {
+        return Model.values();
+    }
+
+    @BeforeClass
+    public static void createDatabase() throws Exception {
+        MultiCloudTestDatabase.create(EMPLOYEES);
+        for (Model model : Model.values()) {
+            model.create();
+        }
+        Class.forName("org.apache.calcite.jdbc.Driver");
+
+        original = DriverManager.getConnection("jdbc:calcite:",
+                MultiCloudTestDatabase.originalConnectionProperties());
+        for (MultiCloudRegressionStatement statement : MultiCloudRegressionStatement.values()) {
+            if (statement.isQuery()) {
+                ORIGINAL_ROWS.put(statement, query(original, statement.getSql()));
+            }
+        }
+    }
+
+    @AfterClass
+    public static void closeOriginal() throws SQLException {
+        original.close();
+    }
+
+    /**
+     * Runs every statement in its order on both connections, comparing their rows, or numbers of modified rows and
+     * the modified table.
+     */
+    @Test(timeout = 120_000)
+    public void statementsMatchOriginal() throws SQLException {
+        try (Connection rewritten = DriverManager.getConnection("jdbc:calcite:", model.connectionProperties())) {
+            for (MultiCloudRegressionStatement statement : MultiCloudRegressionStatement.values()) {
+                if (statement.isQuery()) {
+                    assertRows(statement.name(), ORIGINAL_ROWS.get(statement),
+                            query(rewritten, statement.getSql()));
+                    continue;
+                }
+
+                assertEquals(statement + " modified rows", update(original, statement.getSql()),
+                        update(rewritten, statement.getSql()));
+                assertRows(statement + " left in employees", query(original, "SELECT * FROM employees"),
+                        query(rewritten, "SELECT * FROM employees"));
+            }
+
+            if (MultiCloudFragmentCache.isEnabled()) {
+                long hits = MultiCloudFragmentCache.stats().hitCount();
+                for (MultiCloudRegressionStatement statement : MultiCloudRegressionStatement.values()) {
+                    if (statement.isQuery()) {
+                        assertRows(statement + " from the fragment cache", ORIGINAL_ROWS.get(statement),
+                                query(rewritten, statement.getSql()));
+                    }
+                }
+                assertTrue("Queries were not read from the fragment cache",
+                        MultiCloudFragmentCache.stats().hitCount() > hits);
+            }
+        }
+    }
+
+    @Test(timeout = 120_000)
+    public void concurrentClientsMatchOriginal() throws Exception {
+        ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+        try {
+            List<Future<?>> runs = new ArrayList<>();
+            for (int i = 0; i < CLIENTS; i++) {
+                runs.add(clients.submit(() -> {
+                    try (Connection rewritten = DriverManager.getConnection("jdbc:calcite:",
+                            model.connectionProperties())) {
+                        for (int run = 0; run < 3; run++) {
+                            for (MultiCloudRegressionStatement statement : ORIGINAL_ROWS.keySet()) {
+                                assertRows(statement.name(), ORIGINAL_ROWS.get(statement),
+                                        query(rewritten, statement.getSql()));
+                            }
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> run : runs) {
+                run.get();
+            }
+        } finally {
+            clients.shutdownNow();
+        }
+    }
+
+    private static void assertRows(String name, List<String> originalRows, List<String> rewrittenRows) {
+        if (originalRows.equals(rewrittenRows)) {
+            return;
+        }
+
+        // rows are sorted, so they are compared by walking both of them
+        List<String> missing = new ArrayList<>();
+        List<String> extra = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < originalRows.size() || j < rewrittenRows.size()) {
+            int c = i == originalRows.size() ? 1
+                    : j == rewrittenRows.size() ? -1 : originalRows.get(i).compareTo(rewrittenRows.get(j));
+            if (c == 0) {
+                i++;
+                j++;
+            } else if (c < 0) {
+                missing.add(originalRows.get(i++));
+            } else {
+                extra.add(rewrittenRows.get(j++));
+            }
+        }
+        fail(name + " returned " + rewrittenRows.size() + " rows instead of " + originalRows.size()
+                + ", missing " + first(missing) + ", extra " + first(extra));
+    }
+
+    private static List<String> first(List<String> rows) {
+        return rows.subList(0, Math.min(rows.size(), 5));
+    }
+
+    private static long update(Connection connection, String sql) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            return statement.executeUpdate(sql);
+        }
+    }
+
+    /**
+     * Returns rows of a query as strings, sorted, so results are compared regardless of their order. Numbers are
+     * compared by their values, regardless of their types.
+     */
+    private static List<String> query(Connection connection, String sql) throws SQLException {
+        List<String> rows = new ArrayList<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(sql)) {
+            int columns = resultSet.getMetaData().getColumnCount();
+            while (resultSet.next()) {
+                Object[] row = new Object[columns];
+                for (int i = 0; i < columns; i++) {
+                    Object value = resultSet.getObject(i + 1);
+                    row[i] = value instanceof Number
+                            ? new BigDecimal(value.toString()).stripTrailingZeros().toPlainString() : value;
+                }
+                rows.add(Arrays.toString(row));
+            }
+        }
+        Collections.sort(rows);
+        return rows;
+    }
+
+    /**
+     * Models fragmenting {@code employees} of {@code mc_db} in different ways, with the same rows.
+     */
+    public enum Model {
+        /**
+         * Fragments merged by their sorted keys, the default.
+         */
+        MERGE {
+            @Override
+            Properties connectionProperties() {
+                return MultiCloudTestDatabase.connectionProperties();
+            }
+        },
+        /**
+         * Fragments hashed within a budget so tiny that nearly all rows are spilled, and partitions are split again.
+         */
+        HASH {
+            @Override
+            Properties connectionProperties() {
+                Properties properties = fragmented("\"reassembly\": \"HASH\", \"fragments\": "
+                        + MultiCloudTestDatabase.fragments("employees", "employees"));
+                properties.setProperty("cloudsec.reassembly.memory.bytes", "1024");
+                return properties;
+            }
+        },
+        /**
+         * Fragments joined by a regular join.
+         */
+        JOIN {
+            @Override
+            Properties connectionProperties() {
+                return fragmented("\"reassembly\": \"JOIN\", \"fragments\": "
+                        + MultiCloudTestDatabase.fragments("employees", "employees"));
+            }
+        },
+        /**
+         * Two shards holding ranges of {@code id}.
+         */
+        RANGE_SHARDS {
+            @Override
+            void create() throws SQLException {
+                createShards("range0", "X <= " + EMPLOYEES / 2);
+                createShards("range1", "X > " + EMPLOYEES / 2);
+            }
+
+            @Override
+            Properties connectionProperties() {
+                return fragmented("\"sharding\": \"RANGE\", \"shardKey\": \"id\", \"shards\": ["
+                        + "{\"upTo\": " + EMPLOYEES / 2 + ", \"fragments\": "
+                        + MultiCloudTestDatabase.fragments("employees_range0", "employees_range0") + "},"
+                        + " {\"fragments\": "
+                        + MultiCloudTestDatabase.fragments("employees_range1", "employees_range1") + "}]");
+            }
+        },
+        /**
+         * Two shards holding {@code id}s by their remainder after division by two.
+         */
+        HASH_SHARDS {
+            @Override
+            void create() throws SQLException {
+                createShards("hash0", "MOD(X, 2) = 0");
+                createShards("hash1", "MOD(X, 2) = 1");
+            }
+
+            @Override
+            Properties connectionProperties() {
+                return fragmented("\"sharding\": \"HASH\", \"shardKey\": \"id\", \"shards\": ["
+                        + "{\"fragments\": "
+                        + MultiCloudTestDatabase.fragments("employees_hash0", "employees_hash0") + "},"
+                        + " {\"fragments\": "
+                        + MultiCloudTestDatabase.fragments("employees_hash1", "employees_hash1") + "}]");
+            }
+        },
+        /**
+         * Fragments in schemas of the {@code mc_db} database, co-located with {@code cities}.
+         */
+        COLOCATION {
+            @Override
+            void create() throws SQLException {
+                MultiCloudTestDatabase.executeInSchema("mc_db", "mc_db_google",
+                        MultiCloudTestDatabase.googleEmployees("employees", EMPLOYEES, "TRUE"));
+                MultiCloudTestDatabase.executeInSchema("mc_db", "mc_db_amazon",
+                        MultiCloudTestDatabase.amazonEmployees("employees", EMPLOYEES, "TRUE"));
+            }
+
+            @Override
+            Properties connectionProperties() {
+                String colocation = ", \"colocation\": \"mc_db\"";
+                return MultiCloudTestDatabase.connectionProperties(
+                        MultiCloudTestDatabase.schema("mc_db_amazon", "mc_db", colocation),
+                        MultiCloudTestDatabase.schema("mc_db_google", "mc_db", colocation),
+                        MultiCloudTestDatabase.schema("mc_db", "mc_db", colocation + ", \"fragmentation\":"
+                                + " {\"employees\": {\"key\": \"multiid\", \"fragments\": "
+                                + MultiCloudTestDatabase.fragments("employees", "employees") + "}}"));
+            }
+        };
+
+        /**
+         * Creates tables of the model which {@link MultiCloudTestDatabase#create} does not.
+         */
+        void create() throws SQLException {
+        }
+
+        abstract Properties connectionProperties();
+
+        private static Properties fragmented(String employees) {
+            return MultiCloudTestDatabase.connectionProperties(
+                    MultiCloudTestDatabase.schema("mc_db_amazon", "mc_db_amazon", ""),
+                    MultiCloudTestDatabase.schema("mc_db_google", "mc_db_google", ""),
+                    MultiCloudTestDatabase.schema("mc_db", "mc_db", ", \"fragmentation\": {\"employees\":"
+                            + " {\"key\": \"multiid\", " + employees + "}}"));
+        }
+
+        // adds tables of a shard of employees to the schemas of the fragments
+        private static void createShards(String shard, String condition) throws SQLException {
+            MultiCloudTestDatabase.executeInDatabase("mc_db_google",
+                    MultiCloudTestDatabase.googleEmployees("employees_" + shard, EMPLOYEES, condition));
+            MultiCloudTestDatabase.executeInDatabase("mc_db_amazon",
+                    MultiCloudTestDatabase.amazonEmployees("employees_" + shard, EMPLOYEES, condition));
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package cloud.sec.core;
+
+import cloud.sec.core.runtime.MultiCloudFragmentCache;
+import cloud.sec.core.runtime.MultiCloudWrites;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+
+/**
+ * In-process H2 databases standing in for the providers, with the model which fragments their tables, shared by
+ * the tests, the benchmarks and the load test of the application.
+ * <p>
+ * {@code mc_db} holds the logical tables, while fragments of {@code employees} are stored in {@code mc_db_google}
+ * ({@code first}, {@code last}) and {@code mc_db_amazon} ({@code age}, {@code city_id}), the same way as in
+ * the model of the application. The {@code original} schema of the {@code mc_db} database holds the same tables,
+ * with the same rows as the fragments, so queries can also be run against tables which are not fragmented.
+ */
+public final class MultiCloudTestDatabase {
+    private static final String[] FIRST_NAMES = {"Ana", "Bob", "Cid", "Dan", "Eva", "Fil", "Gus", "Iva"};
+
+    private MultiCloudTestDatabase() {
+    }
+
+    /**
+     * Creates the databases with a given number of employees, replacing the ones created before, along with keys
+     * reserved in them and rows cached from them.
+     */
+    public static void create(int employees) throws SQLException {
+        MultiCloudWrites.forgetKeys();
+        MultiCloudFragmentCache.invalidateAll();
+        execute("mc_db",
+                "CREATE TABLE \"cities\" (\"id\" INT NOT NULL PRIMARY KEY, \"name\" VARCHAR(45))",
+                "CREATE TABLE \"employees\" (\"id\" INT NOT NULL PRIMARY KEY, \"first\" VARCHAR(255),"
+                        + " \"last\" VARCHAR(255), \"city_id\" INT, \"age\" INT NOT NULL)",
+                "INSERT INTO \"cities\" VALUES (1, 'Zagreb'), (2, 'Split'), (3, 'Rijeka'), (4, 'Osijek')");
+        executeInSchema("mc_db", "original",
+                "CREATE TABLE \"cities\" AS SELECT * FROM \"mc_db\".\"cities\"",
+                "CREATE TABLE \"employees\" (\"id\" INT NOT NULL PRIMARY KEY, \"first\" VARCHAR(255),"
+                        + " \"last\" VARCHAR(255), \"city_id\" INT, \"age\" INT NOT NULL)",
+                "INSERT INTO \"employees\" SELECT X, ARRAY_GET(" + names() + ", MOD(X, " + FIRST_NAMES.length
+                        + ") + 1), CONCAT('Last', X), MOD(X, 5), 20 + MOD(X, 45) FROM SYSTEM_RANGE(1, "
+                        + employees + ")");
+        execute("mc_db_google", googleEmployees("employees", employees, "TRUE"));
+        execute("mc_db_amazon", amazonEmployees("employees", employees, "TRUE"));
+    }
+
+    /**
+     * Turns off locks of the databases for as long as they are open. H2 locks whole tables, so writes of different
+     * rows by concurrent clients wait for each other until they time out, unlike with row locks of MySQL; without
+     * locks, writes of concurrent clients are not isolated at all.
+     */
+    public static void disableLocks() throws SQLException {
+        for (String database : new String[]{"mc_db", "mc_db_google", "mc_db_amazon"}) {
+            try (Connection connection = DriverManager.getConnection(url(database), "sa", "");
+                 Statement statement = connection.createStatement()) {
+                statement.execute("SET LOCK_MODE 0");
+            }
+        }
+    }
+
+    /**
+     * Returns statements creating a table of the {@code mc_db_google} fragment of employees, with those of
+     * the employees whose {@code X}, i.e. {@code id}, matches the condition.
+     */
+    public static String[] googleEmployees(String table, int employees, String condition) {
+        return new String[]{
+                "CREATE TABLE \"" + table + "\" (\"multiid\" INT NOT NULL PRIMARY KEY, \"id\" INT NOT NULL,"
+                        + " \"first\" VARCHAR(255), \"last\" VARCHAR(255))",
+                "INSERT INTO \"" + table + "\" SELECT X * 10, X, ARRAY_GET(" + names() + ", MOD(X, "
+                        + FIRST_NAMES.length + ") + 1), CONCAT('Last', X) FROM SYSTEM_RANGE(1, " + employees + ")"
+                        + " WHERE " + condition};
+    }
+
+    /**
+     * Returns statements creating a table of the {@code mc_db_amazon} fragment of employees, with those of
+     * the employees whose {@code X}, i.e. {@code id}, matches the condition.
+     */
+    public static String[] amazonEmployees(String table, int employees, String condition) {
+        return new String[]{
+                "CREATE TABLE \"" + table + "\" (\"multiid\" INT NOT NULL PRIMARY KEY, \"id\" INT NOT NULL,"
+                        + " \"age\" INT NOT NULL, \"city_id\" INT)",
+                "INSERT INTO \"" + table + "\" SELECT X * 10, X, 20 + MOD(X, 45), MOD(X, 5) FROM SYSTEM_RANGE(1, "
+                        + employees + ") WHERE " + condition};
+    }
+
+    /**
+     * Returns properties of a connection to the model over the databases.
+     */
+    public static Properties connectionProperties() {
+        return connectionProperties(schema("mc_db_amazon", "mc_db_amazon", ""),
+                schema("mc_db_google", "mc_db_google", ""),
+                schema("mc_db", "mc_db", ", \"fragmentation\": {\"employees\": {\"key\": \"multiid\","
+                        + " \"fragments\": " + fragments("employees", "employees") + "}}"));
+    }
+
+    /**
+     * Returns properties of a connection to a model of the given schemas, whose last one is {@code mc_db}.
+     */
+    public static Properties connectionProperties(String... schemas) {
+        Properties properties = new Properties();
+        properties.setProperty("lex", "JAVA");
+        properties.setProperty("model", "inline:{\"version\": \"1.0\", \"defaultSchema\": \"mc_db\", \"schemas\": ["
+                + String.join(", ", schemas) + "]}");
+        return properties;
+    }
+
+    /**
+     * Returns properties of a connection to the {@code original} schema, whose tables are not fragmented.
+     */
+    public static Properties originalConnectionProperties() {
+        Properties properties = new Properties();
+        properties.setProperty("lex", "JAVA");
+        properties.setProperty("model", "inline:{\"version\": \"1.0\", \"defaultSchema\": \"original\", \"schemas\": ["
+                + "{\"name\": \"original\", \"type\": \"custom\","
+                + " \"factory\": \"org.apache.calcite.adapter.jdbc.JdbcSchema$Factory\","
+                + " \"operand\": {\"jdbcUser\": \"sa\", \"jdbcPassword\": \"\", \"jdbcUrl\": \"" + url("mc_db") + "\","
+                + " \"jdbcSchema\": \"original\"}}]}");
+        return properties;
+    }
+
+    /**
+     * Returns the fragments of employees stored by tables of the given names in {@code mc_db_google} and
+     * {@code mc_db_amazon}, as declared by the {@code fragmentation} operand.
+     */
+    public static String fragments(String googleTable, String amazonTable) {
+        return "[{\"schema\": \"mc_db_google\", \"table\": \"" + googleTable + "\","
+                + " \"fields\": [\"id\", \"first\", \"last\"]},"
+                + " {\"schema\": \"mc_db_amazon\", \"table\": \"" + amazonTable + "\","
+                + " \"fields\": [\"id\", \"age\", \"city_id\"]}]";
+    }
+
+    /**
+     * Returns the declaration of a schema of a model, stored in a schema of the same name of the given database,
+     * with further operands appended.
+     */
+    public static String schema(String name, String database, String operand) {
+        return "{\"name\": \"" + name + "\", \"type\": \"custom\","
+                + " \"factory\": \"cloud.sec.core.adapter.jdbc.MultiCloudJdbcSchema$Factory\","
+                + " \"operand\": {\"jdbcUser\": \"sa\", \"jdbcPassword\": \"\", \"jdbcUrl\": \"" + url(database) + "\","
+                + " \"jdbcSchema\": \"" + name + "\"" + operand + "}}";
+    }
+
+    public static String url(String database) {
+        return "jdbc:h2:mem:" + database + ";DB_CLOSE_DELAY=-1";
+    }
+
+    private static String names() {
+        StringBuilder names = new StringBuilder("(");
+        for (String name : FIRST_NAMES) {
+            names.append(names.length() > 1 ? ", '" : "'").append(name).append("'");
+        }
+        return names.append(")").toString();
+    }
+
+    private static void execute(String database, String... statements) throws SQLException {
+        executeInSchema(database, database, statements);
+    }
+
+    /**
+     * Runs statements in the schema of the same name of a database, keeping the tables it already holds.
+     */
+    public static void executeInDatabase(String database, String... statements) throws SQLException {
+        try (Connection connection = DriverManager.getConnection(url(database), "sa", "");
+             Statement statement = connection.createStatement()) {
+            statement.execute("SET SCHEMA \"" + database + "\"");
+            for (String sql : statements) {
+                statement.execute(sql);
+            }
+        }
+    }
+
+    /**
+     * Runs statements in a schema of a database, which is created anew.
+     */
+    public static void executeInSchema(String database, String schema, String... statements) throws SQLException {
+        try (Connection connection = DriverManager.getConnection(url(database), "sa", "");
+             Statement statement = connection.createStatement()) {
+            statement.execute("DROP SCHEMA IF EXISTS \"" + schema + "\" CASCADE");
+            statement.execute("CREATE SCHEMA \"" + schema + "\"");
+            statement.execute("SET SCHEMA \"" + schema + "\"");
+            for (String sql : statements) {
+                statement.execute(sql);
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package cloud.sec.core.adapter.jdbc;
+
+import cloud.sec.core.MultiCloudTestDatabase;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests of {@link MultiCloudPlanCache} over {@link MultiCloudTestDatabase}, with a connection per statement.
+ */
+public class MultiCloudPlanCacheTest {
+
+    @BeforeClass
+    public static void createDatabase() throws Exception {
+        MultiCloudTestDatabase.create(100);
+        Class.forName("org.apache.calcite.jdbc.Driver");
+    }
+
+    @Test
+    public void queryPlannedByAnotherConnection() throws SQLException {
+        String sql = "SELECT `first`, `age` FROM employees WHERE `age` < 30 AND `id` > 7";
+        List<String> rows = query(sql);
+
+        long hits = MultiCloudPlanCache.INSTANCE.stats().hitCount();
+        assertEquals(rows, query(sql));
+        assertEquals(hits + 1, MultiCloudPlanCache.INSTANCE.stats().hitCount());
+    }
+
+    @Test
+    public void modificationPlannedByAnotherConnection() throws SQLException {
+        String sql = "DELETE FROM employees WHERE `id` = -1";
+        assertEquals(0, update(sql));
+
+        long hits = MultiCloudPlanCache.INSTANCE.stats().hitCount();
+        assertEquals(0, update(sql));
+        assertEquals(hits + 1, MultiCloudPlanCache.INSTANCE.stats().hitCount());
+    }
+
+    /**
+     * Another model declares the same table with other fragments, which neither replace fragments of the first model
+     * nor evict its plans.
+     */
+    @Test
+    public void modelDeclaringOtherFragments() throws SQLException {
+        MultiCloudTestDatabase.executeInDatabase("mc_db_google",
+                MultiCloudTestDatabase.googleEmployees("few_employees", 100, "X <= 10"));
+        MultiCloudTestDatabase.executeInDatabase("mc_db_amazon",
+                MultiCloudTestDatabase.amazonEmployees("few_employees", 100, "X <= 10"));
+        Properties fewEmployees = MultiCloudTestDatabase.connectionProperties(
+                MultiCloudTestDatabase.schema("mc_db_amazon", "mc_db_amazon", ""),
+                MultiCloudTestDatabase.schema("mc_db_google", "mc_db_google", ""),
+                MultiCloudTestDatabase.schema("mc_db", "mc_db", ", \"fragmentation\": {\"employees\":"
+                        + " {\"key\": \"multiid\", \"fragments\": "
+                        + MultiCloudTestDatabase.fragments("few_employees", "few_employees") + "}}"));
+
+        String sql = "SELECT `last`, `age` FROM employees WHERE `id` > 5";
+        assertEquals(95, query(MultiCloudTestDatabase.connectionProperties(), sql).size());
+        assertEquals(5, query(fewEmployees, sql).size());
+
+        long hits = MultiCloudPlanCache.INSTANCE.stats().hitCount();
+        assertEquals(95, query(MultiCloudTestDatabase.connectionProperties(), sql).size());
+        assertEquals(hits + 1, MultiCloudPlanCache.INSTANCE.stats().hitCount());
+    }
+
+    private static List<String> query(String sql) throws SQLException {
+        return query(MultiCloudTestDatabase.connectionProperties(), sql);
+    }
+
+    private static List<String> query(Properties properties, String sql) throws SQLException {
+        List<String> rows = new ArrayList<>();
+        try (Connection connection = DriverManager.getConnection("jdbc:calcite:", properties);
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(sql)) {
+            int columns = resultSet.getMetaData().getColumnCount();
+            while (resultSet.next()) {
+                Object[] row = new Object[columns];
+                for (int i = 0; i < columns; i++) {
+                    row[i] = resultSet.getObject(i + 1);
+                }
+                rows.add(Arrays.toString(row));
+            }
+        }
+        return rows;
+    }
+
+    private static int update(String sql) throws SQLException {
+        try (Connection connection = DriverManager.getConnection("jdbc:calcite:",
+                MultiCloudTestDatabase.connectionProperties());
+             Statement statement = connection.createStatement()) {
+            return statement.executeUpdate(sql);
+        }
+    }
+}
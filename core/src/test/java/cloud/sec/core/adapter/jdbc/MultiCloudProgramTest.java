@@ -0,0 +1,69 @@
+package cloud.sec.core.adapter.jdbc;
+
+import cloud.sec.core.MultiCloudTestDatabase;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of {@link MultiCloudProgram} over {@link MultiCloudTestDatabase}.
+ */
+public class MultiCloudProgramTest {
+    private static final int EMPLOYEES = 100;
+    private static final int CLIENTS = 4;
+    private static final int QUERIES = 25;
+
+    @BeforeClass
+    public static void createDatabase() throws Exception {
+        MultiCloudTestDatabase.create(EMPLOYEES);
+        Class.forName("org.apache.calcite.jdbc.Driver");
+    }
+
+    /**
+     * Clients plan queries which differ by their conditions, so none of them is planned only once and cached.
+     */
+    @Test(timeout = 120_000)
+    public void concurrentPlanning() throws Exception {
+        ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+        try {
+            List<Future<?>> runs = new ArrayList<>();
+            for (int i = 0; i < CLIENTS; i++) {
+                final int client = i;
+                runs.add(clients.submit(() -> {
+                    try (Connection connection = DriverManager.getConnection("jdbc:calcite:",
+                            MultiCloudTestDatabase.connectionProperties());
+                         Statement statement = connection.createStatement()) {
+                        for (int id = 1; id <= QUERIES; id++) {
+                            try (ResultSet resultSet = statement.executeQuery("SELECT `last`, `age` FROM employees"
+                                    + " WHERE `id` = " + id + " AND `age` > " + -client)) {
+                                assertTrue(resultSet.next());
+                                assertEquals("Last" + id, resultSet.getString(1));
+                                assertEquals(20 + id % 45, resultSet.getInt(2));
+                                assertFalse(resultSet.next());
+                            }
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> run : runs) {
+                run.get();
+            }
+        } finally {
+            clients.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package cloud.sec.core.runtime;
+
+import org.apache.calcite.DataContext;
+import org.apache.calcite.linq4j.Enumerable;
+import org.apache.calcite.linq4j.Enumerator;
+import org.apache.calcite.linq4j.Linq4j;
+import org.apache.calcite.linq4j.function.Function1;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests of {@link MultiCloudEnumerables}, run with a single fetch thread, so fragments of a reassembly outnumber
+ * threads of {@link MultiCloudExecutor}.
+ */
+public class MultiCloudEnumerablesTest {
+    private static final int ROWS = 10_000;
+
+    @Test(timeout = 30_000)
+    public void mergeOutnumberingFetchThreads() {
+        assertEquals(ROWS, count(MultiCloudEnumerables.merge(fragments(ROWS), new int[]{0, 0})));
+    }
+
+    @Test(timeout = 30_000)
+    public void hashOutnumberingFetchThreads() {
+        assertEquals(ROWS, count(MultiCloudEnumerables.hash(fragments(ROWS), new int[]{0, 0})));
+    }
+
+    @Test(timeout = 30_000)
+    @SuppressWarnings("unchecked")
+    public void lookupOutnumberingFetchThreads() {
+        Enumerable<Object[]>[] fragments = fragments(ROWS);
+        Function1<DataContext, Enumerable<Object[]>> lookup = context -> {
+            Set<Object> keys = new HashSet<>();
+            for (int i = 0; i < MultiCloudEnumerables.LOOKUP_KEYS; i++) {
+                keys.add(((Number) context.get("?" + i)).longValue());
+            }
+            return fragments[1].where(row -> keys.contains(row[0]));
+        };
+        assertEquals(ROWS, count(MultiCloudEnumerables.lookup(fragments[0], 0, new Function1[]{null, lookup},
+                new int[]{0, 0}, 0, MultiCloudEnumerables.LOOKUP_KEYS, null)));
+    }
+
+    @Test(timeout = 60_000)
+    public void concurrentMerges() throws Exception {
+        ExecutorService clients = Executors.newFixedThreadPool(6);
+        try {
+            List<Future<Long>> counts = new ArrayList<>();
+            for (int i = 0; i < 6; i++) {
+                counts.add(clients.submit(() ->
+                        count(MultiCloudEnumerables.merge(fragments(2 * ROWS), new int[]{0, 0}))));
+            }
+            for (Future<Long> count : counts) {
+                assertEquals(2 * ROWS, (long) count.get());
+            }
+        } finally {
+            clients.shutdownNow();
+        }
+    }
+
+    @Test(timeout = 30_000)
+    public void mergeAfterClosedMerge() {
+        try (Enumerator<Object[]> enumerator =
+                     MultiCloudEnumerables.merge(fragments(ROWS), new int[]{0, 0}).enumerator()) {
+            for (int i = 0; i < 10; i++) {
+                enumerator.moveNext();
+            }
+        }
+        assertEquals(ROWS, count(MultiCloudEnumerables.merge(fragments(ROWS), new int[]{0, 0})));
+    }
+
+    @Test(timeout = 30_000)
+    public void hashSpillingOverBudget() {
+        assertEquals(ROWS, count(MultiCloudEnumerables.hash(fragments(ROWS, true), new int[]{0, 0}, 64 * 1024)));
+    }
+
+    @Test(timeout = 60_000)
+    public void hashRepartitioningOverBudget() {
+        assertEquals(ROWS, count(MultiCloudEnumerables.hash(fragments(ROWS, true), new int[]{0, 0}, 1024)));
+        assertEquals(ROWS / 10, count(MultiCloudEnumerables.hash(fragments(ROWS / 10, true), new int[]{0, 0}, 1)));
+    }
+
+    // two fragments holding the same keys, sorted
+    private static Enumerable<Object[]>[] fragments(int rows) {
+        return fragments(rows, false);
+    }
+
+    // two fragments holding the same keys, sorted, or with the second one in reverse order, so no row is joined
+    // before half of the rows of both fragments are fetched
+    @SuppressWarnings("unchecked")
+    private static Enumerable<Object[]>[] fragments(int rows, boolean isReversed) {
+        List<Object[]> first = new ArrayList<>();
+        List<Object[]> second = new ArrayList<>();
+        for (int key = 0; key < rows; key++) {
+            first.add(new Object[]{key, "first" + key});
+            second.add(new Object[]{(long) key, key % 45});
+        }
+        if (isReversed) {
+            Collections.reverse(second);
+        }
+        return new Enumerable[]{Linq4j.asEnumerable(first), Linq4j.asEnumerable(second)};
+    }
+
+    private static long count(Enumerable<Object[]> rows) {
+        long count = 0;
+        try (Enumerator<Object[]> enumerator = rows.enumerator()) {
+            while (enumerator.moveNext()) {
+                assertEquals(4, enumerator.current().length);
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,74 @@
+package cloud.sec.core.runtime;
+
+import org.apache.calcite.linq4j.AbstractEnumerable;
+import org.apache.calcite.linq4j.Enumerable;
+import org.apache.calcite.linq4j.Enumerator;
+import org.apache.calcite.linq4j.Linq4j;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of {@link MultiCloudFetch}.
+ */
+public class MultiCloudFetchTest {
+
+    @Test(timeout = 30_000)
+    @SuppressWarnings("unchecked")
+    public void closeCancelsStatementWaitingForFirstRow() throws InterruptedException {
+        CountDownLatch executing = new CountDownLatch(1);
+        CountDownLatch cancelled = new CountDownLatch(1);
+        Connection connection = connection(executing, cancelled);
+
+        Enumerable<Object[]> fragment = new AbstractEnumerable<Object[]>() {
+            @Override
+            public Enumerator<Object[]> enumerator() {
+                try (Statement statement = MultiCloudStatements.watch(connection).createStatement()) {
+                    statement.executeQuery("SELECT 1");
+                } catch (SQLException e) {
+                    throw new RuntimeException(e);
+                }
+                return Linq4j.emptyEnumerator();
+            }
+        };
+
+        MultiCloudFetch fetch = new MultiCloudFetch(new Enumerable[]{fragment});
+        executing.await();
+        fetch.close();
+        assertTrue(cancelled.await(10, TimeUnit.SECONDS));
+    }
+
+    // a connection whose statements wait for their first row until they are cancelled, ignoring interrupts
+    private static Connection connection(CountDownLatch executing, CountDownLatch cancelled) {
+        Statement statement = (Statement) Proxy.newProxyInstance(Statement.class.getClassLoader(),
+                new Class<?>[]{Statement.class}, (proxy, method, arguments) -> {
+                    switch (method.getName()) {
+                        case "executeQuery":
+                            executing.countDown();
+                            while (true) {
+                                try {
+                                    cancelled.await();
+                                    throw new SQLException("Statement was cancelled");
+                                } catch (InterruptedException e) {
+                                    // a provider does not notice interrupts
+                                }
+                            }
+                        case "cancel":
+                            cancelled.countDown();
+                            return null;
+                        default:
+                            return null;
+                    }
+                });
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                (proxy, method, arguments) -> method.getName().equals("createStatement") ? statement : null);
+    }
+}
@@ -0,0 +1,69 @@
+package cloud.sec.core.runtime;
+
+import cloud.sec.core.MultiCloudTestDatabase;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of {@link MultiCloudFragmentCache} over {@link MultiCloudTestDatabase}, run only with the cache enabled.
+ */
+public class MultiCloudFragmentCacheTest {
+    private static final int EMPLOYEES = 100;
+    private static final int FEW_EMPLOYEES = 10;
+
+    @BeforeClass
+    public static void createDatabase() throws Exception {
+        MultiCloudTestDatabase.create(EMPLOYEES);
+        MultiCloudTestDatabase.executeInSchema("mc_db", "mc_db_google",
+                MultiCloudTestDatabase.googleEmployees("employees", EMPLOYEES, "X <= " + FEW_EMPLOYEES));
+        MultiCloudTestDatabase.executeInSchema("mc_db", "mc_db_amazon",
+                MultiCloudTestDatabase.amazonEmployees("employees", EMPLOYEES, "X <= " + FEW_EMPLOYEES));
+        Class.forName("org.apache.calcite.jdbc.Driver");
+    }
+
+    /**
+     * Another model stores fragments of the same schema and table names in another database, with other rows, so
+     * neither model reads rows cached by the other.
+     */
+    @Test
+    public void modelStoringSameSchemasElsewhere() throws SQLException {
+        assertTrue(MultiCloudFragmentCache.isEnabled());
+        Properties fewEmployees = MultiCloudTestDatabase.connectionProperties(
+                MultiCloudTestDatabase.schema("mc_db_amazon", "mc_db", ""),
+                MultiCloudTestDatabase.schema("mc_db_google", "mc_db", ""),
+                MultiCloudTestDatabase.schema("mc_db", "mc_db", ", \"fragmentation\": {\"employees\":"
+                        + " {\"key\": \"multiid\", \"fragments\": "
+                        + MultiCloudTestDatabase.fragments("employees", "employees") + "}}"));
+
+        String sql = "SELECT `last`, `age` FROM employees";
+        assertEquals(EMPLOYEES, count(MultiCloudTestDatabase.connectionProperties(), sql));
+        assertEquals(FEW_EMPLOYEES, count(fewEmployees, sql));
+
+        long hits = MultiCloudFragmentCache.stats().hitCount();
+        assertEquals(EMPLOYEES, count(MultiCloudTestDatabase.connectionProperties(), sql));
+        assertEquals(FEW_EMPLOYEES, count(fewEmployees, sql));
+        assertTrue(MultiCloudFragmentCache.stats().hitCount() > hits);
+    }
+
+    private static int count(Properties properties, String sql) throws SQLException {
+        try (Connection connection = DriverManager.getConnection("jdbc:calcite:", properties);
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(sql)) {
+            int rows = 0;
+            while (resultSet.next()) {
+                rows++;
+            }
+            return rows;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package cloud.sec.core.runtime;
+
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of {@link MultiCloudQueries}, over a connection whose statements are played by the test.
+ */
+public class MultiCloudQueriesTest {
+
+    @Test
+    public void cancelBeforeStart() {
+        Queue<Runnable> tasks = new ArrayDeque<>();
+        Provider provider = new Provider(5);
+
+        CompletableFuture<List<Object[]>> future = new MultiCloudQueries(tasks::add)
+                .query(provider.connection(), "SELECT 1");
+        assertTrue(future.cancel(true));
+        tasks.remove().run();
+
+        assertTrue(future.isCancelled());
+        assertEquals(0, provider.prepared.get());
+    }
+
+    @Test(timeout = 30_000)
+    public void cancelWhileFetching() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Provider provider = new Provider(5);
+            provider.fetching = new CountDownLatch(1);
+
+            CompletableFuture<List<Object[]>> future = new MultiCloudQueries(executor)
+                    .query(provider.connection(), "SELECT 1");
+            provider.fetching.await();
+            assertTrue(future.cancel(true));
+
+            assertTrue(provider.cancelled.await(10, TimeUnit.SECONDS));
+            // the next task of the thread which ran the query is not interrupted by the cancel
+            assertFalse(executor.submit(() -> Thread.currentThread().isInterrupted()).get());
+            assertTrue(provider.isClosed);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void requestReadsOnlyDemandedBatches() {
+        Provider provider = new Provider(5);
+        Batches batches = new Batches();
+        new MultiCloudQueries(Runnable::run).publish(provider.connection(), "SELECT 1", 2).subscribe(batches);
+
+        batches.subscription.request(1);
+        assertEquals(1, batches.batches.size());
+        assertEquals(2, provider.rowsRead.get());
+        assertFalse(batches.isComplete);
+
+        batches.subscription.request(2);
+        assertEquals(3, batches.batches.size());
+        assertEquals(1, batches.batches.get(2).size());
+        assertTrue(batches.isComplete);
+        assertTrue(provider.isClosed);
+    }
+
+    @Test
+    public void errorIsPublished() {
+        Provider provider = new Provider(5);
+        provider.error = new SQLException("Provider failed");
+        Batches batches = new Batches();
+        new MultiCloudQueries(Runnable::run).publish(provider.connection(), "SELECT 1", 2).subscribe(batches);
+
+        batches.subscription.request(1);
+        assertSame(provider.error, batches.error);
+        assertTrue(batches.batches.isEmpty());
+        assertFalse(batches.isComplete);
+        assertTrue(provider.isClosed);
+    }
+
+    /**
+     * Stands in for a connection and the providers behind it: its statements return rows of a single column, or wait
+     * for their first row until they are cancelled, ignoring interrupts, if {@link #fetching} is set.
+     */
+    private static class Provider {
+        private final int rows;
+        private final AtomicInteger prepared = new AtomicInteger();
+        private final AtomicInteger rowsRead = new AtomicInteger();
+        private final CountDownLatch cancelled = new CountDownLatch(1);
+        private volatile CountDownLatch fetching;
+        private volatile SQLException error;
+        private volatile boolean isClosed;
+
+        Provider(int rows) {
+            this.rows = rows;
+        }
+
+        Connection connection() {
+            ResultSetMetaData metaData = proxy(ResultSetMetaData.class,
+                    (name, arguments) -> name.equals("getColumnCount") ? 1 : null);
+            ResultSet results = proxy(ResultSet.class, (name, arguments) -> {
+                switch (name) {
+                    case "next":
+                        return next();
+                    case "getObject":
+                        return rowsRead.get();
+                    case "getMetaData":
+                        return metaData;
+                    default:
+                        return null;
+                }
+            });
+            PreparedStatement statement = proxy(PreparedStatement.class, (name, arguments) -> {
+                switch (name) {
+                    case "executeQuery":
+                        if (error != null) {
+                            throw error;
+                        }
+                        return results;
+                    case "cancel":
+                        cancelled.countDown();
+                        return null;
+                    case "close":
+                        isClosed = true;
+                        return null;
+                    default:
+                        return null;
+                }
+            });
+            return proxy(Connection.class, (name, arguments) -> {
+                if (name.equals("prepareStatement")) {
+                    prepared.incrementAndGet();
+                    return statement;
+                }
+                return null;
+            });
+        }
+
+        private boolean next() throws SQLException {
+            if (fetching == null) {
+                return rowsRead.incrementAndGet() <= rows;
+            }
+            fetching.countDown();
+            while (true) {
+                try {
+                    cancelled.await();
+                    throw new SQLException("Statement was cancelled");
+                } catch (InterruptedException e) {
+                    // a provider does not notice interrupts
+                }
+            }
+        }
+    }
+
+    private interface Behavior {
+        Object invoke(String method, Object[] arguments) throws Exception;
+    }
+
+    private static <T> T proxy(Class<T> type, Behavior behavior) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, arguments) -> {
+                    Object result = behavior.invoke(method.getName(), arguments);
+                    if (result == null && method.getReturnType() == boolean.class) {
+                        return false;
+                    }
+                    if (result == null && method.getReturnType() == int.class) {
+                        return 0;
+                    }
+                    return result;
+                }));
+    }
+
+    private static class Batches implements MultiCloudQueries.Subscriber<List<Object[]>> {
+        private final List<List<Object[]>> batches = new ArrayList<>();
+        private MultiCloudQueries.Subscription subscription;
+        private Throwable error;
+        private boolean isComplete;
+
+        @Override
+        public void onSubscribe(MultiCloudQueries.Subscription subscription) {
+            assertNull(this.subscription);
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(List<Object[]> item) {
+            batches.add(item);
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            this.error = error;
+        }
+
+        @Override
+        public void onComplete() {
+            isComplete = true;
+        }
+    }
+}
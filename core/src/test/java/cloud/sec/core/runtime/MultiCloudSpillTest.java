@@ -0,0 +1,62 @@
+package cloud.sec.core.runtime;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of {@link MultiCloudSpill}.
+ */
+public class MultiCloudSpillTest {
+
+    @Test
+    public void repartitionSplitsPartition() {
+        try (MultiCloudSpill spill = new MultiCloudSpill(2)) {
+            for (long key = 0; key < 10_000; key++) {
+                spill.write(spill.partition(key), 0, new Object[]{key});
+                spill.write(spill.partition(key), 1, new Object[]{key, "part" + key});
+            }
+
+            int partition = spill.nextPartition();
+            long rows = rows(spill, partition);
+            assertTrue(spill.exceeds(partition, 1024));
+            assertFalse(spill.exceeds(partition, Long.MAX_VALUE));
+
+            try (MultiCloudSpill repartitioned = spill.repartition(partition, new int[]{0, 0})) {
+                long repartitionedRows = 0;
+                int partitions = 0;
+                int next;
+                while ((next = repartitioned.nextPartition()) >= 0) {
+                    repartitionedRows += rows(repartitioned, next);
+                    partitions++;
+                }
+                assertEquals(rows, repartitionedRows);
+                assertTrue(partitions > MultiCloudSpill.PARTITIONS / 2);
+            }
+        }
+    }
+
+    @Test
+    public void singleKeyNotRepartitioned() {
+        try (MultiCloudSpill spill = new MultiCloudSpill(2)) {
+            spill.write(spill.partition(7L), 0, new Object[]{7L, "part"});
+            spill.write(spill.partition(7L), 1, new Object[]{7L, "other part"});
+            assertFalse(spill.exceeds(spill.nextPartition(), 0));
+        }
+    }
+
+    private static long rows(MultiCloudSpill spill, int partition) {
+        long rows = 0;
+        for (int fragment = 0; fragment < 2; fragment++) {
+            try (MultiCloudSpill.Reader reader = spill.read(partition, fragment, 0)) {
+                MultiCloudFetch.Batch batch;
+                while ((batch = reader.next()) != null) {
+                    rows += batch.size();
+                }
+            }
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,141 @@
+package cloud.sec.core.runtime;
+
+import cloud.sec.core.MultiCloudTestDatabase;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of {@link MultiCloudWrites} over {@link MultiCloudTestDatabase}.
+ */
+public class MultiCloudWritesTest {
+
+    @BeforeClass
+    public static void createDatabase() throws Exception {
+        MultiCloudTestDatabase.create(100);
+        Class.forName("org.apache.calcite.jdbc.Driver");
+    }
+
+    @Test
+    public void insertedKeysReservedInProvider() throws SQLException {
+        try (Connection connection = DriverManager.getConnection("jdbc:calcite:",
+                MultiCloudTestDatabase.connectionProperties());
+             Statement statement = connection.createStatement()) {
+            assertEquals(2, statement.executeUpdate("INSERT INTO `employees` (`id`, `age`, `first`, `last`, `city_id`)"
+                    + " VALUES (1001, 30, 'Reserved', 'Key', 1), (1002, 31, 'Reserved', 'Key', 2)"));
+        }
+
+        try (Connection connection = DriverManager.getConnection("jdbc:h2:mem:mc_db_google", "sa", "");
+             Statement statement = connection.createStatement()) {
+            long lastKey;
+            try (ResultSet resultSet = statement.executeQuery("SELECT last_key FROM \"mc_db_google\".\""
+                    + MultiCloudWrites.KEYS_TABLE + "\" WHERE logical_table = 'mc_db.employees'")) {
+                assertTrue(resultSet.next());
+                lastKey = resultSet.getLong(1);
+            }
+            try (ResultSet resultSet = statement.executeQuery("SELECT \"multiid\" FROM \"mc_db_google\".\"employees\""
+                    + " WHERE \"first\" = 'Reserved'")) {
+                int rows = 0;
+                while (resultSet.next()) {
+                    long key = resultSet.getLong(1);
+                    assertTrue(key > 1000 && key <= lastKey);
+                    rows++;
+                }
+                assertEquals(2, rows);
+            }
+        }
+    }
+
+    @Test(timeout = 30_000)
+    public void failedBatchWaitsForOtherBatches() throws InterruptedException {
+        CountDownLatch executing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicBoolean isReturned = new AtomicBoolean();
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+
+        Thread writer = new Thread(() -> {
+            try {
+                MultiCloudWrites.executeBatches(new PreparedStatement[]{
+                        statement(() -> {
+                            throw new SQLException("Batch failed");
+                        }),
+                        statement(() -> {
+                            executing.countDown();
+                            release.await();
+                        })});
+            } catch (RuntimeException e) {
+                failure.set(e);
+            }
+            isReturned.set(true);
+        });
+        writer.start();
+
+        executing.await();
+        writer.join(200);
+        assertFalse("Failure was thrown while another batch was running", isReturned.get());
+        release.countDown();
+        writer.join();
+        assertNotNull(failure.get());
+        assertTrue(failure.get().getCause() instanceof SQLException);
+    }
+
+    @Test(timeout = 30_000)
+    public void interruptedWriterWaitsForBatches() throws InterruptedException {
+        CountDownLatch executing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicBoolean isReturned = new AtomicBoolean();
+        AtomicBoolean isInterrupted = new AtomicBoolean();
+
+        Thread writer = new Thread(() -> {
+            try {
+                MultiCloudWrites.executeBatches(new PreparedStatement[]{statement(() -> {
+                    executing.countDown();
+                    release.await();
+                })});
+            } catch (RuntimeException e) {
+                isInterrupted.set(Thread.currentThread().isInterrupted());
+            }
+            isReturned.set(true);
+        });
+        writer.start();
+
+        executing.await();
+        writer.interrupt();
+        writer.join(200);
+        assertFalse("Writer returned while a batch was running", isReturned.get());
+        release.countDown();
+        writer.join();
+        assertTrue("Interrupt of the writer was lost", isInterrupted.get());
+    }
+
+    private interface Batch {
+        void execute() throws Exception;
+    }
+
+    // a statement whose batch runs the given code
+    private static PreparedStatement statement(Batch batch) {
+        return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, (proxy, method, arguments) -> {
+                    if (method.getName().equals("executeBatch")) {
+                        batch.execute();
+                        return new int[0];
+                    }
+                    return null;
+                });
+    }
+}